@@ -0,0 +1,124 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.gui.BoardDrawerHex;
+import hexgui.gui.BoardOverlay;
+import hexgui.gui.BoardRenderer;
+import hexgui.gui.GuiField;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+//----------------------------------------------------------------------------
+
+/** Drawing the board into an offscreen image, as GuiBoard paints it:
+    an empty board, a position with stones and analysis marks, and a
+    resize, which draws the static layer again. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark
+{
+    @Param({"11", "19"})
+    public int m_size;
+
+    @Setup
+    public void setup()
+    {
+        m_image = new BufferedImage(WIDTH, HEIGHT,
+                                    BufferedImage.TYPE_INT_RGB);
+        m_graphics = m_image.createGraphics();
+        m_drawer = new BoardDrawerHex();
+        m_empty = BoardRenderer.createFields(m_size, m_size);
+        m_emptyOverlay = new BoardOverlay();
+        HexColor stones[] = new HexColor[HexPoint.MAX_POINTS];
+        for (int i = 0; i < m_size * m_size; i += 3)
+            stones[HexPoint.get(i % m_size, i / m_size).getIndex()]
+                = (i % 2 == 0) ? HexColor.BLACK : HexColor.WHITE;
+        m_position = BoardRenderer.createFields(m_size, m_size, stones,
+                                                HexPoint.get(0, 0));
+        m_overlay = new BoardOverlay();
+        for (int i = 1; i < m_size * m_size; i += 3)
+        {
+            HexPoint p = HexPoint.get(i % m_size, i / m_size);
+            m_overlay.setAlphaColor(p, Color.green, 0.5f);
+            m_overlay.setText(p, Integer.toString(i));
+        }
+        m_overlay.addArrow(HexPoint.get(1, 1), HexPoint.get(3, 2));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage emptyBoard()
+    {
+        m_drawer.draw(m_graphics, WIDTH, HEIGHT, m_size, m_size, 10,
+                      false, m_empty, m_emptyOverlay);
+        return m_image;
+    }
+
+    @Benchmark
+    public BufferedImage position()
+    {
+        m_drawer.draw(m_graphics, WIDTH, HEIGHT, m_size, m_size, 10,
+                      false, m_position, m_overlay);
+        return m_image;
+    }
+
+    /** Alternates between two widths, so every call has to draw the
+        static layer. */
+    @Benchmark
+    public BufferedImage resize()
+    {
+        m_narrow = !m_narrow;
+        int width = m_narrow ? WIDTH - 50 : WIDTH;
+        m_drawer.draw(m_graphics, width, HEIGHT, m_size, m_size, 10,
+                      false, m_position, m_overlay);
+        return m_image;
+    }
+
+    private static final int WIDTH = 800;
+
+    private static final int HEIGHT = 600;
+
+    private BufferedImage m_image;
+
+    private Graphics2D m_graphics;
+
+    private BoardDrawerHex m_drawer;
+
+    private GuiField m_empty[];
+
+    private BoardOverlay m_emptyOverlay;
+
+    private GuiField m_position[];
+
+    private BoardOverlay m_overlay;
+
+    private boolean m_narrow;
+}
+
+//----------------------------------------------------------------------------
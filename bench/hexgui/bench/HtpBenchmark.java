@@ -0,0 +1,234 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.hex.HexPoint;
+import hexgui.htp.HtpController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+//----------------------------------------------------------------------------
+
+/** Sending commands through HtpController to an engine stub that
+    answers from memory, so only the controller's own work is timed:
+    writing the command, reading and cleaning the response lines and
+    dispatching gogui-gfx output. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HtpBenchmark
+{
+    @Setup
+    public void setup()
+    {
+        StringBuilder points = new StringBuilder("= ");
+        for (int i = 0; i < 121; ++i)
+            points.append(HexPoint.get(i % 11, i / 11)).append(' ');
+        points.append("\n\n");
+        StringBuilder gfx = new StringBuilder("gogui-gfx:\nVAR");
+        for (int i = 0; i < 40; ++i)
+            gfx.append(i % 2 == 0 ? " b " : " w ")
+                .append(HexPoint.get(i % 11, i / 11));
+        gfx.append("\nLABEL a1 0.5 b2 0.25\n\n= \n\n");
+        m_engine = new EngineStub();
+        m_engine.answer("name", "= stub\n\n");
+        m_engine.answer("points", points.toString());
+        m_engine.answer("gfx", gfx.toString());
+        // The controller prints every command and response.
+        m_stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream()
+            {
+                public void write(int b)
+                {
+                }
+
+                public void write(byte b[], int off, int len)
+                {
+                }
+            }));
+        m_controller = new HtpController(m_engine.getInputStream(),
+                                         m_engine.getOutputStream(),
+                                         new NullIO(),
+                                         new HtpController.GuiFxCallback()
+            {
+                public void guifx(String fx)
+                {
+                    m_fx = fx;
+                }
+            });
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(m_stdout);
+    }
+
+    @Benchmark
+    public String shortResponse() throws Exception
+    {
+        m_controller.sendCommand("name\n");
+        return m_controller.getResponse();
+    }
+
+    @Benchmark
+    public String pointListResponse() throws Exception
+    {
+        m_controller.sendCommand("points\n");
+        return m_controller.getResponse();
+    }
+
+    @Benchmark
+    public String gfxResponse() throws Exception
+    {
+        m_controller.sendCommand("gfx\n");
+        return m_fx;
+    }
+
+    private EngineStub m_engine;
+
+    private HtpController m_controller;
+
+    private PrintStream m_stdout;
+
+    private String m_fx;
+
+    private static final class NullIO
+        implements HtpController.IOInterface
+    {
+        public void sentCommand(String str)
+        {
+        }
+
+        public void receivedResponse(String str)
+        {
+        }
+
+        public void receivedError(String str)
+        {
+        }
+    }
+
+    /** An engine answering each command line with a canned response.
+        The command and response travel through byte arrays on the
+        calling thread; the response is queued when the newline ending
+        the command is written, before the controller reads it. */
+    private static final class EngineStub
+    {
+        void answer(String command, String response)
+        {
+            m_commands[m_numAnswers] = command.getBytes();
+            m_responses[m_numAnswers] = response.getBytes();
+            ++m_numAnswers;
+        }
+
+        InputStream getInputStream()
+        {
+            return new InputStream()
+                {
+                    public int read()
+                    {
+                        if (m_pos == m_end)
+                            return -1;
+                        return m_pending[m_pos++] & 0xff;
+                    }
+
+                    public int read(byte b[], int off, int len)
+                    {
+                        if (m_pos == m_end)
+                            return -1;
+                        int n = Math.min(len, m_end - m_pos);
+                        System.arraycopy(m_pending, m_pos, b, off, n);
+                        m_pos += n;
+                        return n;
+                    }
+
+                    public int available()
+                    {
+                        return m_end - m_pos;
+                    }
+                };
+        }
+
+        OutputStream getOutputStream()
+        {
+            return new OutputStream()
+                {
+                    public void write(int b) throws IOException
+                    {
+                        if (b == '\n')
+                            respond();
+                        else if (m_lineLength < m_line.length)
+                            m_line[m_lineLength++] = (byte)b;
+                    }
+                };
+        }
+
+        private int m_numAnswers;
+
+        private final byte m_commands[][] = new byte[8][];
+
+        private final byte m_responses[][] = new byte[8][];
+
+        private final byte m_line[] = new byte[256];
+
+        private int m_lineLength;
+
+        private byte m_pending[] = new byte[0];
+
+        private int m_pos;
+
+        private int m_end;
+
+        private void respond() throws IOException
+        {
+            byte response[] = UNKNOWN;
+            for (int i = 0; i < m_numAnswers; ++i)
+                if (matches(m_commands[i]))
+                    response = m_responses[i];
+            m_lineLength = 0;
+            int left = m_end - m_pos;
+            if (m_pending.length < left + response.length)
+            {
+                byte pending[] = new byte[2 * (left + response.length)];
+                System.arraycopy(m_pending, m_pos, pending, 0, left);
+                m_pending = pending;
+            }
+            else
+                System.arraycopy(m_pending, m_pos, m_pending, 0, left);
+            System.arraycopy(response, 0, m_pending, left, response.length);
+            m_pos = 0;
+            m_end = left + response.length;
+        }
+
+        private boolean matches(byte command[])
+        {
+            if (command.length != m_lineLength)
+                return false;
+            for (int i = 0; i < m_lineLength; ++i)
+                if (m_line[i] != command[i])
+                    return false;
+            return true;
+        }
+
+        private static final byte UNKNOWN[] = "? unknown command\n\n"
+            .getBytes();
+    }
+}
+
+//----------------------------------------------------------------------------
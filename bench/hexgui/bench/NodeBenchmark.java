@@ -0,0 +1,96 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.game.Node;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//----------------------------------------------------------------------------
+
+/** Navigating game trees: walking a long main line, finding the
+    depth of a node, looking up children among many siblings and
+    laying out a tree after a change. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeBenchmark
+{
+    @Setup
+    public void setup()
+    {
+        m_deep = Trees.deep(361, 5);
+        m_leaf = Trees.last(m_deep);
+        m_wide = Trees.wide(1000, 5);
+        m_lastVariation = Trees.last(m_wide.getChild(999));
+    }
+
+    @Benchmark
+    public Node walkMainLine()
+    {
+        Node node = m_deep;
+        while (node.hasChild())
+            node = node.getChild();
+        return node;
+    }
+
+    @Benchmark
+    public Node walkBack()
+    {
+        Node node = m_leaf;
+        while (node.getParent() != null)
+            node = node.getParent();
+        return node;
+    }
+
+    @Benchmark
+    public int depth()
+    {
+        return m_leaf.getDepth();
+    }
+
+    @Benchmark
+    public Node lastChild()
+    {
+        return m_wide.getChild(m_wide.numChildren() - 1);
+    }
+
+    @Benchmark
+    public Node childContainingNode()
+    {
+        return m_wide.getChildContainingNode(m_lastVariation);
+    }
+
+    /** Adds and removes a leaf at the end of the main line, then asks
+        for the layout of the whole tree, as the game tree view does
+        after a move. */
+    @Benchmark
+    public int relayoutAfterMove()
+    {
+        Node leaf = new Node();
+        m_leaf.addChild(leaf);
+        int width = m_deep.getSubtreeWidth();
+        leaf.removeSelf();
+        return width + m_deep.getSubtreeHeight();
+    }
+
+    private Node m_deep;
+
+    private Node m_leaf;
+
+    private Node m_wide;
+
+    private Node m_lastVariation;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,339 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.VC;
+import hexgui.util.Pair;
+import hexgui.util.StringUtils;
+
+import java.io.StringReader;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//----------------------------------------------------------------------------
+
+/** The StringUtils parsers and HexPoint.get(String) on responses of
+    the size a program sends for an 11x11 board.
+
+    <p>The methods ending in Baseline run the parsers StringUtils had
+    before they were moved onto Tokenizer (split() and Vector based),
+    copied below unchanged, so the two can be compared in one run. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark
+{
+    @Setup
+    public void setup()
+    {
+        StringBuilder points = new StringBuilder();
+        StringBuilder pairs = new StringBuilder();
+        StringBuilder variation = new StringBuilder();
+        for (int i = 0; i < 121; ++i)
+        {
+            String p = HexPoint.get(i % 11, i / 11).toString();
+            points.append(p).append(i % 11 == 10 ? '\n' : ' ');
+            pairs.append(p).append(' ').append(0.5f + i / 1000f)
+                .append('\n');
+            variation.append(i % 2 == 0 ? "B " : "W ").append(p)
+                .append(' ');
+        }
+        m_points = points.toString();
+        m_pairs = pairs.toString();
+        m_variation = variation.toString();
+        StringBuilder vcs = new StringBuilder();
+        for (int i = 0; i < 2000; ++i)
+        {
+            vcs.append(i % 2 == 0 ? "black" : "white")
+                .append(" a1 b2 ").append(i % 3 == 0 ? "semi" : "full")
+                .append(" and [");
+            for (int k = 0; k < 8; ++k)
+                vcs.append(' ').append(HexPoint.get((i + k) % 11,
+                                                    (3 * k) % 11));
+            vcs.append(" ] [ c3 d4 ]");
+            if (i % 3 == 0)
+                vcs.append(" e5");
+            vcs.append('\n');
+        }
+        m_vcs = vcs.toString();
+    }
+
+    @Benchmark
+    public Object cleanWhiteSpace()
+    {
+        return StringUtils.cleanWhiteSpace(m_vcs);
+    }
+
+    @Benchmark
+    public Object cleanWhiteSpaceBaseline()
+    {
+        return Baseline.cleanWhiteSpace(m_vcs);
+    }
+
+    @Benchmark
+    public Object parsePointList()
+    {
+        return StringUtils.parsePointList(m_points);
+    }
+
+    @Benchmark
+    public Object parsePointListBaseline()
+    {
+        return Baseline.parsePointList(m_points);
+    }
+
+    @Benchmark
+    public Object parseStringList()
+    {
+        return StringUtils.parseStringList(m_pairs);
+    }
+
+    @Benchmark
+    public Object parseStringListBaseline()
+    {
+        return Baseline.parseStringList(m_pairs);
+    }
+
+    @Benchmark
+    public Object parseStringPairList()
+    {
+        return StringUtils.parseStringPairList(m_pairs);
+    }
+
+    @Benchmark
+    public Object parseStringPairListBaseline()
+    {
+        return Baseline.parseStringPairList(m_pairs);
+    }
+
+    @Benchmark
+    public Object parseVariation()
+    {
+        return StringUtils.parseVariation(m_variation);
+    }
+
+    @Benchmark
+    public Object parseVariationBaseline()
+    {
+        return Baseline.parseVariation(m_variation);
+    }
+
+    @Benchmark
+    public Object parseVCList()
+    {
+        return StringUtils.parseVCList(m_vcs);
+    }
+
+    @Benchmark
+    public Object parseVCListBaseline()
+    {
+        return Baseline.parseVCList(m_vcs);
+    }
+
+    /** The linear search over all points that SgfReader and the HTP
+        callbacks use. */
+    @Benchmark
+    public HexPoint hexPointGet()
+    {
+        return HexPoint.get("k11");
+    }
+
+    @Benchmark
+    public HexPoint hexPointGetRange()
+    {
+        return HexPoint.get(m_points, 0, 2);
+    }
+
+    private String m_points;
+
+    private String m_pairs;
+
+    private String m_variation;
+
+    private String m_vcs;
+
+    /** The parsers of StringUtils before the change to Tokenizer. */
+    private static final class Baseline
+    {
+        static String cleanWhiteSpace(String str)
+        {
+            StringReader reader = new StringReader(str);
+            StringBuilder ret = new StringBuilder();
+
+            boolean white = false;
+            while (true) {
+                int c;
+                try {
+                    c = reader.read();
+                }
+                catch (Throwable t) {
+                    System.out.println("Something bad happened!");
+                    break;
+                }
+
+                if (c == -1) break;
+                if (c == ' ' || c == '\n' || c == '\t') {
+                    if (!white) ret.append(" ");
+                    white = true;
+                } else {
+                    white = false;
+                    ret.append((char)c);
+                }
+            }
+            return ret.toString();
+        }
+
+        static Vector<HexPoint> parsePointList(String str)
+        {
+            Vector<HexPoint> ret = new Vector<HexPoint>();
+            String cleaned = cleanWhiteSpace(str.trim());
+            if (cleaned.length() == 0)
+                return ret;
+
+            String[] pts = cleaned.split(" ");
+            for (int i=0; i<pts.length; i++) {
+                HexPoint p = HexPoint.get(pts[i].trim());
+                ret.add(p);
+            }
+            return ret;
+        }
+
+        static Vector<Pair<HexColor, HexPoint> > parseVariation(String str)
+        {
+            Vector<Pair<HexColor, HexPoint> > ret 
+                =  new Vector<Pair<HexColor, HexPoint> >(); 
+
+            Vector<Pair<String, String> > pairs 
+                = parseStringPairList(str.trim());
+            for (int i=0; i<pairs.size(); ++i) 
+            {
+                HexColor color = (pairs.get(i).first.charAt(0) == 'B') 
+                    ? HexColor.BLACK : HexColor.WHITE;
+                HexPoint point = HexPoint.get(pairs.get(i).second);
+                ret.add(new Pair<HexColor, HexPoint>(color, point));
+            }
+            return ret;
+        }
+
+        static Vector<String> parseStringList(String str)
+        {
+            Vector<String> ret = new Vector<String>();
+            String cleaned = cleanWhiteSpace(str.trim());
+            if (cleaned.length() == 0)
+                return ret;
+
+            String[] strs = cleaned.split(" ");
+            for (int i=0; i<strs.length; i++) {
+                String cur = strs[i].trim();
+                ret.add(cur);
+            }
+            return ret;
+        }
+
+        static Vector<Pair<String, String> > parseStringPairList(String str)
+        {
+            Vector<Pair<String, String> > ret
+                = new Vector<Pair<String, String> >();
+            String cleaned = cleanWhiteSpace(str.trim());
+            if (cleaned.length() == 0)
+                return ret;
+
+            String[] strs = cleaned.split(" ");
+            for (int i=0; i<strs.length; i+=2) {
+                String c1 = strs[i].trim();
+                String c2 = strs[i+1].trim();
+                ret.add(new Pair<String, String>(c1, c2));
+            }
+            return ret;
+        }
+
+        static Vector<VC> parseVCList(String str)
+        {
+            Vector<VC> ret = new Vector<VC>();
+            String cleaned = cleanWhiteSpace(str.trim());
+            if (cleaned.length() == 0)
+                return ret;
+
+            String[] vcs = cleaned.split(" ");
+
+            for (int i=0, j=0; i<vcs.length; i+=j) {
+                HexPoint from, to;
+                HexColor color;
+                String type = "unknown";
+                int moves = 0;
+                Vector<HexPoint> carrier = new Vector<HexPoint>();
+                Vector<HexPoint> stones = new Vector<HexPoint>();
+                Vector<HexPoint> key = new Vector<HexPoint>();
+                String source = "unknown";
+
+                try {
+                    color = HexColor.get(vcs[i+0]);
+                    from = HexPoint.get(vcs[i+1]);
+                    to = HexPoint.get(vcs[i+2]);
+                    type = vcs[i+3];
+
+                    j = 5;
+                    if (!type.equals("softlimit")) {
+                        source = vcs[i+4];
+
+                        // read carrier set
+                        if (!vcs[i+5].equals("["))
+                            throw new Throwable("No carrier!");
+
+                        for (j=6; j < vcs.length; j++) {
+                            if (vcs[i+j].equals("]")) break;
+                            HexPoint p = HexPoint.get(vcs[i+j]);
+                            carrier.add(p);
+                        }
+
+                        j++;  // skip closing ']'
+
+                        // read stone set
+                        if (!vcs[i+j].equals("["))
+                            throw new Throwable("No stones! Should be '[',"
+                                                + " got '" + vcs[j] + "'");
+
+                        for (j++; j < vcs.length; j++) {
+                            if (vcs[i+j].equals("]")) break;
+                            HexPoint p = HexPoint.get(vcs[i+j]);
+                            stones.add(p);
+                        }
+
+                        j++;  // skip closing ']'
+
+                        int blah = 0;
+                        if (type.equals("semi")) blah = 1;
+                        for (int k=0; k<blah; k++, j++) {
+                            HexPoint p = HexPoint.get(vcs[i+j]);
+                            key.add(p);
+                        }
+                    }
+
+                }
+                catch(Throwable t) {
+                    System.out.println("Exception occurred while parsing VC:"
+                                       + " '" + t.getMessage() + "'");
+                    return ret;                
+                }
+
+                ret.add(new VC(from, to, color, type, 
+                               source, moves, carrier, stones, key));
+            }
+            return ret;
+        }
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,72 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.sgf.SgfReader;
+import hexgui.sgf.SgfWriter;
+
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//----------------------------------------------------------------------------
+
+/** Reading and writing SGF files of deep and wide game trees. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SgfBenchmark
+{
+    /** "deep": a game filling a 19x19 board, with a variation of 5
+        moves at every move; "wide": 500 variations of 10 moves. The
+        reader and writer recurse per node, so a deeper main line
+        than a real game would only measure the stack. */
+    @Param({"deep", "wide"})
+    public String m_shape;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        m_root = m_shape.equals("deep") ? Trees.deep(361, 5)
+            : Trees.wide(500, 10);
+        m_info = new GameInfo();
+        m_info.setBoardSize(new Dimension(19, 19));
+        m_sgf = write().toByteArray();
+    }
+
+    @Benchmark
+    public Node read() throws Exception
+    {
+        return new SgfReader(new ByteArrayInputStream(m_sgf)).getGameTree();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream write()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        new SgfWriter(out, m_root, m_info);
+        return out;
+    }
+
+    private Node m_root;
+
+    private GameInfo m_info;
+
+    private byte m_sgf[];
+}
+
+//----------------------------------------------------------------------------
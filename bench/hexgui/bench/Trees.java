@@ -0,0 +1,74 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.bench;
+
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+
+//----------------------------------------------------------------------------
+
+/** Synthetic game trees for the benchmarks. */
+final class Trees
+{
+    /** A main line of the given number of moves, with a variation
+        of the given length at every move. */
+    static Node deep(int moves, int variation)
+    {
+        Node root = new Node();
+        Node node = root;
+        for (int i = 0; i < moves; ++i)
+        {
+            Node next = addLine(node, 1, i);
+            addLine(node, variation, i + 1);
+            node = next;
+        }
+        return root;
+    }
+
+    /** A root with the given number of variations of the given
+        length each. */
+    static Node wide(int variations, int length)
+    {
+        Node root = new Node();
+        for (int i = 0; i < variations; ++i)
+            addLine(root, length, i);
+        return root;
+    }
+
+    /** Returns the last node of the main line. */
+    static Node last(Node root)
+    {
+        Node node = root;
+        while (node.hasChild())
+            node = node.getChild();
+        return node;
+    }
+
+    /** Appends a line of moves below node; the points cycle over a
+        19x19 board, starting at offset. */
+    static Node addLine(Node node, int moves, int offset)
+    {
+        HexColor color = HexColor.BLACK;
+        for (int i = 0; i < moves; ++i)
+        {
+            int p = (offset + i) % 361;
+            Node child = new Node(new Move(HexPoint.get(p % 19, p / 19),
+                                           color));
+            node.addChild(child);
+            node = child;
+            color = color.otherColor();
+        }
+        return node;
+    }
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private Trees()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -4,8 +4,10 @@
 
 package hexgui;
 
+import hexgui.gui.DiagramExport;
 import hexgui.gui.HexGui;
 import hexgui.util.Options;
+import hexgui.util.StartupTimer;
 import hexgui.version.Version;
 
 import javax.swing.*;          
@@ -61,28 +63,72 @@ public final class Main
     private static void createAndShowGUI(File file, String command) {
         initLookAndFeel();
         JFrame.setDefaultLookAndFeelDecorated(true);
+        StartupTimer.mark("look and feel");
         HexGui app = new HexGui(file, command);
     }
 
+    /** Writes diagrams of the games given as arguments; see
+        DiagramExport. */
+    private static void export(Options opt) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String size = opt.get("size", "750x500");
+        int x = size.indexOf('x');
+        if (x < 0)
+            throw new Exception("Invalid size: " + size);
+        int width = Integer.parseInt(size.substring(0, x));
+        int height = Integer.parseInt(size.substring(x + 1));
+        int every = opt.getInteger("every", 10, 1);
+        int threads = opt.getInteger("threads", 
+                                     Runtime.getRuntime().availableProcessors(),
+                                     1);
+        Vector<File> games = new Vector<File>();
+        for (String arg : opt.getArguments())
+            games.add(new File(arg));
+        if (games.size() == 0)
+            throw new Exception("No game files given");
+        DiagramExport export = new DiagramExport(width, height,
+                                                 opt.get("format", "png"),
+                                                 threads);
+        long start = System.currentTimeMillis();
+        int n = export.export(games, every, new File(opt.get("export")));
+        System.out.println("Wrote " + n + " diagrams in "
+                           + (System.currentTimeMillis() - start) + " ms");
+    }
+
     public static void main(String[] args) throws Exception {
         try
         {
             String options[] = {
                 "config:",
+                "every:",
+                "export:",
+                "format:",
                 "program:",
+                "size:",
+                "threads:",
                 "help",
+                "timing",
                 "version"
             };
             Options opt = Options.parse(args, options);
             if (opt.contains("help")) {
                 String helpText =
                     "Usage: hexgui [options] [file]\n" +
+                    "       hexgui -export dir [options] file...\n" +
                     "Graphical user interface for Hex programs\n" +
                     "using the Hex Text Protocol.\n" +
                     "\n" +
                     "-config file   Read command line arguments from file\n" +
+                    "-every n       Export a diagram every n moves (10)\n" +
+                    "-export dir    Write diagrams of the games to dir\n" +
+                    "               without opening a window\n" +
+                    "-format f      Diagram format, png or svg (png)\n" +
                     "-help          Display this help and exit\n" +
                     "-program       Command for Hex program to attach\n" +
+                    "-size wxh      Diagram size in pixels (750x500)\n" +
+                    "-threads n     Threads rendering diagrams\n" +
+                    "               (number of processors)\n" +
+                    "-timing        Print the time of the startup phases\n" +
                     "-version       Print version and exit\n";
                 System.out.print(helpText);
                 return;
@@ -92,6 +138,14 @@ public final class Main
                                    + Version.date);
                 return;
             }
+            if (opt.contains("timing")) {
+                StartupTimer.setEnabled(true);
+                StartupTimer.mark("main");
+            }
+            if (opt.contains("export")) {
+                export(opt);
+                return;
+            }
             final String command = opt.get("program", null);
             ArrayList<String> arguments = opt.getArguments();
             final File file;
@@ -92,6 +92,9 @@ public class Node
         if (next != null) {
             next.setPrev(prev);
         }
+        if (getParent() != null) {
+            getParent().invalidateLayout();
+        }
     }
 
     /** Moves this node to the start of its sibling list. */
@@ -129,6 +132,7 @@ public class Node
         if (oldfirst != null) {
             oldfirst.setPrev(child);
         }
+        invalidateLayout();
     }
     
     /** Adds a child to the end of the list of children. 
@@ -149,6 +153,7 @@ public class Node
 	    cur.setNext(child);
 	    child.setPrev(cur);
 	}
+        invalidateLayout();
     }
 
     public boolean hasChild()
@@ -263,6 +268,28 @@ public class Node
         return depth;
     }
 
+    /** Returns the number of leaves in the subtree of this node; 1
+        for a leaf. This is the number of rows the subtree takes up in
+        a tree view. The value is cached and only recomputed for the
+        subtrees changed by addChild(), addFirstChild() or
+        removeSelf() since the last call.
+    */
+    public int getSubtreeWidth()
+    {
+        if (m_width < 0)
+            computeLayout();
+        return m_width;
+    }
+
+    /** Returns the length of the longest path from this node to a
+        leaf; 0 for a leaf. Cached like getSubtreeWidth(). */
+    public int getSubtreeHeight()
+    {
+        if (m_width < 0)
+            computeLayout();
+        return m_height;
+    }
+
     /** Determines if the current node is a swap node */
     public boolean isSwap()
     {
@@ -465,6 +492,52 @@ public class Node
         return HexColor.BLACK;
     }
 
+    //----------------------------------------------------------------------
+
+    /** Marks the cached subtree sizes of this node and its ancestors
+        as out of date. An out-of-date node always has out-of-date
+        ancestors, so we can stop at the first one already marked. */
+    private void invalidateLayout()
+    {
+        for (Node node = this; node != null && node.m_width >= 0;
+             node = node.m_parent)
+            node.m_width = -1;
+    }
+
+    /** Recomputes the out-of-date subtree sizes below this node.
+        Uses an explicit stack, since the tree may be deeper than the
+        call stack allows. */
+    private void computeLayout()
+    {
+        Vector<Node> stack = new Vector<Node>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            Node node = stack.lastElement();
+            if (node.m_width >= 0) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            boolean pending = false;
+            for (Node c = node.m_child; c != null; c = c.m_next) {
+                if (c.m_width < 0) {
+                    stack.add(c);
+                    pending = true;
+                }
+            }
+            if (pending)
+                continue;
+            int width = 0;
+            int height = 0;
+            for (Node c = node.m_child; c != null; c = c.m_next) {
+                width += c.m_width;
+                height = Math.max(height, c.m_height + 1);
+            }
+            node.m_width = Math.max(width, 1);
+            node.m_height = height;
+            stack.remove(stack.size() - 1);
+        }
+    }
+
     //----------------------------------------------------------------------
     // Debugging output
 
@@ -496,6 +569,10 @@ public class Node
     private Move m_move;
     private Node m_parent, m_prev, m_next, m_child;
     private boolean m_recent;
+
+    /** Cached subtree sizes; m_width is -1 if out of date. */
+    private int m_width = -1;
+    private int m_height;
 }
 
 //----------------------------------------------------------------------------
@@ -0,0 +1,164 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.game;
+
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+
+import java.util.Collections;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Sequence of HTP moves bringing a program from the position of one
+    node of the game tree to the position of another.
+
+    <p>The plan undoes the moves from the program's node up to the
+    lowest common ancestor of the two nodes and then plays the moves
+    down to the target.  Setup nodes and swap-pieces moves cannot be
+    played or undone with HTP; if one of them lies on the way, or if
+    the incremental plan costs more than setting up the board from
+    scratch, the plan is a rebuild.
+*/
+public final class SyncPlan
+{
+    /** Computes the plan for going from <code>from</code> to
+        <code>to</code>.
+        @param from node the program is at, or <code>null</code> if
+        its position is unknown.
+        @param to node the program should be brought to.
+        @param rebuildCost number of commands needed to set up the
+        position of <code>to</code> from scratch.
+    */
+    public static SyncPlan compute(Node from, Node to, int rebuildCost)
+    {
+        SyncPlan plan = new SyncPlan();
+        if (from == null)
+            return plan.rebuild(rebuildCost);
+
+        // Bring both nodes to the same depth, then walk up in
+        // lockstep until they meet.
+        Vector<Node> down = new Vector<Node>();
+        Node a = from;
+        Node b = to;
+        int da = from.getDepth();
+        int db = to.getDepth();
+        for (; da > db; --da) {
+            if (!plan.addUndo(a))
+                return plan.rebuild(rebuildCost);
+            a = a.getParent();
+        }
+        for (; db > da; --db) {
+            down.add(b);
+            b = b.getParent();
+        }
+        while (a != b) {
+            if (a == null || b == null || !plan.addUndo(a))
+                return plan.rebuild(rebuildCost);
+            down.add(b);
+            a = a.getParent();
+            b = b.getParent();
+        }
+
+        Collections.reverse(down);
+        for (Node node : down) {
+            if (!plan.addPlay(node))
+                return plan.rebuild(rebuildCost);
+        }
+        if (plan.getCost() >= rebuildCost)
+            return plan.rebuild(rebuildCost);
+        return plan;
+    }
+
+    /** Returns true if the move is sent to the program when played.
+        Passes, resignations, forfeits and swap-sides do not change
+        the board and are not sent. */
+    public static boolean isHtpMove(Move move)
+    {
+        HexPoint p = move.getPoint();
+        return p != HexPoint.RESIGN
+            && p != HexPoint.FORFEIT
+            && p != HexPoint.SWAP_SIDES
+            && p != HexPoint.PASS;
+    }
+
+    /** True if the position has to be set up from scratch. */
+    public boolean isRebuild()
+    {
+        return m_rebuild;
+    }
+
+    /** Moves to undo, in the order they must be undone. */
+    public Vector<Move> getUndoMoves()
+    {
+        return m_undo;
+    }
+
+    /** Moves to play after undoing, in order. */
+    public Vector<Move> getPlayMoves()
+    {
+        return m_play;
+    }
+
+    /** Number of HTP commands the plan needs. */
+    public int getCost()
+    {
+        if (m_rebuild)
+            return m_rebuildCost;
+        return m_undo.size() + m_play.size();
+    }
+
+    //------------------------------------------------------------
+
+    private SyncPlan()
+    {
+        m_undo = new Vector<Move>();
+        m_play = new Vector<Move>();
+    }
+
+    private SyncPlan rebuild(int cost)
+    {
+        m_rebuild = true;
+        m_rebuildCost = cost;
+        m_undo.clear();
+        m_play.clear();
+        return this;
+    }
+
+    /** Returns false if the node cannot be played or undone with
+        plain HTP moves. */
+    private static boolean isIncremental(Node node)
+    {
+        if (node.hasSetup())
+            return false;
+        return !node.hasMove()
+            || node.getMove().getPoint() != HexPoint.SWAP_PIECES;
+    }
+
+    private boolean addUndo(Node node)
+    {
+        if (!isIncremental(node))
+            return false;
+        if (node.hasMove() && isHtpMove(node.getMove()))
+            m_undo.add(node.getMove());
+        return true;
+    }
+
+    private boolean addPlay(Node node)
+    {
+        if (!isIncremental(node))
+            return false;
+        if (node.hasMove() && isHtpMove(node.getMove()))
+            m_play.add(node.getMove());
+        return true;
+    }
+
+    private boolean m_rebuild;
+    private int m_rebuildCost;
+    private final Vector<Move> m_undo;
+    private final Vector<Move> m_play;
+}
+
+//----------------------------------------------------------------------------
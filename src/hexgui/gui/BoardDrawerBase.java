@@ -9,7 +9,13 @@ import hexgui.util.RadialGradientPaint;
 import hexgui.hex.HexColor;
 import hexgui.hex.HexPoint;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import javax.imageio.ImageIO;
 import javax.swing.*;
 
 import java.awt.geom.Point2D;
@@ -21,6 +27,8 @@ import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.awt.AlphaComposite;
 import java.awt.Image;
 import java.awt.FontMetrics;
@@ -42,6 +50,12 @@ import java.net.URL;
     numerical values, etc) are not drawn, they are drawn with the
     GuiField class.
 
+    <p>The parts of the board that depend only on the geometry
+    (background, edges, cell outlines and coordinates) are drawn into
+    a static layer image, which is redrawn only when the size,
+    rotation or mirroring changes. A repaint copies the static layer
+    and draws the stones, marks and arrows on top.
+
     <p>Board sizes supported are <code>m x n</code> where
     <code>m</code> and <code>n</code> range from 1 to 31.  By
     default, black connects top and bottom and should be labeled with
@@ -53,6 +67,7 @@ public abstract class BoardDrawerBase
     public BoardDrawerBase()
     {
 	m_background = null;
+        m_sprites = new StoneSprites();
     }
 
     /** Loads the image in <code>filename</code> and sets it as the
@@ -63,15 +78,78 @@ public abstract class BoardDrawerBase
     */
     public void loadBackground(String filename)
     {
-        ClassLoader classLoader = getClass().getClassLoader();
-        URL url = classLoader.getResource(filename);
-        if (url == null) {
-	    System.out.println("loadBackground: could not load '" + 
-			       filename + "'!");
-            m_background = null;            
-	} else {
-	    m_background = new ImageIcon(url).getImage();
-	}
+        setBackground(getImage(filename));
+    }
+
+    /** Sets the image in <code>filename</code> as the background once
+        it is decoded, without waiting for it.  Until then no
+        background is drawn.  Must be called from the event dispatch
+        thread.
+        @param filename filename of the image to use as a background.
+        @param loaded run on the event dispatch thread after the
+        background is set, or null. */
+    public void loadBackgroundLater(String filename, final Runnable loaded)
+    {
+        final FutureTask<Image> task = getImageTask(filename);
+        if (task.isDone()) {
+            loadBackground(filename);
+            return;
+        }
+        m_background = null;
+        invalidateStaticLayer();
+        new SwingWorker<Image,Void>()
+        {
+            protected Image doInBackground() throws Exception
+            {
+                task.run();  // does nothing if prefetching took it
+                return task.get();
+            }
+
+            protected void done()
+            {
+                try {
+                    setBackground(get());
+                } catch (Exception e) {
+                    setBackground(null);
+                }
+                if (loaded != null)
+                    loaded.run();
+            }
+        }.execute();
+    }
+
+    /** Starts decoding the image in <code>filename</code> in the
+        background, so a later loadBackground() finds it ready.
+        Images are decoded once and shared by all drawers. */
+    public static void prefetchBackground(String filename)
+    {
+        Thread thread = new Thread(getImageTask(filename),
+                                   "HexGui image loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Sets whether heat values of the overlay are drawn. */
+    public void setHeatMap(boolean heatMap)
+    {
+        m_heatMap = heatMap;
+    }
+
+    /** Sets whether everything is drawn straight to the target
+        instead of through cached images (static layer, stone
+        sprites, heat layer). Slower, but vector targets such as
+        SvgGraphics2D then get shapes instead of bitmaps. */
+    public void setDirect(boolean direct)
+    {
+        m_direct = direct;
+        m_sprites.setDirect(direct);
+        invalidateStaticLayer();
+    }
+
+    /** Forces the static layer to be redrawn on the next draw(). */
+    public void invalidateStaticLayer()
+    {
+        m_static = null;
     }
 
     /** Calculates and sets the geometry of the board. */
@@ -163,12 +241,31 @@ public abstract class BoardDrawerBase
     */
     public GuiField getFieldContaining(Point p, GuiField field[])
     {
-	if (m_outlines == null)
+	if (m_outlines == null || m_outlines.length != field.length)
 	    return null;
-	for (int x=0; x<field.length; x++) {
-	    if (m_outlines[x].contains(p)) 
-		return field[x];
-	}
+
+        // Invert the transformation of hexPoint() to get the
+        // fractional file and rank of p, then test the nearest cell
+        // and its neighbours exactly.
+        double det = m_dfileX * m_drankY - m_drankX * m_dfileY;
+        if (det == 0)
+            return null;
+        double dx = p.x - m_originX;
+        double dy = p.y - m_originY;
+        double a = (dx * m_drankY - m_drankX * dy) / det;
+        double b = (m_dfileX * dy - dx * m_dfileY) / det;
+        int x0 = (int)Math.round(a);
+        int y0 = (int)Math.round(b);
+        for (int i = 0; i < NEIGHBOURS.length; i++) {
+            int x = x0 + NEIGHBOURS[i][0];
+            int y = y0 + NEIGHBOURS[i][1];
+            if (x < 0 || y < 0 
+                || x >= HexPoint.MAX_WIDTH || y >= HexPoint.MAX_HEIGHT)
+                continue;
+            int k = m_fieldIndex[HexPoint.get(x, y).getIndex()];
+            if (k >= 0 && m_outlines[k].contains(p))
+                return field[k];
+        }
 	return null;
     }
 
@@ -183,28 +280,128 @@ public abstract class BoardDrawerBase
 	@param bh the height of the board (in fields)
 	@param mirrored true if board is mirrored
         @param field the fields to draw
-        @param arrows the list of arrows to draw
+        @param overlay marks drawn on top of the fields
     */
     public void draw(Graphics2D g, 
 		     int w, int h, int bw, int bh,
                      double rotation,
 		     boolean mirrored,
 		     GuiField field[],
-                     Vector<Pair<HexPoint, HexPoint>> arrows)
+                     BoardOverlay overlay)
     {
         setGeometry(w, h, bw, bh, rotation, mirrored);
         
+        if (!areOutlinesValid(field))
+            calcOutlines(field);
+
+        if (m_direct) {
+            Graphics2D g2 = (Graphics2D)g.create();
+            setAntiAliasing(g2);
+            drawStaticParts(g2, field);
+            g2.dispose();
+        } else {
+            if (!isStaticLayerValid(g, field.length))
+                drawStaticLayer(g, field);
+            g.drawImage(m_static, 0, 0, null);
+        }
+
+	setAntiAliasing(g);
+        updateSprites(g);
+        drawSelected(g, field);
+	drawShadows(g, field, overlay);
+	drawFields(g, field, overlay);
+        drawAlpha(g, field, overlay);
+        drawArrows(g, overlay.getArrows());
+    }
+
+    //------------------------------------------------------------
+
+    /** Offsets of a cell and its six neighbours, nearest first. */
+    private static final int[][] NEIGHBOURS = {
+        {0, 0}, {1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, -1}, {-1, 1}
+    };
+
+    /** Returns true if the cached outlines were calculated for the
+        current geometry and the points of the given fields. */
+    private boolean areOutlinesValid(GuiField field[])
+    {
+        if (m_outlines == null
+            || m_outlinePoints.length != field.length
+            || m_outlinesWidth != m_width 
+            || m_outlinesHeight != m_height
+            || m_outlinesRotation != m_rotation
+            || m_outlinesMirrored != m_mirrored)
+            return false;
+        for (int i = 0; i < field.length; i++)
+            if (m_outlinePoints[i] != field[i].getPoint())
+                return false;
+        return true;
+    }
+
+    /** Calculates the cell outlines and the index used for hit
+        testing, and remembers the geometry they belong to. */
+    private void calcOutlines(GuiField field[])
+    {
 	m_outlines = calcCellOutlines(field);
+        m_outlinePoints = new HexPoint[field.length];
+        m_fieldIndex = new int[HexPoint.MAX_POINTS];
+        Arrays.fill(m_fieldIndex, -1);
+        for (int i = 0; i < field.length; i++) {
+            m_outlinePoints[i] = field[i].getPoint();
+            m_fieldIndex[m_outlinePoints[i].getIndex()] = i;
+        }
+        m_outlinesWidth = m_width;
+        m_outlinesHeight = m_height;
+        m_outlinesRotation = m_rotation;
+        m_outlinesMirrored = m_mirrored;
+    }
+
+    /** Returns true if the static layer was drawn for the current
+        geometry and number of fields. */
+    private boolean isStaticLayerValid(Graphics2D g, int numFields)
+    {
+        return m_static != null
+            && m_static.getWidth() == m_width
+            && m_static.getHeight() == m_height
+            && m_staticBWidth == m_bwidth
+            && m_staticBHeight == m_bheight
+            && m_staticRotation == m_rotation
+            && m_staticMirrored == m_mirrored
+            && m_staticFields == numFields;
+    }
 
+    /** Draws the background, edges, cell outlines and labels into the
+        static layer. Cell outlines are taken to be static; the
+        DRAW_CELL_OUTLINE attribute is only set when fields are
+        created. */
+    private void drawStaticLayer(Graphics2D target, GuiField field[])
+    {
+        int transparency = (m_background != null) 
+            ? Transparency.OPAQUE : Transparency.TRANSLUCENT;
+        m_static = target.getDeviceConfiguration()
+            .createCompatibleImage(Math.max(m_width, 1),
+                                   Math.max(m_height, 1), transparency);
+        Graphics2D g = m_static.createGraphics();
+        g.setFont(target.getFont());
 	setAntiAliasing(g);
+        drawStaticParts(g, field);
+        g.dispose();
+
+        m_staticBWidth = m_bwidth;
+        m_staticBHeight = m_bheight;
+        m_staticRotation = m_rotation;
+        m_staticMirrored = m_mirrored;
+        m_staticFields = field.length;
+    }
+
+    /** Draws the parts of the board that do not depend on the
+        position. */
+    private void drawStaticParts(Graphics2D g, GuiField field[])
+    {
 	drawBackground(g);
         drawEdges(g);
 	drawCells(g, field);
 	drawLabels(g);
-	drawShadows(g, field);
-	drawFields(g, field);
-        drawAlpha(g, field);
-        drawArrows(g, arrows);
     }
 
     //------------------------------------------------------------
@@ -243,7 +440,14 @@ public abstract class BoardDrawerBase
 		g.draw(m_outlines[i]);
 	    }
 	}
+    }
 
+    /** Draws the outlines of the selected fields. 
+	@param g graphics context to draw to.
+	@param field the list of fields to draw.
+    */
+    protected void drawSelected(Graphics2D g, GuiField field[])
+    {
         g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale * 1.5)));
 	g.setColor(Color.yellow);
 	for (int i=0; i<m_outlines.length; i++) {
@@ -390,21 +594,16 @@ public abstract class BoardDrawerBase
 	    g.drawImage(m_background, 0, 0, m_width, m_height, null);
     }
 
+    /** Draws a label centered at p in the current font. */
     protected void drawLabel(Graphics2D g, Point2D.Double p, String string, double xoff)
     {
-        double size = m_scale * 0.4;
-        Font f = g.getFont();
-        Font f2 = f.deriveFont((float)size);
-
-        FontMetrics fm = g.getFontMetrics(f2);
+        FontMetrics fm = g.getFontMetrics();
 	int width = fm.stringWidth(string);
 	int height = fm.getAscent();
 
-        g.setFont(f2);
         double x = 0.5 * width;
 	double y = 0.45 * height;
 	g.drawString(string, (float)(p.x + xoff - x), (float)(p.y + y)); 
-        g.setFont(f);
     }
 
     protected void drawLabels(Graphics2D g)
@@ -412,6 +611,8 @@ public abstract class BoardDrawerBase
         String string;
         
         g.setColor(Color.black);
+        Font f = g.getFont();
+        g.setFont(f.deriveFont((float)(m_scale * 0.4)));
 
         for (int a=0; a<m_bwidth; a++) {
             string = Character.toString((char)((int)'A' + a));
@@ -423,55 +624,173 @@ public abstract class BoardDrawerBase
             drawLabel(g, hexPoint(-m_labelradius, b, 0, 0, 0), string, 0);
             drawLabel(g, hexPoint(m_bwidth-1+m_labelradius, b, 0, 0, 0), string, 0);
         }
+        g.setFont(f);
     }
     
-    protected void drawShadows(Graphics2D graphics, GuiField[] field)
+    /** Renders the stone sprites for the current geometry if
+        needed. */
+    protected void updateSprites(Graphics2D g)
     {
-        if (m_scale <= 10)
-            return;
+        m_sprites.update(g.getDeviceConfiguration(), 
+                         (int)m_scale, (int)m_scale,
+                         m_stoneradius * m_scale, getShadowOffset(),
+                         g.getFont());
+    }
 
-        graphics.setComposite(COMPOSITE_3);
+    /** Returns the stone shown on the field: the one in the overlay,
+        if any, else the field's own. */
+    private static HexColor getColor(GuiField field, BoardOverlay overlay)
+    {
+        HexColor color = overlay.getColor(field.getPoint());
+        return (color != null) ? color : field.getColor();
+    }
 
-        double size = m_stoneradius * m_scale;
+    protected void drawShadows(Graphics2D graphics, GuiField[] field,
+                               BoardOverlay overlay)
+    {
+        if (m_scale <= 10)
+            return;
 
-        double offset = getShadowOffset();
+        int w = m_sprites.getWidth();
+        int h = m_sprites.getHeight();
         for (int pos = 0; pos < field.length; pos++) {
-	    if (field[pos].getColor() == HexColor.EMPTY)
+	    if (getColor(field[pos], overlay) == HexColor.EMPTY)
 		continue;
 	    Point2D.Double location = getLocation(field[pos].getPoint());
-	    graphics.setColor(Color.black);
-	    graphics.fill(new Ellipse2D.Double(location.x - size + offset,
-                                   location.y - size + offset,
-                                   size*2, size*2));
+            m_sprites.drawShadow(graphics, (int)location.x - w/2, 
+                                 (int)location.y - h/2);
 	}
-        graphics.setPaintMode();
     }
 
-    protected void drawFields(Graphics2D g, GuiField field[])
+    protected void drawFields(Graphics2D g, GuiField field[],
+                              BoardOverlay overlay)
     {
 	for (int x=0; x<field.length; x++) {
-            Point2D.Double p = getLocation(field[x].getPoint());
-	    field[x].draw(g, (int)p.x, (int)p.y, (int)m_scale, (int)m_scale, m_stoneradius*m_scale);
+            HexPoint point = field[x].getPoint();
+            Point2D.Double p = getLocation(point);
+            String text = overlay.getText(point);
+            if (text == null
+                && (field[x].getAttributes() & GuiField.DRAW_TEXT) != 0)
+                text = field[x].getText();
+	    field[x].draw(g, (int)p.x, (int)p.y, (int)m_scale, (int)m_scale,
+                          m_sprites, getColor(field[x], overlay), text);
 	}
     }
 
-    protected void drawAlpha(Graphics2D g, GuiField field[])
+    /** Fills the cells that have an alpha color. Colors of the
+        overlay replace those of the fields; only the points marked
+        in the overlay are visited for it. In heatmap mode, or if the
+        overlay asks for it, points with a heat value are filled with
+        its color instead. */
+    protected void drawAlpha(Graphics2D g, GuiField field[],
+                             BoardOverlay overlay)
     {
+        boolean heat = (m_heatMap || overlay.getAlwaysShowHeat())
+            && overlay.hasHeat();
         for (int i=0; i<m_outlines.length; i++) {
             if ((field[i].getAttributes() & GuiField.DRAW_ALPHA) == 0)
                 continue;
-            
-            Color color = field[i].getAlphaColor();
-            if (color == null)
+            if (overlay.getAlphaColor(field[i].getPoint()) != null)
                 continue;
-            
-            g.setComposite(AlphaComposite.
-                             getInstance(AlphaComposite.SRC_OVER, 
-                                         field[i].getAlphaBlend()));
-            
-            g.setColor(color);
-            g.fill(m_outlines[i]);
+            fillAlpha(g, i, field[i].getAlphaColor(), 
+                      field[i].getAlphaBlend());
 	}
+        for (int i=0; i<overlay.numTouched(); i++) {
+            HexPoint point = overlay.getTouched(i);
+            int index = m_fieldIndex[point.getIndex()];
+            if (index < 0)
+                continue;
+            if (heat && !Float.isNaN(overlay.getHeat(point)))
+                continue;
+            fillAlpha(g, index, overlay.getAlphaColor(point),
+                      overlay.getAlphaBlend(point));
+        }
+        if (heat)
+            drawHeat(g, overlay);
+    }
+
+    /** Fills the cells that have a heat value with the color of the
+        value. The cells are filled opaque into a separate layer,
+        which is then blended onto the board in a single pass; this
+        is much cheaper than blending each cell. */
+    private void drawHeat(Graphics2D g, BoardOverlay overlay)
+    {
+        if (m_direct) {
+            drawHeatDirect(g, overlay);
+            return;
+        }
+        if (m_heatLayer == null 
+            || m_heatLayer.getWidth() != m_width
+            || m_heatLayer.getHeight() != m_height)
+            m_heatLayer = g.getDeviceConfiguration().createCompatibleImage
+                (Math.max(m_width, 1), Math.max(m_height, 1), 
+                 Transparency.TRANSLUCENT);
+        Graphics2D layer = m_heatLayer.createGraphics();
+        layer.setComposite(AlphaComposite.Clear);
+        layer.fillRect(0, 0, m_width, m_height);
+        layer.setComposite(AlphaComposite.Src);
+        int max = HEAT_COLORS.length - 1;
+        for (int i=0; i<overlay.numTouched(); i++) {
+            HexPoint point = overlay.getTouched(i);
+            float heat = overlay.getHeat(point);
+            int index = m_fieldIndex[point.getIndex()];
+            if (Float.isNaN(heat) || index < 0)
+                continue;
+            layer.setColor(HEAT_COLORS[(int)(heat * max + 0.5f)]);
+            layer.fill(m_outlines[index]);
+        }
+        layer.dispose();
+        g.setComposite(COMPOSITE_HEAT);
+        g.drawImage(m_heatLayer, 0, 0, null);
+    }
+
+    /** Blends each cell with a heat value onto the board. */
+    private void drawHeatDirect(Graphics2D g, BoardOverlay overlay)
+    {
+        g.setComposite(COMPOSITE_HEAT);
+        int max = HEAT_COLORS.length - 1;
+        for (int i=0; i<overlay.numTouched(); i++) {
+            HexPoint point = overlay.getTouched(i);
+            float heat = overlay.getHeat(point);
+            int index = m_fieldIndex[point.getIndex()];
+            if (Float.isNaN(heat) || index < 0)
+                continue;
+            g.setColor(HEAT_COLORS[(int)(heat * max + 0.5f)]);
+            g.fill(m_outlines[index]);
+        }
+    }
+
+    /** Colors for heat values from 0 to 1: blue, cyan, green, yellow
+        and red, interpolated. */
+    private static Color[] createHeatColors(int n)
+    {
+        Color stops[] = { Color.blue, Color.cyan, Color.green, 
+                          Color.yellow, Color.red };
+        Color colors[] = new Color[n];
+        for (int i = 0; i < n; i++) {
+            double x = (double)i / (n - 1) * (stops.length - 1);
+            int s = Math.min((int)x, stops.length - 2);
+            double t = x - s;
+            Color a = stops[s];
+            Color b = stops[s + 1];
+            colors[i] = new Color
+                ((int)Math.round(a.getRed() + t * (b.getRed() - a.getRed())),
+                 (int)Math.round(a.getGreen() 
+                                 + t * (b.getGreen() - a.getGreen())),
+                 (int)Math.round(a.getBlue() 
+                                 + t * (b.getBlue() - a.getBlue())));
+        }
+        return colors;
+    }
+
+    private void fillAlpha(Graphics2D g, int i, Color color, float blend)
+    {
+        if (color == null)
+            return;
+        g.setComposite(AlphaComposite.
+                       getInstance(AlphaComposite.SRC_OVER, blend));
+        g.setColor(color);
+        g.fill(m_outlines[i]);
     }
 
     protected void drawArrows(Graphics2D g, 
@@ -517,6 +836,63 @@ public abstract class BoardDrawerBase
 
     protected Image m_background;
 
+    /** Decoded images by file name; see getImageTask(). */
+    private static final HashMap<String,FutureTask<Image>> s_images
+        = new HashMap<String,FutureTask<Image>>();
+
+    private void setBackground(Image image)
+    {
+        m_background = image;
+        invalidateStaticLayer();
+    }
+
+    /** Returns the image in filename, decoding it in this thread if no
+        other thread has started to, or null if it cannot be loaded. */
+    private static Image getImage(String filename)
+    {
+        FutureTask<Image> task = getImageTask(filename);
+        task.run();
+        try {
+            return task.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static synchronized FutureTask<Image> getImageTask(
+                                                  final String filename)
+    {
+        FutureTask<Image> task = s_images.get(filename);
+        if (task == null) {
+            task = new FutureTask<Image>(new Callable<Image>()
+                {
+                    public Image call()
+                    {
+                        return readImage(filename);
+                    }
+                });
+            s_images.put(filename, task);
+        }
+        return task;
+    }
+
+    private static Image readImage(String filename)
+    {
+        URL url = BoardDrawerBase.class.getClassLoader()
+            .getResource(filename);
+        Image image = null;
+        if (url != null) {
+            try {
+                image = ImageIO.read(url);
+            } catch (IOException e) {
+            }
+        }
+        if (image == null)
+            System.out.println("loadBackground: could not load '" + 
+                               filename + "'!");
+        return image;
+    }
+
     protected int m_width, m_height; // the width and height of the canvas
     protected int m_bwidth, m_bheight; // the width (files) and height (ranks) of the board
 
@@ -542,12 +918,41 @@ public abstract class BoardDrawerBase
     
     protected double m_scale;   // for stone size, label size etc.
     
-    // Cell outlines.
+    // Cell outlines, the geometry and points they were calculated
+    // for, and the index of the field of each point (-1 if none).
     protected Path2D m_outlines[];
+    private HexPoint m_outlinePoints[];
+    private int m_fieldIndex[];
+    private int m_outlinesWidth, m_outlinesHeight;
+    private double m_outlinesRotation;
+    private boolean m_outlinesMirrored;
+
+    // Pre-rendered stones and markers.
+    private final StoneSprites m_sprites;
+
+    // Static layer and the geometry it was drawn for.
+    private BufferedImage m_static;
+    private int m_staticBWidth, m_staticBHeight;
+    private double m_staticRotation;
+    private boolean m_staticMirrored;
+    private int m_staticFields;
 
     protected static final AlphaComposite COMPOSITE_3
         = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
 
+    private static final AlphaComposite COMPOSITE_HEAT
+        = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.6f);
+
+    private static final Color HEAT_COLORS[] = createHeatColors(256);
+
+    private boolean m_heatMap;
+
+    // Draw without cached images; see setDirect().
+    private boolean m_direct;
+
+    // Cells with heat values, before blending; see drawHeat().
+    private BufferedImage m_heatLayer;
+
 }
 
 //----------------------------------------------------------------------------
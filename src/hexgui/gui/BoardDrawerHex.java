@@ -18,10 +18,20 @@ import java.net.URL;
 public class BoardDrawerHex extends BoardDrawerBase
 {
 
+    public static final String BACKGROUND = "hexgui/images/wood.png";
+
     public BoardDrawerHex()
+    {
+	this(true);
+    }
+
+    /** @param loadBackground false if the caller sets the background,
+        e.g. with loadBackgroundLater(). */
+    public BoardDrawerHex(boolean loadBackground)
     {
 	super();
-	loadBackground("hexgui/images/wood.png");
+	if (loadBackground)
+	    loadBackground(BACKGROUND);
     }
 
 }
@@ -0,0 +1,235 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.Pair;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Marks shown on top of the board: stones, alpha colors, text and
+    heat values per point, arrows, a status message and search
+    progress.
+
+    <p>Overlays are filled in by the thread reading the program's
+    output and then handed to the event thread as a whole (see
+    GfxPublisher); an overlay must not be changed once it has been
+    handed over. The data is kept in arrays indexed by point index,
+    so an overlay can be cleared and reused without allocation.
+*/
+public final class BoardOverlay
+{
+    public BoardOverlay()
+    {
+        m_stone = new HexColor[HexPoint.MAX_POINTS];
+        m_alpha = new Color[HexPoint.MAX_POINTS];
+        m_blend = new float[HexPoint.MAX_POINTS];
+        m_text = new String[HexPoint.MAX_POINTS];
+        m_heat = new float[HexPoint.MAX_POINTS];
+        Arrays.fill(m_heat, Float.NaN);
+        m_isTouched = new boolean[HexPoint.MAX_POINTS];
+        m_touched = new int[HexPoint.MAX_POINTS];
+        m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+        m_progress = -1.0;
+    }
+
+    /** Removes all marks. Takes time proportional to the number of
+        marked points. */
+    public void clear()
+    {
+        for (int i = 0; i < m_numTouched; ++i)
+        {
+            int p = m_touched[i];
+            m_stone[p] = null;
+            m_alpha[p] = null;
+            m_text[p] = null;
+            m_heat[p] = Float.NaN;
+            m_isTouched[p] = false;
+        }
+        m_numTouched = 0;
+        m_numHeat = 0;
+        m_alwaysShowHeat = false;
+        m_arrows.clear();
+        m_message = null;
+        m_progress = -1.0;
+    }
+
+    /** Shows a stone of the given color on the point. */
+    public void setColor(HexPoint point, HexColor color)
+    {
+        if (point == null)
+            return;
+        m_stone[touch(point)] = color;
+    }
+
+    public void setAlphaColor(HexPoint point, Color color)
+    {
+        setAlphaColor(point, color, DEFAULT_BLEND);
+    }
+
+    public void setAlphaColor(HexPoint point, Color color, float blend)
+    {
+        if (point == null)
+            return;
+        int p = touch(point);
+        m_alpha[p] = color;
+        m_blend[p] = blend;
+    }
+
+    public void setText(HexPoint point, String text)
+    {
+        if (point == null)
+            return;
+        m_text[touch(point)] = text;
+    }
+
+    /** Sets the heat value of the point, shown in heatmap mode.
+        @param value the value in [0,1]; clipped if outside. */
+    public void setHeat(HexPoint point, float value)
+    {
+        if (point == null || Float.isNaN(value))
+            return;
+        int p = touch(point);
+        if (Float.isNaN(m_heat[p]))
+            ++m_numHeat;
+        m_heat[p] = Math.max(0.0f, Math.min(1.0f, value));
+    }
+
+    /** Sets whether the heat values are shown even if heatmap mode
+        is off; for overlays that are nothing but a map of values. */
+    public void setAlwaysShowHeat(boolean alwaysShowHeat)
+    {
+        m_alwaysShowHeat = alwaysShowHeat;
+    }
+
+    public void addArrow(HexPoint from, HexPoint to)
+    {
+        m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+    }
+
+    public void clearArrows()
+    {
+        m_arrows.clear();
+    }
+
+    /** Sets the message for the status bar. */
+    public void setMessage(String message)
+    {
+        m_message = message;
+    }
+
+    /** Sets the search progress in [0,1]; negative if unknown. */
+    public void setProgress(double progress)
+    {
+        m_progress = progress;
+    }
+
+    /** Number of points with marks. */
+    public int numTouched()
+    {
+        return m_numTouched;
+    }
+
+    /** Returns the i'th point with marks. */
+    public HexPoint getTouched(int i)
+    {
+        return HexPoint.get(m_touched[i]);
+    }
+
+    /** Stone shown on the point, or null. */
+    public HexColor getColor(HexPoint point)
+    {
+        return m_stone[point.getIndex()];
+    }
+
+    /** Alpha color of the point, or null. */
+    public Color getAlphaColor(HexPoint point)
+    {
+        return m_alpha[point.getIndex()];
+    }
+
+    public float getAlphaBlend(HexPoint point)
+    {
+        return m_blend[point.getIndex()];
+    }
+
+    /** Heat value of the point in [0,1], or NaN if it has none. */
+    public float getHeat(HexPoint point)
+    {
+        return m_heat[point.getIndex()];
+    }
+
+    /** Returns true if at least one point has a heat value. */
+    public boolean hasHeat()
+    {
+        return m_numHeat > 0;
+    }
+
+    public boolean getAlwaysShowHeat()
+    {
+        return m_alwaysShowHeat;
+    }
+
+    /** Text on the point, or null. */
+    public String getText(HexPoint point)
+    {
+        return m_text[point.getIndex()];
+    }
+
+    public Vector<Pair<HexPoint, HexPoint>> getArrows()
+    {
+        return m_arrows;
+    }
+
+    /** Status bar message, or null. */
+    public String getMessage()
+    {
+        return m_message;
+    }
+
+    public double getProgress()
+    {
+        return m_progress;
+    }
+
+    //------------------------------------------------------------
+
+    /** Blend used by GuiField when no alpha value is given. */
+    private static final float DEFAULT_BLEND = 0.3f;
+
+    private int touch(HexPoint point)
+    {
+        int p = point.getIndex();
+        if (!m_isTouched[p])
+        {
+            m_isTouched[p] = true;
+            m_touched[m_numTouched++] = p;
+        }
+        return p;
+    }
+
+    private final HexColor[] m_stone;
+    private final Color[] m_alpha;
+    private final float[] m_blend;
+    private final String[] m_text;
+    private final float[] m_heat;
+    private int m_numHeat;
+    private boolean m_alwaysShowHeat;
+
+    private final boolean[] m_isTouched;
+    private final int[] m_touched;
+    private int m_numTouched;
+
+    private final Vector<Pair<HexPoint, HexPoint>> m_arrows;
+    private String m_message;
+    private double m_progress;
+}
+
+//----------------------------------------------------------------------------
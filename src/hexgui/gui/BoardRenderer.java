@@ -0,0 +1,149 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.SvgGraphics2D;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import javax.imageio.ImageIO;
+
+//----------------------------------------------------------------------------
+
+/** Draws boards into images or SVG documents without a GuiBoard.
+
+    <p>Works with java.awt.headless set. A renderer keeps its own board
+    drawers and must be used by one thread only; to render in
+    parallel, use one renderer per thread (see DiagramExport).
+*/
+public final class BoardRenderer
+{
+    /** Creates a renderer for images of the given size in pixels. */
+    public BoardRenderer(int width, int height)
+    {
+        m_width = width;
+        m_height = height;
+        m_rotation = 10;
+        m_drawer = new BoardDrawerHex();
+    }
+
+    /** Sets the clock direction of the a1 cell; see the
+        gui-board-rotation preference. */
+    public void setRotation(int rotation)
+    {
+        m_rotation = rotation;
+    }
+
+    public void setMirrored(boolean mirrored)
+    {
+        m_mirrored = mirrored;
+    }
+
+    public void setHeatMap(boolean heatMap)
+    {
+        m_heatMap = heatMap;
+    }
+
+    /** Creates the empty fields of a Hex board, as GuiBoard does. */
+    public static GuiField[] createFields(int bw, int bh)
+    {
+        GuiField field[] = new GuiField[bw*bh];
+        for (int i=0; i<bw*bh; i++) {
+            field[i] = new GuiField(HexPoint.get(i % bw, i / bw));
+            field[i].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+        }
+        return field;
+    }
+
+    /** Creates the fields of a Hex board with the given stones.
+        @param stones color of each point by point index (see
+        HexPoint.getIndex()); null entries are empty.
+        @param last point to mark as played last, or null. */
+    public static GuiField[] createFields(int bw, int bh,
+                                          HexColor stones[], HexPoint last)
+    {
+        GuiField field[] = createFields(bw, bh);
+        for (int i=0; i<field.length; i++) {
+            HexPoint p = field[i].getPoint();
+            HexColor color = stones[p.getIndex()];
+            if (color != null)
+                field[i].setColor(color);
+            if (p == last)
+                field[i].setAttributes(GuiField.LAST_PLAYED);
+        }
+        return field;
+    }
+
+    /** Draws the board into a new image.
+        @param overlay marks to draw on top; may be null. */
+    public BufferedImage render(GuiField field[], int bw, int bh,
+                                BoardOverlay overlay)
+    {
+        BufferedImage image = new BufferedImage(m_width, m_height,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        m_drawer.setHeatMap(m_heatMap);
+        m_drawer.draw(g, m_width, m_height, bw, bh, m_rotation, m_mirrored,
+                      field, overlay == null ? EMPTY_OVERLAY : overlay);
+        g.dispose();
+        return image;
+    }
+
+    public void writePng(GuiField field[], int bw, int bh,
+                         BoardOverlay overlay, File file) throws IOException
+    {
+        if (!ImageIO.write(render(field, bw, bh, overlay), "png", file))
+            throw new IOException("No PNG writer available");
+    }
+
+    /** Writes the board as SVG. Shapes and text are written as
+        vectors; only the background texture is embedded as an
+        image. */
+    public void writeSvg(GuiField field[], int bw, int bh,
+                         BoardOverlay overlay, File file) throws IOException
+    {
+        if (m_svgDrawer == null) {
+            m_svgDrawer = new BoardDrawerHex();
+            m_svgDrawer.setDirect(true);
+        }
+        SvgGraphics2D g = new SvgGraphics2D(m_width, m_height);
+        m_svgDrawer.setHeatMap(m_heatMap);
+        m_svgDrawer.draw(g, m_width, m_height, bw, bh, m_rotation,
+                         m_mirrored, field,
+                         overlay == null ? EMPTY_OVERLAY : overlay);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                                            "UTF-8");
+        try {
+            g.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    /** Never changed; shared by all renderers. */
+    private static final BoardOverlay EMPTY_OVERLAY = new BoardOverlay();
+
+    private final int m_width;
+    private final int m_height;
+    private int m_rotation;
+    private boolean m_mirrored;
+    private boolean m_heatMap;
+
+    private final BoardDrawerHex m_drawer;
+
+    /** Drawer in direct mode, created on first use. */
+    private BoardDrawerHex m_svgDrawer;
+}
+
+//----------------------------------------------------------------------------
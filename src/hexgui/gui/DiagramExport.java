@@ -0,0 +1,211 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.sgf.SgfReader;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//----------------------------------------------------------------------------
+
+/** Writes diagrams of the positions in SGF files as PNG or SVG.
+
+    <p>The main line of each game is replayed and a diagram is written
+    every n moves and for the final position. Positions are collected
+    first and then rendered in parallel, one BoardRenderer per worker
+    thread. Used by the -export command line option.
+*/
+public final class DiagramExport
+{
+    /** @param format "png" or "svg"
+        @param threads number of rendering threads */
+    public DiagramExport(int width, int height, String format, int threads)
+    {
+        if (!format.equals("png") && !format.equals("svg"))
+            throw new IllegalArgumentException("Unknown format '" + format
+                                               + "'");
+        m_width = width;
+        m_height = height;
+        m_format = format;
+        m_threads = Math.max(threads, 1);
+    }
+
+    /** Writes diagrams for the games to the directory.
+        @param every write a diagram after every this many moves
+        @return the number of diagrams written */
+    public int export(Vector<File> games, int every, File dir)
+        throws IOException, SgfReader.SgfError
+    {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+        ArrayList<Diagram> diagrams = new ArrayList<Diagram>();
+        for (int i = 0; i < games.size(); ++i)
+            collect(games.get(i), every, dir, diagrams);
+
+        ExecutorService executor = Executors.newFixedThreadPool(m_threads);
+        try {
+            ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+            for (int i = 0; i < diagrams.size(); ++i)
+                results.add(executor.submit(diagrams.get(i)));
+            for (int i = 0; i < results.size(); ++i)
+                results.get(i).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            throw new IOException(cause.toString());
+        } finally {
+            executor.shutdownNow();
+        }
+        return diagrams.size();
+    }
+
+    //------------------------------------------------------------
+
+    /** A position to render and the file to write it to. */
+    private final class Diagram
+        implements Callable<Void>
+    {
+        Diagram(int bw, int bh, HexColor stones[], HexPoint last, File file)
+        {
+            m_bw = bw;
+            m_bh = bh;
+            m_stones = stones;
+            m_last = last;
+            m_file = file;
+        }
+
+        public Void call() throws IOException
+        {
+            BoardRenderer renderer = m_renderer.get();
+            GuiField field[] = BoardRenderer.createFields(m_bw, m_bh,
+                                                          m_stones, m_last);
+            if (m_format.equals("svg"))
+                renderer.writeSvg(field, m_bw, m_bh, null, m_file);
+            else
+                renderer.writePng(field, m_bw, m_bh, null, m_file);
+            return null;
+        }
+
+        private final int m_bw, m_bh;
+        private final HexColor m_stones[];
+        private final HexPoint m_last;
+        private final File m_file;
+    }
+
+    private final int m_width;
+    private final int m_height;
+    private final String m_format;
+    private final int m_threads;
+
+    /** Renderer of each worker thread. */
+    private final ThreadLocal<BoardRenderer> m_renderer
+        = new ThreadLocal<BoardRenderer>()
+        {
+            protected BoardRenderer initialValue()
+            {
+                return new BoardRenderer(m_width, m_height);
+            }
+        };
+
+    /** Replays the main line of the game and adds its diagrams. */
+    private void collect(File game, int every, File dir,
+                         ArrayList<Diagram> diagrams)
+        throws IOException, SgfReader.SgfError
+    {
+        InputStream in = new FileInputStream(game);
+        SgfReader reader;
+        try {
+            reader = new SgfReader(in);
+        } finally {
+            in.close();
+        }
+        GameInfo info = reader.getGameInfo();
+        Dimension size = info.getBoardSize();
+        int bw = size.width;
+        int bh = size.height;
+        String base = game.getName();
+        if (base.toLowerCase().endsWith(".sgf"))
+            base = base.substring(0, base.length() - 4);
+
+        HexColor stones[] = new HexColor[HexPoint.MAX_POINTS];
+        HexPoint last = null;
+        int moves = 0;
+        for (Node node = reader.getGameTree(); node != null;
+             node = node.getChild())
+        {
+            if (node.hasSetup()) {
+                setColor(stones, node.getSetup(HexColor.BLACK),
+                         HexColor.BLACK);
+                setColor(stones, node.getSetup(HexColor.WHITE),
+                         HexColor.WHITE);
+                setColor(stones, node.getSetup(HexColor.EMPTY), null);
+            }
+            if (node.hasMove()) {
+                Move move = node.getMove();
+                HexPoint p = move.getPoint();
+                if (p == HexPoint.SWAP_PIECES) {
+                    swapPieces(stones, bw, bh);
+                    last = null;
+                } else if (p.is_cell()) {
+                    stones[p.getIndex()] = move.getColor();
+                    last = p;
+                } else
+                    last = null;
+                ++moves;
+            }
+            boolean isLast = (node.getChild() == null);
+            if ((node.hasMove() && moves % every == 0) || isLast) {
+                File file = new File(dir, String.format("%s-%03d.%s", base,
+                                                        moves, m_format));
+                diagrams.add(new Diagram(bw, bh, stones.clone(), last,
+                                         file));
+            }
+        }
+    }
+
+    private static void setColor(HexColor stones[], Vector<HexPoint> points,
+                                 HexColor color)
+    {
+        for (int i = 0; i < points.size(); ++i)
+            stones[points.get(i).getIndex()] = color;
+    }
+
+    /** Mirrors the stones at the long diagonal and swaps their
+        colors, as GuiBoard.swapPieces() does. */
+    private static void swapPieces(HexColor stones[], int bw, int bh)
+    {
+        HexColor old[] = stones.clone();
+        for (int y = 0; y < bh; ++y) {
+            for (int x = 0; x < bw; ++x) {
+                HexPoint p = HexPoint.get(x, y);
+                HexColor color = old[p.reflect().getIndex()];
+                stones[p.getIndex()] = (color == null) ? null
+                    : color.otherColor();
+            }
+        }
+    }
+}
+
+//----------------------------------------------------------------------------
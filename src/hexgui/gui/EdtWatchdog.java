@@ -0,0 +1,344 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.InvocationEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+
+//----------------------------------------------------------------------------
+
+/** Records stalls of the event dispatch thread.
+
+    <p>The watchdog replaces the system event queue and times the
+    stretches the event thread spends between taking an event and
+    waiting for the next one. A secondary loop, e.g. of a modal
+    dialog, ends the stretch of the event that opened it, so a dialog
+    left open is not a stall; the work after it closes is timed
+    again. Stretches of at least the threshold are kept as stalls.
+
+    <p>A sampling thread takes a stack trace of the event thread once
+    a stretch passes the threshold, to show where it is stuck. Code
+    run on the event thread can name what it is doing with note()
+    (the menu or toolbar action, the HTP callback, painting the
+    board); a stall lists the notes of its event in order.
+
+    <p>At most MAX_STALLS stalls are kept; getReport() returns them as
+    text. */
+public final class EdtWatchdog
+    extends EventQueue
+{
+    /** Replaces the system event queue with a watchdog. Does nothing
+        if one is installed already.
+        @param thresholdMs shortest stretch recorded as a stall; 0
+        does not install a watchdog. */
+    public static synchronized void install(int thresholdMs)
+    {
+        if (s_watchdog != null || thresholdMs <= 0)
+            return;
+        s_watchdog = new EdtWatchdog(thresholdMs);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(s_watchdog);
+        Thread sampler = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    s_watchdog.sample();
+                }
+            }, "HexGui EDT watchdog");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /** Names what the current event is doing, e.g. "action load".
+        Must be called from the event dispatch thread; does nothing if
+        no watchdog is installed. */
+    public static void note(String activity)
+    {
+        EdtWatchdog watchdog = s_watchdog;
+        if (watchdog == null)
+            return;
+        Dispatch dispatch = watchdog.m_dispatch;
+        if (dispatch != null)
+            dispatch.note(activity);
+    }
+
+    /** Returns the recorded stalls as text, newest first. */
+    public static String getReport()
+    {
+        EdtWatchdog watchdog = s_watchdog;
+        if (watchdog == null)
+            return "The EDT watchdog is not installed.\n";
+        return watchdog.report();
+    }
+
+    //------------------------------------------------------------
+
+    protected void dispatchEvent(AWTEvent event)
+    {
+        m_thread = Thread.currentThread();
+        Dispatch outer = m_dispatch;
+        endStretch();
+        m_dispatch = new Dispatch(describe(event));
+        beginStretch();
+        try
+        {
+            super.dispatchEvent(event);
+        }
+        finally
+        {
+            endStretch();
+            m_dispatch = outer;
+            // Back in the code that ran the secondary loop.
+            if (outer != null)
+                beginStretch();
+        }
+    }
+
+    public AWTEvent getNextEvent() throws InterruptedException
+    {
+        if (Thread.currentThread() == m_thread)
+            endStretch();
+        return super.getNextEvent();
+    }
+
+    //------------------------------------------------------------
+
+    /** Stalls kept for the report. */
+    private static final int MAX_STALLS = 200;
+
+    /** Most notes kept per event. */
+    private static final int MAX_NOTES = 8;
+
+    /** Most stack frames kept per stall. */
+    private static final int MAX_FRAMES = 16;
+
+    private static volatile EdtWatchdog s_watchdog;
+
+    private final long m_threshold;
+
+    private volatile Thread m_thread;
+
+    /** Event being dispatched; event thread only, but read by note()
+        and endStretch(). */
+    private volatile Dispatch m_dispatch;
+
+    /** Start of the current stretch in ns, or 0 while waiting. */
+    private volatile long m_start;
+
+    /** Counts the stretches, so a sample is matched to its own. */
+    private volatile long m_stretch;
+
+    private volatile Sample m_sample;
+
+    private final ArrayDeque<Stall> m_stalls = new ArrayDeque<Stall>();
+
+    /** An event being dispatched and the notes made while it was. */
+    private static final class Dispatch
+    {
+        Dispatch(String event)
+        {
+            m_event = event;
+        }
+
+        void note(String activity)
+        {
+            if (m_numNotes == MAX_NOTES)
+                return;
+            if (m_notes == null)
+                m_notes = new StringBuilder(activity);
+            else
+                m_notes.append(" > ").append(activity);
+            ++m_numNotes;
+        }
+
+        String getNotes()
+        {
+            return (m_notes == null) ? "" : m_notes.toString();
+        }
+
+        final String m_event;
+
+        private StringBuilder m_notes;
+
+        private int m_numNotes;
+    }
+
+    /** Stack of the event thread taken during a stretch. */
+    private static final class Sample
+    {
+        Sample(long stretch, StackTraceElement stack[])
+        {
+            m_stretch = stretch;
+            m_stack = stack;
+        }
+
+        final long m_stretch;
+
+        final StackTraceElement m_stack[];
+    }
+
+    private static final class Stall
+    {
+        Stall(long time, long ms, String event, String notes,
+              StackTraceElement stack[])
+        {
+            m_time = time;
+            m_ms = ms;
+            m_event = event;
+            m_notes = notes;
+            m_stack = stack;
+        }
+
+        final long m_time;
+
+        final long m_ms;
+
+        final String m_event;
+
+        final String m_notes;
+
+        final StackTraceElement m_stack[];
+    }
+
+    private EdtWatchdog(int thresholdMs)
+    {
+        m_threshold = thresholdMs * 1000000L;
+    }
+
+    private void beginStretch()
+    {
+        ++m_stretch;
+        m_start = System.nanoTime();
+    }
+
+    private void endStretch()
+    {
+        long start = m_start;
+        if (start == 0)
+            return;
+        m_start = 0;
+        long duration = System.nanoTime() - start;
+        if (duration < m_threshold)
+            return;
+        Sample sample = m_sample;
+        StackTraceElement stack[] = null;
+        if (sample != null && sample.m_stretch == m_stretch)
+            stack = sample.m_stack;
+        Dispatch dispatch = m_dispatch;
+        Stall stall = new Stall(System.currentTimeMillis(),
+                                duration / 1000000L, dispatch.m_event,
+                                dispatch.getNotes(), stack);
+        System.out.println("EDT stall: " + stall.m_ms + " ms in "
+                           + stall.m_event
+                           + (stall.m_notes.length() > 0
+                              ? " (" + stall.m_notes + ")" : ""));
+        synchronized (m_stalls)
+        {
+            if (m_stalls.size() == MAX_STALLS)
+                m_stalls.removeLast();
+            m_stalls.addFirst(stall);
+        }
+    }
+
+    /** Run by the sampling thread: wakes up twice per threshold and
+        takes a stack trace of a stretch that has passed it. */
+    private void sample()
+    {
+        long period = Math.max(m_threshold / 2000000L, 1);
+        long sampled = -1;
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(period);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            long start = m_start;
+            long stretch = m_stretch;
+            Thread thread = m_thread;
+            if (start == 0 || stretch == sampled || thread == null
+                || System.nanoTime() - start < m_threshold)
+                continue;
+            StackTraceElement stack[] = thread.getStackTrace();
+            // Only keep it if the stretch did not end meanwhile.
+            if (m_start == start && m_stretch == stretch)
+            {
+                m_sample = new Sample(stretch, stack);
+                sampled = stretch;
+            }
+        }
+    }
+
+    private static String describe(AWTEvent event)
+    {
+        String name = event.getClass().getSimpleName();
+        if (event instanceof InvocationEvent)
+        {
+            // The runnable is only shown in the parameter string.
+            String param = event.paramString();
+            int start = param.indexOf("runnable=");
+            if (start >= 0)
+            {
+                start += "runnable=".length();
+                int end = param.indexOf(',', start);
+                int at = param.lastIndexOf('@', end < 0 ? param.length()
+                                           : end);
+                if (at > start)
+                    return name + " " + param.substring(start, at);
+            }
+            return name;
+        }
+        Object source = event.getSource();
+        if (source != null)
+            name += " on " + source.getClass().getSimpleName();
+        return name;
+    }
+
+    private String report()
+    {
+        Stall stalls[];
+        synchronized (m_stalls)
+        {
+            stalls = m_stalls.toArray(new Stall[m_stalls.size()]);
+        }
+        StringBuilder text = new StringBuilder();
+        text.append("Stalls of the event dispatch thread of at least ")
+            .append(m_threshold / 1000000L).append(" ms: ")
+            .append(stalls.length).append('\n');
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (Stall stall : stalls)
+        {
+            text.append('\n').append(format.format(new Date(stall.m_time)))
+                .append("  ").append(stall.m_ms).append(" ms  ")
+                .append(stall.m_event).append('\n');
+            if (stall.m_notes.length() > 0)
+                text.append("    doing: ").append(stall.m_notes)
+                    .append('\n');
+            if (stall.m_stack != null)
+            {
+                // The frames from the event queue down are the same
+                // for every stall.
+                int n = 0;
+                while (n < stall.m_stack.length && n < MAX_FRAMES
+                       && !stall.m_stack[n].getClassName()
+                       .equals("java.awt.EventQueue"))
+                    text.append("    at ").append(stall.m_stack[n++])
+                        .append('\n');
+                if (n < stall.m_stack.length)
+                    text.append("    ...\n");
+            }
+        }
+        return text.toString();
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,319 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Vector;
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.ToolTipManager;
+
+//----------------------------------------------------------------------------
+
+/** Draws a game tree, one column per move and one row per variation.
+
+    <p>The first child of a node is drawn to its right; the other
+    children below it, each with as many rows as its subtree has
+    leaves (see Node.getSubtreeWidth()). Since the subtree sizes are
+    cached in the nodes, paintComponent() can find the nodes in the
+    clip rectangle by skipping whole subtrees, and only those are
+    drawn. Clicking a node selects it.
+*/
+public final class GameTreePanel
+    extends JComponent
+    implements Scrollable
+{
+    /** Callback for selected nodes. */
+    public interface Listener
+    {
+        void nodeSelected(Node node);
+    }
+
+    public GameTreePanel(Listener listener)
+    {
+        m_listener = listener;
+        setOpaque(true);
+        setBackground(Color.white);
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter()
+            {
+                public void mousePressed(MouseEvent e)
+                {
+                    Node node = getNodeAt(e.getX(), e.getY());
+                    if (node != null && node != m_current)
+                        m_listener.nodeSelected(node);
+                }
+            });
+    }
+
+    /** Shows the tree of root with current selected. Call after
+        navigating or changing the tree. */
+    public void update(Node root, Node current)
+    {
+        m_root = root;
+        m_current = current;
+        Dimension size = computeSize();
+        if (!size.equals(m_size)) {
+            m_size = size;
+            revalidate();
+        }
+        repaint();
+        scrollToCurrent();
+    }
+
+    /** Scrolls the current node into view. */
+    public void scrollToCurrent()
+    {
+        if (m_current == null)
+            return;
+        int col = m_current.getDepth();
+        int row = getRow(m_current);
+        scrollRectToVisible(new Rectangle(MARGIN + (col - 1) * CELL,
+                                          MARGIN + (row - 1) * CELL,
+                                          3 * CELL, 3 * CELL));
+    }
+
+    public Dimension getPreferredSize()
+    {
+        if (m_size == null)
+            m_size = computeSize();
+        return m_size;
+    }
+
+    public String getToolTipText(MouseEvent e)
+    {
+        Node node = getNodeAt(e.getX(), e.getY());
+        if (node == null)
+            return null;
+        String text = Integer.toString(node.getDepth());
+        if (node.hasMove()) {
+            Move move = node.getMove();
+            text += " " + move.getColor().toString() + " "
+                + move.getPoint().toString();
+        } else if (node.hasSetup())
+            text += " setup";
+        int n = node.numChildren();
+        if (n > 1)
+            text += " (" + n + " variations)";
+        return text;
+    }
+
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return new Dimension(20 * CELL, 10 * CELL);
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visibleRect,
+                                          int orientation, int direction)
+    {
+        return CELL;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visibleRect,
+                                           int orientation, int direction)
+    {
+        int size = (orientation == SwingConstants.HORIZONTAL) ?
+            visibleRect.width : visibleRect.height;
+        return Math.max(size - CELL, CELL);
+    }
+
+    public boolean getScrollableTracksViewportWidth()
+    {
+        return false;
+    }
+
+    public boolean getScrollableTracksViewportHeight()
+    {
+        return false;
+    }
+
+    //------------------------------------------------------------
+
+    /** Width and height of a cell of the grid. */
+    private static final int CELL = 24;
+
+    private static final int NODE_SIZE = 14;
+
+    private static final int MARGIN = CELL / 2;
+
+    private static final Color COLOR_LINE = Color.gray;
+
+    private static final Color COLOR_CURRENT = Color.red;
+
+    private final Listener m_listener;
+
+    private Node m_root;
+
+    private Node m_current;
+
+    private Dimension m_size;
+
+    private Dimension computeSize()
+    {
+        if (m_root == null)
+            return new Dimension(2 * MARGIN, 2 * MARGIN);
+        return new Dimension(2 * MARGIN + (m_root.getSubtreeHeight() + 1)
+                             * CELL,
+                             2 * MARGIN + m_root.getSubtreeWidth() * CELL);
+    }
+
+    /** Returns the row of a node; the rows of the subtrees of the
+        previous siblings of it and its ancestors add up to it. */
+    private static int getRow(Node node)
+    {
+        int row = 0;
+        for (; node != null; node = node.getParent())
+            for (Node prev = node.getPrev(); prev != null;
+                 prev = prev.getPrev())
+                row += prev.getSubtreeWidth();
+        return row;
+    }
+
+    /** Returns the node drawn at the given pixel, or null. */
+    private Node getNodeAt(int x, int y)
+    {
+        if (m_root == null || x < MARGIN || y < MARGIN)
+            return null;
+        int col = (x - MARGIN) / CELL;
+        int row = (y - MARGIN) / CELL;
+        Node node = m_root;
+        int nodeRow = 0;
+        for (int c = 0; c < col; ++c) {
+            Node child = node.getChild();
+            while (child != null
+                   && nodeRow + child.getSubtreeWidth() <= row) {
+                nodeRow += child.getSubtreeWidth();
+                child = child.getNext();
+            }
+            if (child == null)
+                return null;
+            node = child;
+        }
+        return (nodeRow == row) ? node : null;
+    }
+
+    protected void paintComponent(Graphics graphics)
+    {
+        Graphics2D g = (Graphics2D)graphics;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        g.setColor(getBackground());
+        g.fill(clip);
+        if (m_root == null)
+            return;
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // Range of columns and rows to draw, one more on each side for
+        // the lines into the clip rectangle.
+        int minCol = (clip.x - MARGIN) / CELL - 1;
+        int maxCol = (clip.x + clip.width - MARGIN) / CELL + 1;
+        int minRow = (clip.y - MARGIN) / CELL - 1;
+        int maxRow = (clip.y + clip.height - MARGIN) / CELL + 1;
+
+        // Nodes still to draw, with their column and row. A node is
+        // only pushed if its subtree intersects the range.
+        Vector<Node> nodes = new Vector<Node>();
+        Vector<int[]> cells = new Vector<int[]>();
+        if (intersects(m_root, 0, 0, minCol, maxCol, minRow, maxRow)) {
+            nodes.add(m_root);
+            cells.add(new int[] { 0, 0 });
+        }
+        while (!nodes.isEmpty()) {
+            int last = nodes.size() - 1;
+            Node node = nodes.remove(last);
+            int cell[] = cells.remove(last);
+            int col = cell[0];
+            int row = cell[1];
+            int x = MARGIN + col * CELL + CELL / 2;
+            int y = MARGIN + row * CELL + CELL / 2;
+            if (col < maxCol) {
+                g.setColor(COLOR_LINE);
+                int childRow = row;
+                int lastRow = row;
+                Node child = node.getChild();
+                for (; child != null && childRow <= maxRow;
+                     child = child.getNext())
+                {
+                    if (intersects(child, col + 1, childRow,
+                                   minCol, maxCol, minRow, maxRow))
+                    {
+                        int cy = MARGIN + childRow * CELL + CELL / 2;
+                        g.drawLine(x, cy - (childRow > row ? CELL : 0),
+                                   x + CELL, cy);
+                        nodes.add(child);
+                        cells.add(new int[] { col + 1, childRow });
+                    }
+                    lastRow = childRow;
+                    childRow += child.getSubtreeWidth();
+                }
+                if (child != null)
+                    lastRow = childRow;  // more children below the range
+                if (lastRow > row + 1)
+                    g.drawLine(x, y, x, MARGIN + (lastRow - 1) * CELL
+                               + CELL / 2);
+            }
+            if (col >= minCol && row >= minRow && row <= maxRow)
+                drawNode(g, node, x, y);
+        }
+    }
+
+    /** Checks if the subtree of a node in the given column and row
+        intersects the range. */
+    private static boolean intersects(Node node, int col, int row,
+                                      int minCol, int maxCol,
+                                      int minRow, int maxRow)
+    {
+        return col <= maxCol && row <= maxRow
+            && col + node.getSubtreeHeight() >= minCol
+            && row + node.getSubtreeWidth() - 1 >= minRow;
+    }
+
+    private void drawNode(Graphics2D g, Node node, int x, int y)
+    {
+        int left = x - NODE_SIZE / 2;
+        int top = y - NODE_SIZE / 2;
+        if (node.hasMove()) {
+            HexColor color = node.getMove().getColor();
+            g.setColor(color == HexColor.WHITE ? Color.white : Color.black);
+            g.fillOval(left, top, NODE_SIZE, NODE_SIZE);
+            g.setColor(Color.black);
+            g.drawOval(left, top, NODE_SIZE, NODE_SIZE);
+            HexPoint point = node.getMove().getPoint();
+            if (!point.is_cell()) {
+                // Swap, pass, resign or forfeit.
+                g.setColor(color == HexColor.WHITE ? Color.black
+                           : Color.white);
+                g.drawLine(left + 4, y, left + NODE_SIZE - 4, y);
+            }
+        } else {
+            g.setColor(node.hasSetup() ? Color.lightGray : Color.white);
+            g.fillRect(left + 2, top + 2, NODE_SIZE - 4, NODE_SIZE - 4);
+            g.setColor(Color.black);
+            g.drawRect(left + 2, top + 2, NODE_SIZE - 4, NODE_SIZE - 4);
+        }
+        if (node == m_current) {
+            g.setColor(COLOR_CURRENT);
+            g.drawRect(x - CELL / 2 + 1, y - CELL / 2 + 1, CELL - 3,
+                       CELL - 3);
+        }
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,385 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.Tokenizer;
+
+import java.awt.Color;
+
+//----------------------------------------------------------------------------
+
+/** Parses gogui-gfx output of the programs into a BoardOverlay.
+
+    <p>A gfx block starts with the kind of search that sent it ("uct",
+    "ab", "solver" or "dfpn"), followed by the sections VAR (the
+    current variation as color/point pairs), INFLUENCE (uct only;
+    point/value pairs), HEAT (point/number pairs, numbers in [0,1]),
+    LABEL (point/label pairs, interpreted per kind) and TEXT (the rest
+    of the block). Numeric INFLUENCE values and HEAT values are the
+    heat values of the overlay, shown in heatmap mode. The block is
+    read once, token by token, and written straight into the overlay;
+    apart from the text shown on points no strings are created.
+
+    <p>A parser keeps state between calls and must be used by one
+    thread only.
+*/
+public final class GfxParser
+{
+    public GfxParser()
+    {
+        m_tk = new Tokenizer();
+    }
+
+    /** Parses a gfx block into the overlay.
+        @return false if the block is not of a known kind.
+        @throws IllegalArgumentException if the block is malformed. */
+    public boolean parse(CharSequence fx, BoardOverlay overlay)
+    {
+        int kind;
+        int start;
+        if (startsWith(fx, "uct")) {
+            kind = UCT;
+            start = 3;
+        } else if (startsWith(fx, "ab")) {
+            kind = AB;
+            start = 2;
+        } else if (startsWith(fx, "dfpn")) {
+            kind = DFPN;
+            start = 4;
+        } else if (startsWith(fx, "solver")) {
+            kind = SOLVER;
+            start = 6;
+        } else
+            return false;
+
+        Tokenizer tk = m_tk;
+        tk.reset(fx, start, fx.length());
+        int section = NONE;
+        int moves = 0;
+        while (tk.next()) {
+            if (tk.tokenEquals("VAR")) {
+                section = VAR;
+                continue;
+            } else if (tk.tokenEquals("INFLUENCE")) {
+                section = INFLUENCE;
+                continue;
+            } else if (tk.tokenEquals("HEAT")) {
+                section = HEAT;
+                continue;
+            } else if (tk.tokenEquals("LABEL")) {
+                section = LABEL;
+                continue;
+            } else if (tk.tokenEquals("TEXT")) {
+                parseText(kind, tk.rest(), overlay);
+                break;
+            }
+            switch (section) {
+            case VAR:
+                HexColor color = (tk.charAt(0) == 'B')
+                    ? HexColor.BLACK : HexColor.WHITE;
+                tk.expectNext();
+                addVariationMove(kind, moves++, color, point(tk), overlay);
+                break;
+            case INFLUENCE:
+                parseInfluence(overlay);
+                break;
+            case HEAT:
+                HexPoint q = point(tk);
+                tk.expectNext();
+                overlay.setHeat(q, tk.tokenFloat());
+                break;
+            case LABEL:
+                HexPoint p = point(tk);
+                tk.expectNext();
+                parseLabel(kind, p, overlay);
+                break;
+            default:
+                // Tokens before the first section are ignored.
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** Parses a list of point/value pairs describing inferior cells
+        (as sent by the solver, or as response to the consider-set
+        command) into the overlay. */
+    public void parseInferiorCells(CharSequence str, BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        tk.reset(str, 0, str.length());
+        while (tk.next()) {
+            HexPoint p = point(tk);
+            tk.expectNext();
+            addInferiorCell(p, overlay);
+        }
+    }
+
+    /** Parses a list of point/bound pairs from dfpn into the
+        overlay. */
+    public void parseBounds(CharSequence str, BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        tk.reset(str, 0, str.length());
+        while (tk.next()) {
+            HexPoint p = point(tk);
+            tk.expectNext();
+            addBound(p, overlay);
+        }
+    }
+
+    /** Parses the response of a gfx analyze command: an INFLUENCE
+        section of point/value pairs, values in [0,1], followed by an
+        optional TEXT section. The values become heat values of the
+        overlay, which is marked to show them in any mode.
+        @return false if there is no INFLUENCE section.
+        @throws IllegalArgumentException if the response is
+        malformed. */
+    public boolean parseInfluenceMap(CharSequence str, BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        tk.reset(str, 0, str.length());
+        boolean found = false;
+        while (tk.next()) {
+            if (tk.tokenEquals("INFLUENCE")) {
+                found = true;
+                break;
+            }
+        }
+        if (!found)
+            return false;
+        overlay.setAlwaysShowHeat(true);
+        while (tk.next()) {
+            if (tk.tokenEquals("TEXT")) {
+                overlay.setMessage(tk.rest());
+                break;
+            }
+            HexPoint p = point(tk);
+            tk.expectNext();
+            overlay.setHeat(p, tk.tokenFloat());
+        }
+        return true;
+    }
+
+    //------------------------------------------------------------
+
+    private static final int UCT = 0;
+    private static final int AB = 1;
+    private static final int SOLVER = 2;
+    private static final int DFPN = 3;
+
+    private static final int NONE = 0;
+    private static final int VAR = 1;
+    private static final int INFLUENCE = 2;
+    private static final int LABEL = 3;
+    private static final int HEAT = 4;
+
+    private final Tokenizer m_tk;
+
+    private static boolean startsWith(CharSequence s, String prefix)
+    {
+        if (s.length() <= prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); ++i)
+            if (s.charAt(i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static HexPoint point(Tokenizer tk)
+    {
+        HexPoint p = HexPoint.get(tk.getInput(), tk.start(), tk.end());
+        if (p == null)
+            throw new IllegalArgumentException("Invalid point '"
+                                               + tk.token() + "'");
+        return p;
+    }
+
+    private static void addVariationMove(int kind, int i, HexColor color,
+                                         HexPoint p, BoardOverlay overlay)
+    {
+        switch (kind) {
+        case UCT:
+        case AB:
+            // Only the first two moves are shown.
+            if (i >= 2)
+                return;
+            overlay.setColor(p, color);
+            if (kind == UCT)
+                overlay.setAlphaColor(p, (i == 0) ? Color.cyan : Color.blue);
+            else
+                overlay.setAlphaColor(p, (i == 0) ? Color.green : Color.red);
+            break;
+        case SOLVER:
+        case DFPN:
+            overlay.setColor(p, color);
+            overlay.setText(p, Integer.toString(i + 1));
+            if (kind == DFPN)
+                overlay.setAlphaColor(p, Color.blue);
+            break;
+        }
+    }
+
+    /** INFLUENCE pair of uct: the value is the score, or W/L for
+        proven cells. The current token is the point. */
+    private void parseInfluence(BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        HexPoint p = point(tk);
+        tk.expectNext();
+        if (tk.length() == 1 && tk.charAt(0) == 'W')
+            overlay.setAlphaColor(p, Color.green);
+        else if (tk.length() == 1 && tk.charAt(0) == 'L')
+            overlay.setAlphaColor(p, Color.red);
+        else if (isNumber(tk))
+            overlay.setHeat(p, tk.tokenFloat());
+        overlay.setText(p, tk.token());
+    }
+
+    /** Returns true if the current token looks like a decimal
+        number. */
+    private static boolean isNumber(Tokenizer tk)
+    {
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < tk.length(); ++i)
+        {
+            char c = tk.charAt(i);
+            if (c >= '0' && c <= '9')
+                ++digits;
+            else if (c == '.')
+                ++dots;
+            else if (i > 0 || (c != '-' && c != '+'))
+                return false;
+        }
+        return digits > 0 && dots <= 1;
+    }
+
+    /** LABEL pair; the current token is the label of the point. */
+    private void parseLabel(int kind, HexPoint p, BoardOverlay overlay)
+    {
+        switch (kind) {
+        case UCT:
+            // Appended to the score of the influence section.
+            String old = overlay.getText(p);
+            overlay.setText(p, (old == null ? "@" : old + "@")
+                            + m_tk.token());
+            break;
+        case AB:
+            overlay.setText(p, m_tk.token());
+            break;
+        case SOLVER:
+            addInferiorCell(p, overlay);
+            break;
+        case DFPN:
+            addBound(p, overlay);
+            break;
+        }
+    }
+
+    private void addBound(HexPoint p, BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        if (tk.length() == 1 && tk.charAt(0) == 'W')
+            overlay.setAlphaColor(p, Color.green);
+        else if (tk.length() == 1 && tk.charAt(0) == 'L')
+            overlay.setAlphaColor(p, Color.red);
+        overlay.setText(p, tk.token());
+    }
+
+    /** The current token is the inferior cell value of the point:
+        "f" (fill-in) followed by the type and color, "i" (ignorable)
+        followed by the type and a bracketed list of points, or "x"
+        (not in consider set). */
+    private void addInferiorCell(HexPoint p, BoardOverlay overlay)
+    {
+        Tokenizer tk = m_tk;
+        char c = tk.charAt(0);
+        if (c == 'f')                           // fill-in
+        {
+            if (tk.length() != 3)
+                throw new IllegalArgumentException("Invalid fill-in '"
+                                                   + tk.token() + "'");
+            char type = tk.charAt(1);
+            if (type == 'd')                    // dead
+                overlay.setAlphaColor(p, Color.cyan);
+            else if (type == 'p')               // permanently inferior
+                overlay.setAlphaColor(p, Color.gray);
+            else                                // captured
+                overlay.setAlphaColor(p, Color.red);
+            overlay.setColor(p, (tk.charAt(2) == 'b')
+                             ? HexColor.BLACK : HexColor.WHITE);
+        }
+        else if (c == 'i')                      // ignorable
+        {
+            if (tk.length() < 4 || tk.charAt(2) != '['
+                || tk.charAt(tk.length() - 1) != ']')
+                throw new IllegalArgumentException("Invalid ignorable '"
+                                                   + tk.token() + "'");
+            char type = tk.charAt(1);
+            if (type == 'v')                    // vulnerable
+                overlay.setAlphaColor(p, Color.green);
+            else if (type == 'r')               // reversible
+                overlay.setAlphaColor(p, Color.magenta);
+            else                                // dominated
+                overlay.setAlphaColor(p, Color.yellow);
+            // Points between the brackets, separated by '-'.
+            CharSequence s = tk.getInput();
+            int end = tk.end() - 1;
+            int from = tk.start() + 3;
+            for (int i = from; i <= end; ++i)
+            {
+                if (i == end || s.charAt(i) == '-')
+                {
+                    if (i > from)
+                    {
+                        HexPoint q = HexPoint.get(s, from, i);
+                        if (q != null)
+                            overlay.addArrow(p, q);
+                    }
+                    from = i + 1;
+                }
+            }
+        }
+        else                                    // not in consider set
+            overlay.setAlphaColor(p, Color.gray);
+    }
+
+    /** TEXT section: the status message, and for the solver the
+        progress as a list of cur/max pairs, one per search level. */
+    private static void parseText(int kind, String text, BoardOverlay overlay)
+    {
+        overlay.setMessage(text);
+        if (kind != SOLVER)
+            return;
+        double contribution = 1.0;
+        double progress = 0.0;
+        int n = text.length();
+        int i = 0;
+        while (i < n)
+        {
+            while (i < n && Tokenizer.isSpace(text.charAt(i)))
+                ++i;
+            int slash = i;
+            while (slash < n && text.charAt(slash) != '/')
+                ++slash;
+            int end = slash;
+            while (end < n && !Tokenizer.isSpace(text.charAt(end)))
+                ++end;
+            if (slash >= end)
+                break;
+            int cur = Tokenizer.parseInt(text, i, slash);
+            int max = Tokenizer.parseInt(text, slash + 1, end);
+            progress += contribution*cur/max;
+            contribution *= 1.0/max;
+            i = end;
+        }
+        overlay.setProgress(progress);
+    }
+}
+
+//----------------------------------------------------------------------------
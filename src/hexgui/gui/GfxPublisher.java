@@ -0,0 +1,129 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+//----------------------------------------------------------------------------
+
+/** Hands overlays built from gogui-gfx output to the event thread.
+
+    <p>publish() may be called from any thread and never waits for
+    Swing. Only the most recent overlay is kept; it is shown at most
+    once per frame, so a program sending gfx faster than the board can
+    be painted does not queue up work on the event thread.
+
+    <p>Overlays that have been replaced, and those the listener gives
+    back when it is handed a new one, are cleared and kept for reuse;
+    obtain() hands them out again, so a steady stream of updates does
+    not allocate new overlays.
+*/
+public final class GfxPublisher
+{
+    /** Receives overlays on the event thread. */
+    public interface Listener
+    {
+        /** Shows the overlay, which belongs to the listener
+            afterwards.
+            @return an overlay the listener no longer uses, to be
+            reused by the publisher; null if there is none. */
+        BoardOverlay showOverlay(BoardOverlay overlay);
+    }
+
+    /** Minimum time between two overlays shown, in milliseconds. */
+    public static final int FRAME_MS = 16;
+
+    public GfxPublisher(Listener listener)
+    {
+        m_listener = listener;
+        m_pending = new AtomicReference<BoardOverlay>();
+        m_free = new ConcurrentLinkedQueue<BoardOverlay>();
+        m_scheduled = new AtomicBoolean(false);
+        m_timer = new Timer(FRAME_MS, new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    m_scheduled.set(false);
+                    show();
+                }
+            });
+        m_timer.setRepeats(false);
+    }
+
+    /** Returns an empty overlay, reusing one if possible. */
+    public BoardOverlay obtain()
+    {
+        BoardOverlay overlay = m_free.poll();
+        if (overlay == null)
+            overlay = new BoardOverlay();
+        return overlay;
+    }
+
+    /** Returns an overlay that was obtained but not published. */
+    public void recycle(BoardOverlay overlay)
+    {
+        if (overlay == null)
+            return;
+        overlay.clear();
+        m_free.offer(overlay);
+    }
+
+    /** Makes the overlay the one to show next, replacing any overlay
+        that has not been shown yet. The overlay belongs to the
+        publisher afterwards. */
+    public void publish(BoardOverlay overlay)
+    {
+        recycle(m_pending.getAndSet(overlay));
+        if (m_scheduled.compareAndSet(false, true))
+            m_timer.start();
+    }
+
+    /** Drops the overlay waiting to be shown, if any. */
+    public void discard()
+    {
+        recycle(m_pending.getAndSet(null));
+    }
+
+    /** Shows the overlay waiting to be shown, if any, before any
+        event queued after this call. Used when a command finishes,
+        so the last gfx of a search comes before its callback. */
+    public void flushLater()
+    {
+        SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run() { show(); }
+            });
+    }
+
+    //------------------------------------------------------------
+
+    private void show()
+    {
+        BoardOverlay overlay = m_pending.getAndSet(null);
+        if (overlay != null)
+            recycle(m_listener.showOverlay(overlay));
+    }
+
+    private final Listener m_listener;
+
+    private final AtomicReference<BoardOverlay> m_pending;
+
+    /** Overlays ready for reuse. At most a few exist at any time: one
+        being filled, one pending and one being shown. */
+    private final ConcurrentLinkedQueue<BoardOverlay> m_free;
+
+    /** True while the timer is running. */
+    private final AtomicBoolean m_scheduled;
+
+    private final Timer m_timer;
+}
+
+//----------------------------------------------------------------------------
@@ -8,9 +8,9 @@ import hexgui.hex.*;
 import hexgui.util.*;
 import hexgui.game.Node;
 
+import java.util.List;
 import java.util.Vector;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 import java.math.BigInteger;
 import javax.swing.*;          
 import javax.swing.border.EtchedBorder;
@@ -19,6 +19,7 @@ import java.awt.print.PageFormat;
 import java.awt.print.PrinterException;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.net.URL;
 
 //----------------------------------------------------------------------------
@@ -43,10 +44,25 @@ public final class GuiBoard
     /** Constructor. */
     public GuiBoard(Listener listener, GuiPreferences preferences)
     {
-	m_image = null;
 	m_listener = listener;
 	m_preferences = preferences;
-        m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+        m_overlay = new BoardOverlay();
+        m_heatMap = m_preferences.getBoolean("gui-heatmap");
+        readOrientation(m_preferences.getSnapshot());
+        // Painting reads the cached values only.
+        m_preferences.addListener(new GuiPreferences.Listener()
+            {
+                public void preferenceChanged(String name,
+                                        GuiPreferences.Snapshot snapshot)
+                {
+                    if (name.equals("gui-board-orientation")
+                        || name.equals("gui-board-rotation"))
+                    {
+                        readOrientation(snapshot);
+                        repaint();
+                    }
+                }
+            });
 
 	initSize(HEXBOARD, 
                  m_preferences.getInt("gui-board-width"),
@@ -133,13 +149,22 @@ public final class GuiBoard
         if (name.equals("Hex")) {
             if (m_mode != HEXBOARD)
                 initSize(HEXBOARD, m_width, m_height);
-	    m_drawer = new BoardDrawerHex();
 	    m_preferences.put("gui-board-type", "Hex");
 	} else {
 	    System.out.println("GuiBoard: unknown draw type '" + name + "'.");
-	    m_drawer = new BoardDrawerHex();
-	} 
-        repaint();
+	}
+        // The board is drawn without the wood until it is decoded,
+        // instead of holding up the first frame.
+        m_drawer = new BoardDrawerHex(false);
+        m_drawer.loadBackgroundLater(BoardDrawerHex.BACKGROUND,
+                                     new Runnable()
+            {
+                public void run()
+                {
+                    repaint();
+                }
+            });
+        boardChanged();
     }
 
     /** Sets whether black and letters is on top or if white and
@@ -156,7 +181,7 @@ public final class GuiBoard
 	    System.out.println("GuiBoard: unknown orientation '" + 
 			       orient + "'.");
 	}
-        repaint();
+        boardChanged();
     }
 
     public void updateRotation(int amount)
@@ -171,6 +196,15 @@ public final class GuiBoard
         m_preferences.put("gui-board-rotation", rot);
     }
 
+    /** Sets whether heat values are shown as a colored map
+        (heatmap mode). */
+    public void setHeatMap(boolean heatMap)
+    {
+        m_heatMap = heatMap;
+        m_preferences.put("gui-heatmap", heatMap);
+        boardChanged();
+    }
+
     public void initSize(int w, int h)
     {
         initSize(m_mode, w, h);
@@ -194,7 +228,9 @@ public final class GuiBoard
 	m_size = new Dimension(m_width, m_height);
         
         m_dirty_stones = false;
-        clearArrows();
+        m_overlay.clear();
+        m_last_played = null;
+        m_swap_played = false;
 
         if (m_mode == HEXBOARD) 
         {
@@ -215,8 +251,9 @@ public final class GuiBoard
                 }
             }
         }
+        indexFields();
 	clearAll();
-        repaint();
+        boardChanged();
     }
 
     /** Creates a board with the given dimensions.
@@ -253,20 +290,15 @@ public final class GuiBoard
 	for (int x=0; x<m_field.length; x++) {
 	    m_field[x].clear();
         }
-        repaint();
+        boardChanged();
     }
 
-    /** Makes a copy of the current fields if the dirty flag is not
-        already set, and then sets the dirty flag to true. See
-        clearMarks().
+    /** Sets the dirty flag: stones set with setColor() are shown in
+        the overlay on top of the position instead of changing it,
+        until the next clearMarks().
     */
     public void aboutToDirtyStones()
     {
-        if (!m_dirty_stones) {
-            m_backup_field = new GuiField[m_field.length];
-            for (int i=0; i<m_field.length; i++) 
-                m_backup_field[i] = new GuiField(m_field[i]);
-        }
         m_dirty_stones = true;
     }
 
@@ -278,42 +310,38 @@ public final class GuiBoard
     /** Adds an arrow. */
     public void addArrow(HexPoint from, HexPoint to)
     {
-        m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
-        repaint();
+        m_overlay.addArrow(from, to);
+        boardChanged();
     }
 
     public void clearArrows()
     {
-        m_arrows.clear();
-        repaint();
+        m_overlay.clearArrows();
+        boardChanged();
     }
 
-    /** Clears dynamic marks, leaving stones intact. If the dirty flag is set,
-        revert the fields to the saved fields saved in markStonesDirty().
-        Dirty stones flag is set to false. See aboutToDirtyStones().
-        Empties the list of arrows. 
+    /** Clears dynamic marks, leaving the position intact: empties the
+        overlay (dirty stones, alpha colors, text and arrows) and
+        removes the last played and swap marks. Dirty stones flag is
+        set to false. See aboutToDirtyStones(). Takes time
+        proportional to the number of marks.
      */
     public void clearMarks()
     {
-        if (m_dirty_stones) {
-            for (int i=0; i<m_field.length; i++) {
-                m_field[i] = new GuiField(m_backup_field[i]);
-            }
-        }
         m_dirty_stones = false;
-        
-        clearArrows();
-        
-	for (int x=0; x<m_field.length; x++) {
-	    m_field[x].clearAttributes(GuiField.LAST_PLAYED | 
-                                       GuiField.SWAP_PLAYED | 
-                                       GuiField.DRAW_TEXT | 
-                                       GuiField.DRAW_ALPHA);
+        m_overlay.clear();
+	if (m_last_played != null) {
+	    m_last_played.clearAttributes(GuiField.LAST_PLAYED);
+            m_last_played = null;
         }
-        repaint();
+        if (m_swap_played)
+            clearSwapPlayed();
+        boardChanged();
     }
 
-    /** Sets the given point to the given color.
+    /** Sets the given point to the given color. If the dirty flag is
+        set, the stone is shown in the overlay and the position is not
+        changed.
         Special points are ignored (SWAP_SIDES, RESIGN, etc).
 	@param point the point
 	@param color the color to set it to.
@@ -322,12 +350,16 @@ public final class GuiBoard
     {
 	GuiField f = getField(point);
         if (f != null) {
-            f.setColor(color);
-            repaint();
+            if (m_dirty_stones)
+                m_overlay.setColor(point, color);
+            else
+                f.setColor(color);
+            boardChanged();
         }
     }
 
-    /** Gets the color of the specified point.
+    /** Gets the color of the specified point in the position; stones
+        shown in the overlay are ignored.
 	@param point the point whose color we with to obtain.
 	@return the color of <code>point</code>
     */
@@ -339,23 +371,23 @@ public final class GuiBoard
 
     /** Gets the field at the specified point. 
         Special points are ignored (SWAP_SIDES, etc).
+        @return the field, or null if the point is a special point or
+        not on the board.
     */
     public GuiField getField(HexPoint point)
     {
-        if (point == HexPoint.SWAP_SIDES
-            || point == HexPoint.SWAP_PIECES
-            || point == HexPoint.PASS
-            || point == HexPoint.RESIGN
-            || point == HexPoint.FORFEIT) {
+        if (point == null)
             return null;
-        }
+        return m_fieldIndex[point.getIndex()];
+    }
 
-	for (int x=0; x<m_field.length; x++) {
-	    if (m_field[x].getPoint() == point) 
-		return m_field[x];
-        }
-	assert(false);
-	return null;
+    /** Fills m_fieldIndex from m_field; must be called whenever
+        m_field is replaced. */
+    private void indexFields()
+    {
+        Arrays.fill(m_fieldIndex, null);
+        for (int x=0; x<m_field.length; x++)
+            m_fieldIndex[m_field[x].getPoint().getIndex()] = m_field[x];
     }
 
     /** Marks the given point to show which move was played last, or
@@ -375,7 +407,7 @@ public final class GuiBoard
                 m_last_played.setAttributes(GuiField.LAST_PLAYED);
             }
 	}
-        repaint();
+        boardChanged();
     }
 
     /** Clear swap marks */
@@ -384,7 +416,8 @@ public final class GuiBoard
         for (int x=0; x<m_field.length; x++) {
             m_field[x].clearAttributes(GuiField.SWAP_PLAYED);
         }
-        repaint();
+        m_swap_played = false;
+        boardChanged();
     }
         
     /** Add swap mark to all pieces on the board (hopefully there is
@@ -397,25 +430,24 @@ public final class GuiBoard
                 m_field[x].setAttributes(GuiField.SWAP_PLAYED);
             }
         }
-        repaint();
+        m_swap_played = true;
+        boardChanged();
     }
 
-    /** Sets the given point's alpha color. */
+    /** Sets the given point's alpha color in the overlay. */
     public void setAlphaColor(HexPoint point, Color color)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setAlphaColor(color);
-            repaint();
+        if (getField(point) != null) {
+            m_overlay.setAlphaColor(point, color);
+            boardChanged();
         }
     }
 
     public void setAlphaColor(HexPoint point, Color color, float blend)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setAlphaColor(color, blend);
-            repaint();
+        if (getField(point) != null) {
+            m_overlay.setAlphaColor(point, color, blend);
+            boardChanged();
         }
     }
 
@@ -423,26 +455,50 @@ public final class GuiBoard
         or resign or similar. */
     public Color getAlphaColor(HexPoint point)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            return f.getAlphaColor();
+        if (getField(point) != null) {
+            return m_overlay.getAlphaColor(point);
         } else {
             return null;
         }
     }
     
-    /** Sets the given point's text. */
+    /** Sets the alpha color of all given points. The board is
+        repainted once. */
+    public void setAlphaColors(List<HexPoint> points, Color color)
+    {
+        for (int i=0; i<points.size(); i++) {
+            HexPoint point = points.get(i);
+            if (getField(point) != null)
+                m_overlay.setAlphaColor(point, color);
+        }
+        boardChanged();
+    }
+
+    /** Sets the given point's text in the overlay. */
     public void setText(HexPoint point, String str)
     {
-        getField(point).setText(str);
-        repaint();
+        if (getField(point) != null) {
+            m_overlay.setText(point, str);
+            boardChanged();
+        }
+    }
+
+    /** Sets the text of the first n points; points[i] gets
+        texts[i]. The board is repainted once. */
+    public void setTexts(HexPoint[] points, String[] texts, int n)
+    {
+        for (int i=0; i<n; i++) {
+            if (getField(points[i]) != null)
+                m_overlay.setText(points[i], texts[i]);
+        }
+        boardChanged();
     }
 
     /** Sets whether this cell is selected. */
     public void setSelected(HexPoint point, boolean selected)
     {
         getField(point).setSelected(selected);
-        repaint();
+        boardChanged();
     }
 
     /** Check if the board is full */
@@ -484,20 +540,33 @@ public final class GuiBoard
         Hex. */
     public void swapPieces() 
     {
-        // Due to the weird way the data structures are set up, it
-        // is tricky to move pieces to another location on the board.
-        // In particular, there is no O(1) way to find the HexField
-        // attached to a given HexPoint.
-        Map<HexPoint, HexColor> colors = new TreeMap<HexPoint, HexColor>();
+        HexColor colors[] = new HexColor[m_field.length];
         for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            colors.put(point, m_field[x].getColor());
+            HexPoint otherpoint = m_field[x].getPoint().reflect();
+            colors[x] = getField(otherpoint).getColor().otherColor();
         }
-        for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            HexPoint otherpoint = point.reflect();
-            m_field[x].setColor(colors.get(otherpoint).otherColor());
+        for (int x=0; x<m_field.length; x++)
+            m_field[x].setColor(colors[x]);
+    }
+
+    /** Returns a hash of the stones on the board. The hash depends
+        only on the board size and the color of each cell, not on the
+        order the stones were played in; stones shown by analysis
+        commands (see aboutToDirtyStones()) are ignored. */
+    public long getPositionHash()
+    {
+        GuiField field[] = m_field;
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ m_mode) * 0x100000001b3L;
+        hash = (hash ^ m_width) * 0x100000001b3L;
+        hash = (hash ^ m_height) * 0x100000001b3L;
+        for (int x=0; x<field.length; x++) {
+            HexColor color = field[x].getColor();
+            int c = (color == HexColor.BLACK) ? 1
+                : (color == HexColor.WHITE) ? 2 : 0;
+            hash = (hash ^ c) * 0x100000001b3L;
         }
+        return hash;
     }
 
     /** Stores the current state as a setup position in the
@@ -517,26 +586,68 @@ public final class GuiBoard
     public void paintImmediately()
     {
         assert SwingUtilities.isEventDispatchThread();
+        if (m_batch > 0) {
+            m_batchChanged = true;
+            return;
+        }
 	super.paintImmediately(0, 0, getWidth(), getHeight());
     }
 
-    /** Displays this vc on the board. */
-    public void displayVC(VC vc)
+    /** Starts a batch of changes. Repaints requested by the changes
+        are held back until the matching endBatch(), which repaints
+        the board once. Batches may be nested. */
+    public void beginBatch()
     {
-        getField(vc.getFrom()).setAlphaColor(Color.blue);
-        getField(vc.getTo()).setAlphaColor(Color.blue);
-        
-        Vector<HexPoint> carrier = vc.getCarrier();
-        for (int i=0; i<carrier.size(); i++) 
-            getField(carrier.get(i)).setAlphaColor(Color.green);
+        assert SwingUtilities.isEventDispatchThread();
+        ++m_batch;
+    }
+
+    /** Ends a batch of changes; see beginBatch(). */
+    public void endBatch()
+    {
+        assert SwingUtilities.isEventDispatchThread();
+        assert m_batch > 0;
+        if (--m_batch == 0 && m_batchChanged) {
+            m_batchChanged = false;
+            repaint();
+        }
+    }
 
-        Vector<HexPoint> stones = vc.getStones();
-        for (int i=0; i<stones.size(); i++) 
-            getField(stones.get(i)).setAlphaColor(Color.red);
+    /** Repaints the board, or notes that a repaint is needed if a
+        batch is in progress. */
+    private void boardChanged()
+    {
+        if (m_batch > 0)
+            m_batchChanged = true;
+        else
+            repaint();
+    }
 
-        Vector<HexPoint> key = vc.getKey();
-        for (int i=0; i<key.size(); i++)
-            getField(key.get(i)).setAlphaColor(Color.yellow);
+    /** Replaces the dynamic marks with those of the overlay. Stones
+        of the overlay are shown as dirty stones (see
+        aboutToDirtyStones()). The overlay is not copied: it belongs
+        to the board afterwards, and later marks are added to it.
+        @return the overlay shown before, now empty and no longer
+        used by the board.
+    */
+    public BoardOverlay showOverlay(BoardOverlay overlay)
+    {
+        clearMarks();
+        BoardOverlay old = m_overlay;
+        m_overlay = overlay;
+        m_dirty_stones = true;
+        boardChanged();
+        return old;
+    }
+
+    /** Displays this vc on the board. */
+    public void displayVC(VC vc)
+    {
+        setAlphaColor(vc.getFrom(), Color.blue);
+        setAlphaColor(vc.getTo(), Color.blue);
+        setAlphaColors(vc.getCarrier(), Color.green);
+        setAlphaColors(vc.getStones(), Color.red);
+        setAlphaColors(vc.getKey(), Color.yellow);
     }
 
     //------------------------------------------------------------
@@ -614,16 +725,16 @@ public final class GuiBoard
         return ret;
     }
 
-    private GuiField[] flipFields(GuiField field[])
-    {
-	GuiField out[] = new GuiField[field.length];
-	for (int i=0; i<field.length; i++) {
-	    HexPoint p = field[i].getPoint();
-	    out[i] = new GuiField(field[i]);
-            out[i].setPoint(HexPoint.get(p.y, p.x));
-	}
-	return out;
-    }
+    /** Time without size changes after which a resize is taken as
+        finished, in milliseconds. */
+    private static final int RESIZE_SETTLE_MS = 150;
+
+    /** Offscreen buffers grow in steps of this many pixels, so that
+        a resize does not reallocate on every step. */
+    private static final int IMAGE_GRANULARITY = 128;
+
+    private static final Metrics.Timer s_paintTime
+        = Metrics.timer(PerfHud.PAINT_TIME);
 
     private class BoardPanel
 	extends JPanel
@@ -631,40 +742,125 @@ public final class GuiBoard
 	public BoardPanel()
 	{
 	    setFocusable(true);
+            m_settleTimer = new Timer(RESIZE_SETTLE_MS, new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent e)
+                    {
+                        m_resizing = false;
+                        repaint();
+                    }
+                });
+            m_settleTimer.setRepeats(false);
 	}
 
 	public void paintComponent(Graphics graphics)
 	{
 	    int w = getWidth();
 	    int h = getHeight();
+            long start = System.nanoTime();
+            FlightEvents.BoardPaint event = new FlightEvents.BoardPaint();
+            event.begin();
+            event.width = w;
+            event.height = h;
+
+            // While the size is changing, show the last frame scaled
+            // instead of laying out and drawing the board for every
+            // intermediate size.
+            if (m_resizing && m_frameWidth > 0 && m_frameHeight > 0) {
+                drawScaledFrame((Graphics2D)graphics, w, h);
+                s_paintTime.record(System.nanoTime() - start);
+                event.scaled = true;
+                event.commit();
+                return;
+            }
 
-	    if (m_image == null) {
-		m_image = createImage(w, h);
-	    }
+            EdtWatchdog.note("paint board");
+            ensureImage(w, h);
 
 	    int bw = m_width;
 	    int bh = m_height;
 	    GuiField ff[] = m_field;
-            Vector<Pair<HexPoint, HexPoint>> arrows = m_arrows;
-
-            boolean mirrored = false;
-            if (m_preferences.get("gui-board-orientation").equals("negative")) {
-                mirrored = true;
-            }
-
-            int rotation = m_preferences.getInt("gui-board-rotation");
-            
-	    m_drawer.draw((Graphics2D)m_image.getGraphics(), 
-                          w, h, bw, bh, rotation, mirrored, 
-                          ff, arrows);
-	    graphics.drawImage(m_image, 0, 0, null);
+            BoardOverlay overlay = m_overlay;
+
+            boolean mirrored = m_mirrored;
+            int rotation = m_rotation;
+
+            Graphics2D g = m_image.createGraphics();
+            g.setColor(getBackground());
+            g.fillRect(0, 0, w, h);
+            m_drawer.setHeatMap(m_heatMap);
+	    m_drawer.draw(g, w, h, bw, bh, rotation, mirrored, ff, overlay);
+            g.dispose();
+	    graphics.drawImage(m_image, 0, 0, w, h, 0, 0, w, h, null);
+            m_frameWidth = w;
+            m_frameHeight = h;
+            s_paintTime.record(System.nanoTime() - start);
+            event.commit();
+            StartupTimer.mark("first paint");
 	}
 
 	public void setBounds(int x, int y, int w, int h)
 	{
+            boolean resized = (w != getWidth() || h != getHeight());
 	    super.setBounds(x, y, w, h);
-	    m_image = null;
+            if (resized && m_frameWidth > 0) {
+                m_resizing = true;
+                m_settleTimer.restart();
+            }
 	}
+
+        /** Makes sure the offscreen buffer is at least w by h. The
+            buffer is only replaced if it is too small. */
+        private void ensureImage(int w, int h)
+        {
+            w = Math.max(w, 1);
+            h = Math.max(h, 1);
+            if (m_image != null && m_image.getWidth() >= w 
+                && m_image.getHeight() >= h)
+                return;
+            int iw = roundUp(Math.max(w, m_image == null ? 0 
+                                      : m_image.getWidth()));
+            int ih = roundUp(Math.max(h, m_image == null ? 0 
+                                      : m_image.getHeight()));
+            m_image = getGraphicsConfiguration() == null 
+                ? new BufferedImage(iw, ih, BufferedImage.TYPE_INT_RGB)
+                : getGraphicsConfiguration().createCompatibleImage(iw, ih);
+        }
+
+        private int roundUp(int n)
+        {
+            return (n + IMAGE_GRANULARITY - 1) 
+                / IMAGE_GRANULARITY * IMAGE_GRANULARITY;
+        }
+
+        /** Draws the last full frame scaled to fit w by h, keeping
+            its aspect ratio. */
+        private void drawScaledFrame(Graphics2D g, int w, int h)
+        {
+            double scale = Math.min((double)w / m_frameWidth,
+                                    (double)h / m_frameHeight);
+            int sw = (int)(m_frameWidth * scale);
+            int sh = (int)(m_frameHeight * scale);
+            int x = (w - sw) / 2;
+            int y = (h - sh) / 2;
+            g.setColor(getBackground());
+            g.fillRect(0, 0, w, h);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                               RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(m_image, x, y, x + sw, y + sh,
+                        0, 0, m_frameWidth, m_frameHeight, null);
+        }
+
+        /** Offscreen buffer; may be larger than the panel. */
+        private BufferedImage m_image;
+
+        /** Size of the last frame drawn at full quality. */
+        private int m_frameWidth, m_frameHeight;
+
+        /** True while the panel is being resized; see setBounds(). */
+        private boolean m_resizing;
+
+        private final Timer m_settleTimer;
     }
 
     public void mousePressed(MouseEvent e) {}
@@ -676,20 +872,51 @@ public final class GuiBoard
     private Dimension m_size;
     private int m_mode;
 
-    private Image m_image;
     private GuiField m_field[];
-    private Vector<Pair<HexPoint, HexPoint>> m_arrows;
+
+    /** Field of each point on the board by point index (see
+        HexPoint.getIndex()); null for points not on the board. */
+    private final GuiField m_fieldIndex[] = new GuiField[HexPoint.MAX_POINTS];
+
+
+    /** Marks shown on top of the position: dirty stones, alpha
+        colors, text and arrows. */
+    private BoardOverlay m_overlay;
 
     private boolean m_dirty_stones;
-    private GuiField m_backup_field[];
+
+    /** Cached value of the gui-heatmap preference. */
+    private boolean m_heatMap;
+
+    /** Nesting depth of beginBatch(). */
+    private int m_batch;
+
+    /** True if a repaint was held back during the current batch. */
+    private boolean m_batchChanged;
 
     private GuiField m_last_played;
 
+    /** True if markSwapPlayed() was called since the last
+        clearSwapPlayed(). */
+    private boolean m_swap_played;
+
     private BoardDrawerBase m_drawer;
     private BoardPanel m_boardPanel;
 
     private Listener m_listener;
     private GuiPreferences m_preferences;
+
+    /** gui-board-orientation is "negative"; see readOrientation(). */
+    private boolean m_mirrored;
+
+    /** gui-board-rotation; see readOrientation(). */
+    private int m_rotation;
+
+    private void readOrientation(GuiPreferences.Snapshot snapshot)
+    {
+        m_mirrored = snapshot.get("gui-board-orientation").equals("negative");
+        m_rotation = snapshot.getInt("gui-board-rotation");
+    }
 }
 
 //----------------------------------------------------------------------------
@@ -13,6 +13,7 @@ import java.awt.Font;
 
 import java.awt.event.*;
 import java.awt.geom.*;
+import java.awt.image.BufferedImage;
 
 import hexgui.hex.*;
 import hexgui.util.*;
@@ -28,12 +29,6 @@ public class GuiField
     public static final int DRAW_ALPHA = 16;
     public static final int SELECTED = 32;
 
-    private static final Color COLOR_STONE_BLACK = Color.decode("#030303");
-    private static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
-    private static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
-    private static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
-
-
     public GuiField(HexPoint p)
     {
 	this(p, HexColor.EMPTY, 0, null, null, 0);
@@ -159,74 +154,50 @@ public class GuiField
 	setColor(HexColor.EMPTY);
     }
 
-    private RadialGradientPaint getPaint(int width, 
-					 int height,
-                                         Color colorNormal,
-                                         Color colorBright)
+    /** Draws the field centered at (x,y). Stones and markers are
+        drawn by the sprites, which must have been updated for the
+        field size; only text is drawn here. */
+    public void draw(Graphics2D g, int x, int y, int w, int h,
+                     StoneSprites sprites)
     {
-        RadialGradientPaint paint;
-        int paintSize;
-	int size = (width < height) ? width : height;
-        int radius = Math.max(size / 3, 1);
-        Point2D.Double centerPoint =
-            new Point2D.Double(width/2 - size/6, height/2 - size/6);
-        Point2D.Double radiusPoint =
-            new Point2D.Double(radius, radius);
-        paint = new RadialGradientPaint(centerPoint, colorBright,
-                                        radiusPoint, colorNormal);
-        return paint;
+        draw(g, x, y, w, h, sprites, m_color,
+             ((m_attributes & DRAW_TEXT) != 0) ? m_text : null);
     }
 
-    public void draw(Graphics2D g, int x, int y, int w, int h, double stoneradius)
+    /** Draws the field centered at (x,y) with the given stone color
+        and text instead of its own; used to show the marks of a
+        BoardOverlay without changing the field.
+        @param text the text to draw, or null for none */
+    public void draw(Graphics2D g, int x, int y, int w, int h,
+                     StoneSprites sprites, HexColor color, String text)
     {
-	m_width = w;
-	m_height = h;
-
-	m_radius = (h < w) ? h/2 : w/2;
-	m_margin = getStoneMargin_new(m_radius*2);
-        m_stoneradius = stoneradius;
-
-	m_graphics = (Graphics2D)g.create(x-w/2,y-h/2,w,h);
-	
-	if (m_color == HexColor.WHITE) {
-	    drawStone(COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT, stoneradius);
-        } else if (m_color == HexColor.BLACK) {
-	    drawStone(COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT, stoneradius * 1.01);
-        }
-        
-	if ((m_attributes & LAST_PLAYED) != 0) {
-	    drawLastPlayed();
-        }
+        int left = x - sprites.getWidth()/2;
+        int top = y - sprites.getHeight()/2;
 
-        if ((m_attributes & SWAP_PLAYED) != 0) {
-            drawSwapPlayed();
-        }
+        sprites.drawStone(g, color, left, top);
+
+	if ((m_attributes & LAST_PLAYED) != 0)
+            sprites.drawLastPlayed(g, left, top);
+
+        if ((m_attributes & SWAP_PLAYED) != 0)
+            sprites.drawSwapPlayed(g, color, left, top);
 
         // FIXME: this is done in BoardDrawer since we don't know
         // anything about our shape and size and we want to cover the
         // entire field.  Should all drawing be done in board drawer?
         // if ((m_attributes & DRAW_ALPHA) != 0) drawAlpha();
 
-        if ((m_attributes & DRAW_TEXT) != 0)
-            drawText();
-	
-    }
-    
-    private void drawStone(Color normal, Color bright, double size)
-    {
-        RadialGradientPaint paint = getPaint(m_width, m_height, normal, bright);
-        m_graphics.setPaint(paint);
-
-	m_graphics.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size, size*2, size*2));
-
-	m_graphics.setPaintMode();
-    }
-
-    private void drawLastPlayed()
-    {
-	m_graphics.setColor(Color.gray);
-        double size = (m_radius - m_margin) / 6;
-	m_graphics.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size, 2*size, 2*size));
+        if (text != null)
+        {
+            m_width = w;
+            m_height = h;
+            m_radius = (h < w) ? h/2 : w/2;
+            m_margin = getStoneMargin_new(m_radius*2);
+            m_graphics = (Graphics2D)g.create(x-w/2,y-h/2,w,h);
+            drawText(text, color);
+            m_graphics.dispose();
+            m_graphics = null;
+        }
     }
 
     /** Draw the given string centered at the coordinates (x,y) in the
@@ -245,16 +216,6 @@ public class GuiField
         m_graphics.setFont(f);
     }
     
-    private void drawSwapPlayed()
-    {
-        if (m_color == HexColor.BLACK) {
-            m_graphics.setColor(Color.white);
-        } else {
-            m_graphics.setColor(Color.black);
-        }
-        this.drawString("S", m_width/2.0, m_height/2.0, 1);
-    }
-
     private void drawAlpha()
     {
 	if (m_alpha_color == null)
@@ -269,9 +230,9 @@ public class GuiField
 
     }
 
-    private void drawText()
+    private void drawText(String text, HexColor stone)
     {
-        String[] lines = m_text.split("@");
+        String[] lines = text.split("@");
         int nlines = lines.length;
         
         double size = m_radius - m_margin;
@@ -284,7 +245,7 @@ public class GuiField
             String str = lines[i].trim();
 
             Color color = Color.black;
-            if (getColor() == HexColor.BLACK)
+            if (stone == HexColor.BLACK)
                 color = Color.white;
 
             m_graphics.setColor(color);
@@ -307,7 +268,6 @@ public class GuiField
     private int m_height;
     private double m_radius;
     private double m_margin;
-    private double m_stoneradius;
     
     private Graphics2D m_graphics;
 }
@@ -182,6 +182,20 @@ public final class GuiMenuBar
 	m_disconnect = item;
  	menu.add(item);
 
+ 	menu.addSeparator();
+
+	item = new JMenuItem("Show Program Stderr...");
+	item.setMnemonic(KeyEvent.VK_S);
+	item.addActionListener(m_listener);
+	item.setActionCommand("program-stderr");
+ 	menu.add(item);
+
+	item = new JMenuItem("Save Program Stderr...");
+	item.setMnemonic(KeyEvent.VK_V);
+	item.addActionListener(m_listener);
+	item.setActionCommand("save-program-stderr");
+ 	menu.add(item);
+
 	return menu;
     }
 
@@ -443,6 +457,16 @@ public final class GuiMenuBar
 	return m_toolbar_visible.getState();
     }
 
+    public boolean getPerfHudVisible()
+    {
+	return m_perf_hud_visible.getState();
+    }
+
+    public boolean getHeatMap()
+    {
+	return m_heatmap.getState();
+    }
+
     public boolean getShellVisible()
     {
 	return m_shell_visible.getState();
@@ -463,6 +487,16 @@ public final class GuiMenuBar
         m_analyze_visible.setState(f);
     }
 
+    public boolean getGameTreeVisible()
+    {
+        return m_gametree_visible.getState();
+    }
+
+    public void setGameTreeVisible(boolean f)
+    {
+        m_gametree_visible.setState(f);
+    }
+
     public boolean getEvalGraphVisible()
     {
         return m_evalgraph_visible.getState();
@@ -500,8 +534,28 @@ public final class GuiMenuBar
 	m_analyze_visible.setEnabled(false);
 	menu.add(m_analyze_visible);
 
+	m_gametree_visible = new JCheckBoxMenuItem("Show Game Tree");
+	m_gametree_visible.setMnemonic(KeyEvent.VK_G);
+	m_gametree_visible.addActionListener(m_listener);
+	m_gametree_visible.setActionCommand("gui_gametree_visible");
+	menu.add(m_gametree_visible);
+
+	m_perf_hud_visible = new JCheckBoxMenuItem("Show Performance HUD");
+	m_perf_hud_visible.setMnemonic(KeyEvent.VK_P);
+	m_perf_hud_visible.setState(m_preferences.getBoolean("perf-hud-visible"));
+	m_perf_hud_visible.addActionListener(m_listener);
+	m_perf_hud_visible.setActionCommand("gui_perf_hud_visible");
+	menu.add(m_perf_hud_visible);
+
 	menu.addSeparator();
 
+	m_heatmap = new JCheckBoxMenuItem("Show Heatmap");
+	m_heatmap.setMnemonic(KeyEvent.VK_H);
+	m_heatmap.setState(m_preferences.getBoolean("gui-heatmap"));
+	m_heatmap.addActionListener(m_listener);
+	m_heatmap.setActionCommand("gui_heatmap");
+	menu.add(m_heatmap);
+
         JMenuItem item = new JMenuItem("Clear Marks");
 	item.setMnemonic(KeyEvent.VK_C);
         item.addActionListener(m_listener);
@@ -658,6 +712,12 @@ public final class GuiMenuBar
 	menu.setMnemonic(KeyEvent.VK_H);
 
 	JMenuItem item;
+	item = new JMenuItem("EDT Stalls...");
+	item.setMnemonic(KeyEvent.VK_E);
+	item.addActionListener(m_listener);
+	item.setActionCommand("edt_stalls");
+	menu.add(item);
+
 	item = new JMenuItem("About HexGui...");
 	item.setMnemonic(KeyEvent.VK_A);
 	item.addActionListener(m_listener);
@@ -675,6 +735,9 @@ public final class GuiMenuBar
     private JCheckBoxMenuItem m_shell_visible;
     private JCheckBoxMenuItem m_analyze_visible;
     private JCheckBoxMenuItem m_evalgraph_visible;
+    private JCheckBoxMenuItem m_gametree_visible;
+    private JCheckBoxMenuItem m_heatmap;
+    private JCheckBoxMenuItem m_perf_hud_visible;
 
     private JMenuItem m_connect_local, m_connect_remote, 
         m_disconnect, m_reconnect;
@@ -4,13 +4,20 @@
 
 package hexgui.gui;
 
+import hexgui.util.PrefUtil;
+
 import java.io.*;
 import java.util.*;
 import java.util.prefs.*;
 
 //----------------------------------------------------------------------------
 
-/** GuiPreferences */
+/** GuiPreferences.
+
+    <p>The preferences are read once into an immutable Snapshot; get()
+    and the typed getters read the current snapshot, so no caller
+    touches the backing store. put() replaces the snapshot, notifies
+    the listeners and leaves the write to PrefUtil.putLater(). */
 public final class GuiPreferences
 {
     private static String[][] s_preflist = new String[][]
@@ -26,8 +33,14 @@ public final class GuiPreferences
             {"draw-field-alpha",                  "0.3"}, // FIXME: not used yet!
 
 	    {"gui-toolbar-visible",               "true"},
+	    {"gui-heatmap",                       "false"},
 
 	    {"shell-show-on-connect",             "false"},
+	    {"shell-max-lines",                   "10000"},
+	    {"stderr-buffer-kb",                  "4096"},
+
+	    {"edt-stall-ms",                      "100"},
+	    {"perf-hud-visible",                  "false"},
 
             {"analyze-show-on-connect",           "false"},
 
@@ -43,49 +56,178 @@ public final class GuiPreferences
 	    {"path-load-game",                    "."},
 	    {"path-save-game",                    "."},
 
+            {"analysis-store-enabled",            "true"},
+            {"analysis-store-max-mb",             "64"},
+            {"analysis-store-commands",
+             "dfpn-solve-state dfpn-solver-find-winning dfs-solve-state"
+             + " dfs-solver-find-winning solver-find-winning vc-build"
+             + " compute-inferior compute-fillin compute-dominated"},
+
 	    {"dummy-preference",                  ""}
 	};
     
 
+    /** Listener for changed preferences. */
+    public interface Listener
+    {
+        /** Called on the thread that changed the preference.
+            @param name the preference that changed.
+            @param snapshot the preferences with the new value. */
+        void preferenceChanged(String name, Snapshot snapshot);
+    }
+
+    /** The values of all preferences at one point in time.
+        Snapshots are immutable and never read the backing store, so
+        they can be used from any thread and on every paint. Integer
+        and boolean values are parsed once, when the snapshot is
+        made. */
+    public static final class Snapshot
+    {
+        public String get(String name)
+        {
+            int i = indexOf(name);
+            if (i < 0) {
+                System.out.println("Unknown preference: " + name + 
+                                   ", returning 'unknown'.");
+                return "unknown";
+            }
+            return m_values[i];
+        }
+
+        /** @throws NumberFormatException if the value is not an
+            integer. */
+        public int getInt(String name)
+        { 
+            int i = indexOf(name);
+            if (i < 0 || !m_isInt[i])
+                return Integer.parseInt(get(name));
+            return m_ints[i];
+        }
+
+        public boolean getBoolean(String name)
+        {	
+            int i = indexOf(name);
+            if (i < 0)
+                return Boolean.parseBoolean(get(name));
+            return m_booleans[i];
+        }
+
+        private Snapshot(String values[])
+        {
+            m_values = values;
+            m_ints = new int[values.length];
+            m_isInt = new boolean[values.length];
+            m_booleans = new boolean[values.length];
+            for (int i = 0; i < values.length; ++i)
+                parse(i);
+        }
+
+        private Snapshot(Snapshot other)
+        {
+            m_values = other.m_values.clone();
+            m_ints = other.m_ints.clone();
+            m_isInt = other.m_isInt.clone();
+            m_booleans = other.m_booleans.clone();
+        }
+
+        /** Returns a copy with one value changed. */
+        private Snapshot with(int i, String value)
+        {
+            Snapshot snapshot = new Snapshot(this);
+            snapshot.m_values[i] = value;
+            snapshot.parse(i);
+            return snapshot;
+        }
+
+        private void parse(int i)
+        {
+            String value = m_values[i];
+            try {
+                m_ints[i] = Integer.parseInt(value);
+                m_isInt[i] = true;
+            } catch (NumberFormatException e) {
+                m_ints[i] = 0;
+                m_isInt[i] = false;
+            }
+            m_booleans[i] = Boolean.parseBoolean(value);
+        }
+
+        private final String m_values[];
+
+        private final int m_ints[];
+
+        /** False where the value is not an integer. */
+        private final boolean m_isInt[];
+
+        private final boolean m_booleans[];
+    }
+
+    /** Reads all preferences from the backing store. This is the only
+        time they are read; later changes are written behind. */
     public GuiPreferences(Class theClass)
     {
 	m_preferences = Preferences.userNodeForPackage(theClass);
-	
+        String values[] = new String[s_preflist.length];
+	for (int i=0; i<s_preflist.length; i++)
+            values[i] = m_preferences.get(s_preflist[i][0], s_preflist[i][1]);
+        m_snapshot = new Snapshot(values);
+        m_listeners = new Vector<Listener>();
+    }
+
+    /** Returns the current values. */
+    public Snapshot getSnapshot()
+    {
+        return m_snapshot;
+    }
+
+    public void addListener(Listener listener)
+    {
+        m_listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        m_listeners.remove(listener);
     }
 
     public String get(String name)
     {
-	for (int i=0; i<s_preflist.length; i++) {
-	    if (name.equals(s_preflist[i][0])) {
-		return m_preferences.get(s_preflist[i][0], s_preflist[i][1]);
-	    }
-	}
-	System.out.println("Unknown preference: " + name + 
-			   ", returning 'unknown'.");
-	return "unknown";
+        return m_snapshot.get(name);
     }
 
     public int getInt(String name)
     { 
-	return Integer.parseInt(get(name)); 
+	return m_snapshot.getInt(name);
     }
 
     public boolean getBoolean(String name)
     {	
-	return Boolean.parseBoolean(get(name));
+	return m_snapshot.getBoolean(name);
     }
 
-
+    /** Changes a preference. The new value is seen at once, and
+        written to the backing store in the background; listeners are
+        notified if the value changed. */
     public void put(String name, String value)
     {
-	for (int i=0; i<s_preflist.length; i++) {
-	    if (name.equals(s_preflist[i][0])) {
-		m_preferences.put(s_preflist[i][0], value);
-		return;
-	    }
-	}
-	System.out.println("Unknown preference: " + name + 
-			   ", nothing stored.");
+        int i = indexOf(name);
+        if (i < 0) {
+            System.out.println("Unknown preference: " + name + 
+                               ", nothing stored.");
+            return;
+        }
+        Snapshot snapshot;
+        synchronized (this) {
+            if (value.equals(m_snapshot.m_values[i]))
+                return;
+            snapshot = m_snapshot.with(i, value);
+            m_snapshot = snapshot;
+            // Queued under the lock, so the store gets the values of
+            // a key in the same order as the snapshots.
+            PrefUtil.putLater(m_preferences, name, value);
+        }
+        for (Listener listener : m_listeners.toArray(new Listener[0]))
+            listener.preferenceChanged(name, snapshot);
     }
 
     public void put(String name, int value) 
@@ -98,7 +240,25 @@ public final class GuiPreferences
 	put(name, Boolean.toString(value));
     }
 
-    
-    Preferences m_preferences;
+    private static int indexOf(String name)
+    {
+        Integer i = s_index.get(name);
+        return (i == null) ? -1 : i.intValue();
+    }
+
+    private static final HashMap<String,Integer> s_index
+        = new HashMap<String,Integer>();
+
+    static
+    {
+	for (int i=0; i<s_preflist.length; i++)
+            s_index.put(s_preflist[i][0], i);
+    }
+
+    private final Preferences m_preferences;
+
+    private volatile Snapshot m_snapshot;
+
+    private final Vector<Listener> m_listeners;
 }
 
@@ -5,7 +5,8 @@ import javax.swing.*;
 
 /** Runnable that is guaranteed to be run in the Swing event dispatch thread.
     Most Swing function may only be called in the Swing event dispatch
-    thread. */
+    thread. The name, e.g. the HTP command answered, is noted for the
+    EdtWatchdog. */
 public class GuiRunnable
     implements Runnable
 {
@@ -14,10 +15,26 @@ public class GuiRunnable
         m_runnable = runnable;
     }
 
+    public void setName(String name)
+    {
+        m_name = name;
+    }
+
     public void run()
     {
-        SwingUtilities.invokeLater(m_runnable);
+        final String name = m_name;
+        SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    EdtWatchdog.note((name == null) ? "callback"
+                                     : "callback " + name);
+                    m_runnable.run();
+                }
+            });
     }
 
     private Runnable m_runnable;
+
+    private volatile String m_name;
 }
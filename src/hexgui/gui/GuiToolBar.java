@@ -355,8 +355,10 @@ public final class GuiToolBar
             button.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key, 0), "key");
             Action action = new AbstractAction() {
                     public void actionPerformed(ActionEvent actionEvent) {
+                        // doClick(0): the default press time sleeps
+                        // on the event thread for every key repeat.
                         if (m_listener.shortcutsEnabled()) {
-                            button.doClick();
+                            button.doClick(0);
                         }
                     }
                 };
@@ -378,8 +380,10 @@ public final class GuiToolBar
             button.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key, 0), "key");
             Action action = new AbstractAction() {
                     public void actionPerformed(ActionEvent actionEvent) {
+                        // doClick(0): the default press time sleeps
+                        // on the event thread for every key repeat.
                         if (m_listener.shortcutsEnabled()) {
-                            button.doClick();
+                            button.doClick(0);
                         }
                     }
                 };
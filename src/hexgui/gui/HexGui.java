@@ -6,24 +6,32 @@ import hexgui.util.StringUtils;
 import hexgui.game.Node;
 import hexgui.game.GameInfo;
 import hexgui.game.Clock;
+import hexgui.game.SyncPlan;
 import hexgui.sgf.SgfWriter;
 import hexgui.sgf.SgfReader;
 import hexgui.htp.HtpController;
 import hexgui.htp.HtpError;
-import hexgui.util.StreamCopy;
+import hexgui.util.PrefUtil;
+import hexgui.util.StartupTimer;
+import hexgui.util.StderrCapture;
 import hexgui.version.Version;
 import hexgui.gui.ParameterDialog;
 import hexgui.htp.AnalyzeDefinition;
 import hexgui.htp.AnalyzeCommand;
 import hexgui.htp.AnalyzeType;
+import hexgui.htp.AnalysisStore;
+import hexgui.htp.ParameterState;
 import hexgui.util.ErrorMessage;
+import hexgui.util.FlightEvents;
+import hexgui.util.Metrics;
 import hexgui.gui.ShowAnalyzeText;
 
 import java.io.*;
 import static java.text.MessageFormat.format;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -37,11 +45,15 @@ public final class HexGui
     extends JFrame
     implements ActionListener, GuiBoard.Listener, 
                HtpShell.Callback, HtpController.GuiFxCallback, 
-               AnalyzeDialog.Listener, Comment.Listener
+               GfxPublisher.Listener,
+               AnalyzeDialog.Listener, Comment.Listener,
+               GameTreePanel.Listener
 {
     public HexGui(final File file, final String command)
     {
         super("HexGui");
+        // Decode the board background while the frame is built.
+        BoardDrawerBase.prefetchBackground(BoardDrawerHex.BACKGROUND);
         setIcon();
 
 	System.out.println("HexGui v" + Version.id + "; " + Version.date
@@ -58,9 +70,8 @@ public final class HexGui
 
         m_selected_cells = new Vector<HexPoint>();
 
-        m_about = new AboutDialog(this);
-
 	m_preferences = new GuiPreferences(getClass());
+        EdtWatchdog.install(m_preferences.getInt("edt-stall-ms"));
 
 	m_menubar = new GuiMenuBar(this, m_preferences);
 	setJMenuBar(m_menubar.getJMenuBar());
@@ -69,6 +80,7 @@ public final class HexGui
         getContentPane().add(m_toolbar.getJToolBar(), BorderLayout.NORTH);
 
         m_statusbar = new StatusBar();
+        m_statusbar.setHudVisible(m_preferences.getBoolean("perf-hud-visible"));
         getContentPane().add(m_statusbar, BorderLayout.SOUTH);
 
 	m_guiboard = new GuiBoard(this, m_preferences);
@@ -92,11 +104,16 @@ public final class HexGui
 
         m_locked = false;
 
-        m_semaphore = new Semaphore(1);
-        m_htp_queue = new ArrayBlockingQueue<HtpCommand>(256);
+        m_gfxPublisher = new GfxPublisher(this);
+        m_gfxParser = new GfxParser();
+        m_htp_queue = new PriorityBlockingQueue<HtpCommand>();
+        m_htpGeneration = new AtomicInteger();
+        m_htpSequence = new AtomicLong();
         new Thread(new CommandHandler(this, m_htp_queue)).start();
 
+        StartupTimer.mark("frame built");
         setVisible(true);
+        StartupTimer.mark("frame visible");
         // After frame is visible, further code using Swing functions must
         // be run in the Swing event dispatch thread.
         SwingUtilities.invokeLater(new Runnable() {
@@ -111,8 +128,15 @@ public final class HexGui
     public void actionPerformed(ActionEvent e)
     {
 	String cmd = e.getActionCommand();
+        EdtWatchdog.note("action " + cmd);
 
         unFocus();
+
+        // Relative navigation is coalesced (see navigate()); anything
+        // else must see the position those steps lead to.
+        if (!cmd.equals("game_back") && !cmd.equals("game_backward10")
+            && !cmd.equals("game_forward") && !cmd.equals("game_forward10"))
+            flushNavigation();
         
 	//
 	// system commands
@@ -158,6 +182,12 @@ public final class HexGui
             cmdPrintPreview();
         } else if (cmd.equals("print")) {
             cmdPrint();
+        } else if (cmd.equals("program-stderr")) {
+            cmdShowStderr();
+        } else if (cmd.equals("save-program-stderr")) {
+            cmdSaveStderr();
+        } else if (cmd.equals("edt_stalls")) {
+            cmdShowStalls();
         } else if (cmd.equals("about")) {
 	    cmdAbout();
 	//
@@ -169,6 +199,8 @@ public final class HexGui
 	    cmdGuiShellVisible();
         } else if (cmd.equals("gui_analyze_visible")) {
             cmdGuiAnalyzeVisible();
+        } else if (cmd.equals("gui_gametree_visible")) {
+            cmdGuiGameTreeVisible();
         } else if (cmd.equals("gui_board_draw_type")) {
 	    cmdGuiBoardDrawType();
         } else if (cmd.equals("gui_board_orientation")) {
@@ -185,6 +217,10 @@ public final class HexGui
             cmdShowPreferences();
         } else if (cmd.equals("gui-clear-marks")) {
             cmdClearMarks();
+        } else if (cmd.equals("gui_perf_hud_visible")) {
+            cmdGuiPerfHudVisible();
+        } else if (cmd.equals("gui_heatmap")) {
+            m_guiboard.setHeatMap(m_menubar.getHeatMap());
 	//
         // game navigation commands
 	//
@@ -193,16 +229,16 @@ public final class HexGui
 	    backward(-1);
         } else if (cmd.equals("game_backward10")) {
             end_setup();
-	    backward(10);
+	    navigate(-10);
 	} else if (cmd.equals("game_back")) {
             end_setup();
-	    backward(1);
+	    navigate(-1);
         } else if (cmd.equals("game_forward")) {
             end_setup();
-	    forward(1);
+	    navigate(1);
         } else if (cmd.equals("game_forward10")) {
             end_setup();
-	    forward(10);
+	    navigate(10);
         } else if (cmd.equals("game_end")) {
             end_setup();
 	    forward(-1);
@@ -264,7 +300,8 @@ public final class HexGui
             Runnable cb = new Runnable() 
                 { public void run() { cbShowInferiorCells(); } };
             Runnable callback = new GuiRunnable(cb);            
-            sendCommand("vc-build " + m_tomove.toString() + "\n", callback);
+            sendAnalysisCommand("vc-build " + m_tomove.toString() + "\n",
+                                callback);
         }
         else if (cmd.equals("solve_state"))
         {
@@ -273,7 +310,8 @@ public final class HexGui
                 {
                     public void run() { cbSolveState(); }
                 });
-            sendCommand("dfpn-solve-state " + m_tomove + "\n", callback);
+            sendStoredCommand("dfpn-solve-state " + m_tomove + "\n",
+                              callback);
         }
         else if (cmd.equals("program_options"))
         {
@@ -333,6 +371,9 @@ public final class HexGui
 			       m_white_version + "] process...");
 	    m_white_process.destroy();
 	}
+        if (m_analysisStore != null)
+            m_analysisStore.close();
+        PrefUtil.waitForPending();
 	System.exit(0);
     }
 
@@ -466,9 +507,11 @@ public final class HexGui
 
     //------------------------------------------------------------
 
-    private void cmdConnectLocalProgram(Program program)
+    private void cmdConnectLocalProgram(final Program program)
     {
-	Runtime runtime = Runtime.getRuntime();
+        if (m_launching)
+            return;
+	final Runtime runtime = Runtime.getRuntime();
 
 	String cmd = program.m_command;
 	System.out.println("Executing '" + program.m_name + "':");
@@ -490,50 +533,83 @@ public final class HexGui
 //             }
         }
 
-	try
-        {
-            // Create command array with StringUtil::splitArguments
-            // because Runtime.exec(String) uses a default StringTokenizer
-            // which does not respect ".
-            String[] cmdArray = StringUtils.splitArguments(cmd);
-            // Make file name absolute, if working directory is not current
-            // directory. With Java 1.5, it seems that Runtime.exec succeeds
-            // if the relative path is valid from the current, but not from
-            // the given working directory, but the process is not usable
-            // (reading from its input stream immediately returns
-            // end-of-stream)
-            if (cmdArray.length > 0)
+        // Create command array with StringUtil::splitArguments
+        // because Runtime.exec(String) uses a default StringTokenizer
+        // which does not respect ".
+        final String[] cmdArray = StringUtils.splitArguments(cmd);
+        // Make file name absolute, if working directory is not current
+        // directory. With Java 1.5, it seems that Runtime.exec succeeds
+        // if the relative path is valid from the current, but not from
+        // the given working directory, but the process is not usable
+        // (reading from its input stream immediately returns
+        // end-of-stream)
+        if (cmdArray.length > 0)
+        {
+            File file = new File(cmdArray[0]);
+            // Only replace if executable is a path to a file, not
+            // an executable in the exec-path
+            if (file.exists())
+                cmdArray[0] = file.getAbsolutePath();
+        }
+
+        // Start the process in the background; the window stays
+        // responsive while the program loads.
+        m_launching = true;
+        Thread launcher = new Thread(new Runnable()
             {
-                File file = new File(cmdArray[0]);
-                // Only replace if executable is a path to a file, not
-                // an executable in the exec-path
-                if (file.exists())
-                    cmdArray[0] = file.getAbsolutePath();
-            }
+                public void run()
+                {
+                    Process proc = null;
+                    Throwable error = null;
+                    try
+                    {
+                        proc = runtime.exec(cmdArray);
+                        //proc = runtime.exec(cmdArray, null, workingDirectory);
+                    }
+                    catch (Throwable e)
+                    {
+                        error = e;
+                    }
+                    final Process started = proc;
+                    final Throwable failure = error;
+                    SwingUtilities.invokeLater(new Runnable()
+                        {
+                            public void run()
+                            {
+                                programStarted(program, started, failure);
+                            }
+                        });
+                }
+            }, "HexGui program launcher");
+        launcher.setDaemon(true);
+        launcher.start();
+    }
 
-            m_white_process = runtime.exec(cmdArray);
-            //m_white_process = runtime.exec(cmdArray, null, workingDirectory);
-            //m_white_process = runtime.exec(cmd);
-	}
-	catch (Throwable e)
+    /** Continues cmdConnectLocalProgram() once the process is
+        started. */
+    private void programStarted(Program program, Process proc,
+                                Throwable error)
+    {
+        m_launching = false;
+        if (error != null)
         {
 	    ShowError.msg(this, "Error starting " + program.m_name + ": '"
-                          + e.getMessage() + "'");
+                          + error.getMessage() + "'");
 	    return;
 	}
+        StartupTimer.mark("program started");
 
+        m_white_process = proc;
         m_program = program;
         m_preferences.put("is-program-attached", true);
 	m_preferences.put("attached-program", program.m_name);
 
- 	Process proc = m_white_process;
-
-	///////////////////////////////
-	/// FIXME: DEBUGING!!! REMOVE!
-	Thread blah = new Thread(new StreamCopy(false, proc.getErrorStream(),
-						System.out, false));
-	blah.start();
-	///////////////////////////////
+        // Keep the program's stderr for the stderr viewer.
+        m_stderr = new StderrCapture(proc.getErrorStream(),
+                               1024 * m_preferences.getInt("stderr-buffer-kb"));
+        Thread capture = new Thread(m_stderr, "HexGui stderr capture");
+        capture.setDaemon(true);
+        capture.start();
 
 	connectProgram(proc.getInputStream(), proc.getOutputStream());
     }
@@ -562,55 +638,103 @@ public final class HexGui
         }
     }
 
+    /** Starts talking to a program. The handshake (name, version,
+        analyze commands) is queued without waiting for the answers;
+        programReady() finishes the connection when they are in. The
+        board size and position are queued right away as well, so
+        they are sent in order with any moves made meanwhile. */
     private void connectProgram(InputStream in, OutputStream out)
     {
-	m_shell = new HtpShell(this, this);
-	m_shell.addWindowListener(new WindowAdapter()
-	    {
-		public void windowClosing(WindowEvent winEvt)
-                {
-		    m_menubar.setShellVisible(false);
-		}
-	    });
-	m_white = new HtpController(in, out, m_shell, this);
+        m_transcript = new ShellTranscript(
+                             m_preferences.getInt("shell-max-lines"));
+        m_parameters = new ParameterState(m_transcript);
+	m_white = new HtpController(in, out, m_parameters, this);
+        m_white_name = null;
+        m_white_version = null;
+        m_analyzeCommands = null;
 
-        // get name and version information; block until
-        // version is returned.  
-
-        acquireSemaphore();
 	htpName();
-	htpVersion();  // releases semaphore when finished. 
-        acquireSemaphore();
-        releaseSemaphore();
+	htpVersion();
+        htpAnalyzeCommands();  // calls programReady() when finished
 
-	m_shell.setTitle("HexGui: [" + m_white_name + " "
-                            + m_white_version + "] Shell");
+	htpBoardsize(m_guiboard.getBoardSize());
 
-        // get list of accepted commands; block until
-        // this is completed.
-        acquireSemaphore();
-        htpAnalyzeCommands();   // releases semaphore when finished
-        acquireSemaphore();
-        releaseSemaphore();
+        // Bring the program to the current node. 
+        htpSync();
+        htpShowboard();
+    }
 
-        createAnalyzeDialog();
+    /** Enables the program commands once the handshake is answered.
+        @param white the controller that was answered; ignored if the
+        program was disconnected meanwhile. */
+    private void programReady(HtpController white)
+    {
+        if (white != m_white)
+            return;
+        StartupTimer.mark("program ready");
+        if (m_shell != null)
+            m_shell.setTitle(getShellTitle());
+
+        openAnalysisStore();
 
 	m_toolbar.setProgramConnected(true);
 	m_menubar.setProgramConnected(true);
 
-	m_shell.setVisible(m_preferences.getBoolean("shell-show-on-connect"));
-	m_analyzeDialog.setVisible(m_preferences.getBoolean("analyze-show-on-connect"));
+        if (m_preferences.getBoolean("shell-show-on-connect"))
+        {
+            showShell(true);
+            m_menubar.setShellVisible(true);
+        }
+        if (m_preferences.getBoolean("analyze-show-on-connect"))
+        {
+            showAnalyzeDialog(true);
+            m_menubar.setAnalyzeVisible(true);
+        }
+        setFrameTitle();
+    }
 
-	htpBoardsize(m_guiboard.getBoardSize());
+    private String getShellTitle()
+    {
+        return "HexGui: [" + m_white_name + " " + m_white_version
+            + "] Shell";
+    }
 
-        // Replay all moves up to the current node. 
-        replayUpToNode(m_current);
-        htpShowboard();
+    /** Shows or hides the shell, creating it when first shown. */
+    private void showShell(boolean visible)
+    {
+        if (m_shell == null)
+        {
+            if (!visible || m_transcript == null)
+                return;
+            m_shell = new HtpShell(this, this, m_transcript);
+            m_shell.setTitle(getShellTitle());
+            m_shell.addWindowListener(new WindowAdapter()
+                {
+                    public void windowClosing(WindowEvent winEvt)
+                    {
+                        m_menubar.setShellVisible(false);
+                    }
+                });
+        }
+        m_shell.setVisible(visible);
+    }
+
+    /** Shows or hides the analyze dialog, creating it when first
+        shown. */
+    private void showAnalyzeDialog(boolean visible)
+    {
+        if (m_analyzeDialog == null)
+        {
+            if (!visible || m_analyzeCommands == null)
+                return;
+            createAnalyzeDialog();
+        }
+        m_analyzeDialog.setVisible(visible);
     }
 
-    // Replay all moves up to the given node. Do this without changing
-    // the current node.
-    private void replayUpToNode(Node node)
+    // Replay all moves up to the given node in the Gui, not HTP. Do
+    // this without changing the current node.
+    private void guiReplayUpToNode(Node node)
     {
         Vector<Node> path = new Vector<Node>();
         while (node != null) {
@@ -618,18 +742,36 @@ public final class HexGui
             node = node.getParent();
         }
         m_guiboard.clearAll();
-        htpClearBoard();
         for (int i = path.size()-1; i>=0; i--) {
             node = path.elementAt(i);
-            if (node.hasMove()) {
-                Move move = node.getMove();
-                guiPlay(move);
+            if (node.hasMove())
+                guiPlay(node.getMove());
+            if (node.hasSetup())
+                guiPlaySetup(node);
+        }
+    }
+
+    /** Bring the program from the node it is at to the current
+        node. Only the moves between the two nodes and their lowest
+        common ancestor are undone and played; if that is not possible
+        or costs more, the position is set up from scratch. The Gui
+        must already show the current node. */
+    private void htpSync()
+    {
+        if (m_white == null || m_htpNode == m_current)
+            return;
+        SyncPlan plan = SyncPlan.compute(m_htpNode, m_current,
+                                         m_guiboard.numberOfPieces() + 1);
+        if (plan.isRebuild())
+            htpSetUpCurrentBoard();
+        else
+        {
+            for (Move move : plan.getUndoMoves())
+                htpUndo(move);
+            for (Move move : plan.getPlayMoves())
                 htpPlay(move);
-            }
-            if (node.hasSetup()) {
-                playSetup(node);
-            }
         }
+        m_htpNode = m_current;
     }
 
     /** Run HTP commands to set up the current board position from
@@ -671,8 +813,12 @@ public final class HexGui
 		m_white_socket = null;
 	    }
 	    m_white = null;
-	    m_shell.dispose();
+            m_htpNode = null;
+            if (m_shell != null)
+                m_shell.dispose();
 	    m_shell = null;
+            m_transcript = null;
+            m_parameters = null;
             actionDisposeAnalyzeDialog();
             m_program = null;
 	    m_menubar.setProgramConnected(false);
@@ -752,6 +898,7 @@ public final class HexGui
 
 	    m_toolbar.updateButtonStates(m_current, this);
             m_menubar.updateMenuStates(this);
+            updateGameTree();
 
             htpBoardsize(m_guiboard.getBoardSize());
             htpShowboard();
@@ -824,8 +971,66 @@ public final class HexGui
         Print.run(this, m_guiboard);
     }
 
+    private void cmdShowStderr()
+    {
+        if (m_stderr == null)
+        {
+            ShowError.msg(this, "No program was started.");
+            return;
+        }
+        IndexedTextViewer viewer
+            = new IndexedTextViewer(this, getStderrTitle(),
+                                    m_stderr.getText(), false, null);
+        viewer.setLocationByPlatform(true);
+        viewer.setVisible(true);
+    }
+
+    private void cmdSaveStderr()
+    {
+        if (m_stderr == null)
+        {
+            ShowError.msg(this, "No program was started.");
+            return;
+        }
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new File("stderr.log"));
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        try
+        {
+            m_stderr.save(fc.getSelectedFile());
+        }
+        catch (IOException e)
+        {
+            ShowError.msg(this, "Could not save stderr: " + e.getMessage());
+        }
+    }
+
+    private String getStderrTitle()
+    {
+        String title = "HexGui: Program Stderr";
+        long dropped = m_stderr.getDroppedBytes();
+        if (dropped > 0)
+            title += " (last " + m_stderr.getLineCount() + " lines, "
+                + dropped / 1024 + " KB dropped)";
+        if (m_stderr.hasEnded())
+            title += " (ended)";
+        return title;
+    }
+
+    private void cmdShowStalls()
+    {
+        TextViewer viewer = new TextViewer(this, "HexGui: EDT Stalls",
+                                           EdtWatchdog.getReport(), false,
+                                           null);
+        viewer.setLocationByPlatform(true);
+        viewer.setVisible(true);
+    }
+
     private void cmdAbout()
     {
+        if (m_about == null)
+            m_about = new AboutDialog(this);
         m_about.setVisible(true);
     }
 
@@ -837,18 +1042,60 @@ public final class HexGui
 	m_toolbar.setVisible(visible);
     }
 
+    private void cmdGuiPerfHudVisible()
+    {
+        boolean visible = m_menubar.getPerfHudVisible();
+        m_statusbar.setHudVisible(visible);
+        m_preferences.put("perf-hud-visible", visible);
+    }
+
     private void cmdGuiShellVisible()
     {
-	if (m_shell == null) return;
-	boolean visible = m_menubar.getShellVisible();
-	m_shell.setVisible(visible);
+	showShell(m_menubar.getShellVisible());
     }
 
     private void cmdGuiAnalyzeVisible()
     {
-	if (m_analyzeDialog == null) return;
-	boolean visible = m_menubar.getAnalyzeVisible();
-	m_analyzeDialog.setVisible(visible);
+	showAnalyzeDialog(m_menubar.getAnalyzeVisible());
+    }
+
+    private void cmdGuiGameTreeVisible()
+    {
+	boolean visible = m_menubar.getGameTreeVisible();
+        if (visible && m_gameTreeDialog == null)
+            createGameTreeDialog();
+        if (m_gameTreeDialog == null) return;
+	m_gameTreeDialog.setVisible(visible);
+        updateGameTree();
+    }
+
+    private void createGameTreeDialog()
+    {
+        m_gameTree = new GameTreePanel(this);
+        m_gameTreeDialog = new JDialog(this, "HexGui: Game Tree");
+        m_gameTreeDialog.getContentPane().add(new JScrollPane(m_gameTree));
+        m_gameTreeDialog.addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    m_menubar.setGameTreeVisible(false);
+                }
+            });
+        m_gameTreeDialog.pack();
+        m_gameTreeDialog.setLocationRelativeTo(this);
+    }
+
+    /** Shows the current tree in the game tree dialog, if visible. */
+    private void updateGameTree()
+    {
+        if (m_gameTreeDialog != null && m_gameTreeDialog.isVisible())
+            m_gameTree.update(m_root, m_current);
+    }
+
+    /** Goes to a node clicked in the game tree. */
+    public void nodeSelected(Node node)
+    {
+        flushNavigation();
+        end_setup();
+        gotoNode(node);
     }
 
     private void cmdGuiBoardDrawType()
@@ -1017,7 +1264,8 @@ public final class HexGui
              cb = new Runnable() { public void run() {cbShowInferiorCells();}};
              break;
         case MOVE:
-            cb = new Runnable() { public void run() { cbGenMove(); } };
+            final int generation = m_htpGeneration.get();
+            cb = new Runnable() { public void run() { cbGenMove(generation); } };
             break;
         case PLIST:
             cb = new Runnable() { public void run() { cbDisplayPointList(); } };
@@ -1047,7 +1295,30 @@ public final class HexGui
         Runnable callback = null;
         if (cb != null)
             callback = new GuiRunnable(cb);
-        sendCommand(cmd + "\n", callback);
+        if (type == AnalyzeType.PARAM)
+            sendCommand(cmd + "\n", callback);
+        else if (type == AnalyzeType.MOVE)
+            sendMoveCommand(cmd + "\n", callback, PRIORITY_ANALYSIS);
+        else
+            sendStoredCommand(cmd + "\n", callback);
+    }
+
+    /** Returns true if the command is in the analysis-store-commands
+        preference: commands whose response depends only on the
+        position, the color to move and the program's parameters, such
+        as solver results. Searches that depend on time, the state of
+        the program's hash tables or earlier commands are not. */
+    private boolean isStoredCommand(String cmd)
+    {
+        String name = cmd.trim();
+        int space = name.indexOf(' ');
+        if (space >= 0)
+            name = name.substring(0, space);
+        for (String stored
+                 : m_preferences.get("analysis-store-commands").split(" "))
+            if (stored.equals(name))
+                return true;
+        return false;
     }
 
     /** HtpShell Callback.
@@ -1084,21 +1355,74 @@ public final class HexGui
         m_locked = false;
     }
 
-    /** A (command, callback) pair. */
+    /** Commands that bring the program to the current position. They
+        run before all other queued commands and make commands queued
+        for earlier positions stale. */
+    private static final int PRIORITY_SYNC = 0;
+
+    /** Commands the user is waiting for (genmove, parameters, shell
+        commands). */
+    private static final int PRIORITY_INTERACTIVE = 1;
+
+    /** Analysis of the current position; dropped or interrupted when
+        the position changes. */
+    private static final int PRIORITY_ANALYSIS = 2;
+
+    /** Generation of commands that do not depend on the position. */
+    private static final int ANY_GENERATION = -1;
+
+    /** A (command, callback) pair, ordered by priority and then by
+        the order the commands were queued in. */
     private class HtpCommand
+        implements Comparable<HtpCommand>
     {
-        public HtpCommand()
+        public HtpCommand(String cmd, Runnable callback, int priority,
+                          int generation)
         {
+            this.str = cmd;
+            this.callback = callback;
+            this.priority = priority;
+            this.generation = generation;
+            this.sequence = m_htpSequence.getAndIncrement();
+            this.queued = System.nanoTime();
+            if (callback instanceof GuiRunnable)
+                ((GuiRunnable)callback).setName(cmd.trim());
         }
 
-        public HtpCommand(String cmd, Runnable callback)
+        /** True if the position has changed since the command was
+            queued. */
+        public boolean isStale()
         {
-            this.str = cmd;
-            this.callback = callback;
+            return generation != ANY_GENERATION
+                && generation != m_htpGeneration.get();
+        }
+
+        public int compareTo(HtpCommand other)
+        {
+            if (priority != other.priority)
+                return priority < other.priority ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
         }
 
         public String str;
         public Runnable callback;
+        public int priority;
+        /** Position generation the command belongs to, or
+            ANY_GENERATION. */
+        public int generation;
+        public long sequence;
+        /** System.nanoTime() when the command was queued. */
+        public long queued;
+        /** Set once an interrupt has been sent for this command. */
+        public volatile boolean interrupted;
+        /** True if the command plays a move in the program. */
+        public boolean playsMove;
+
+        /** Key in the analysis store, or null if the response is not
+            to be stored. */
+        public String storeKey;
+        /** Position hash at the time the command was queued. */
+        public long position;
     }
 
     /** Waits for commands to be added to the queue, then processes
@@ -1108,7 +1432,7 @@ public final class HexGui
     {
 
         public CommandHandler(Component parent, 
-                              ArrayBlockingQueue<HtpCommand> queue)
+                              PriorityBlockingQueue<HtpCommand> queue)
         {
             m_parent = parent;
             m_queue = queue;
@@ -1127,16 +1451,70 @@ public final class HexGui
                 catch(InterruptedException e)
                 {
                     System.out.println("INTERRUPTED! HUH?");
+                    continue;
                 }
+                s_htpQueue.set(m_queue.size());
 
-                if (m_white != null && m_white.connected()) 
+                if (cmd.isStale())
+                {
+                    System.out.println("Dropping stale '" 
+                                       + cmd.str.trim() + "'");
+                }
+                else if (m_white != null && m_white.connected()) 
                 {
                     if (commandNeedsToLockGUI(cmd.str))
                         lockGUI();
                     
+                    FlightEvents.HtpCommand event
+                        = new FlightEvents.HtpCommand();
+                    event.begin();
                     try  {
-                        m_white.sendCommand(cmd.str);
-                        if (cmd.callback != null) {
+                        String stored = null;
+                        if (cmd.storeKey != null && m_analysisStore != null)
+                            stored = m_analysisStore.get(cmd.position,
+                                                         cmd.storeKey);
+                        event.queueWait = System.nanoTime() - cmd.queued;
+                        event.command = getCommandName(cmd.str);
+                        event.sent = cmd.str.length();
+                        if (stored != null) {
+                            event.stored = true;
+                            m_white.useStoredResponse(cmd.str, stored);
+                            event.end();
+                        } else {
+                            m_running = cmd;
+                            long start = System.nanoTime();
+                            try {
+                                m_white.sendCommand(cmd.str);
+                            }
+                            finally {
+                                event.end();
+                                s_htpLatency.record(System.nanoTime() - start);
+                                m_running = null;
+                                // Last gfx of the command goes before
+                                // its callback.
+                                if (cmd.isStale())
+                                    m_gfxPublisher.discard();
+                                else
+                                    m_gfxPublisher.flushLater();
+                            }
+                            // An interrupted search gives a partial
+                            // answer; do not keep it.
+                            if (cmd.storeKey != null 
+                                && m_analysisStore != null
+                                && m_white.wasSuccess()
+                                && !cmd.interrupted && !cmd.isStale())
+                                m_analysisStore.put(cmd.position, 
+                                                    cmd.storeKey,
+                                                    m_white.getResponse());
+                        }
+                        event.success = m_white.wasSuccess();
+                        event.received = m_white.getResponse().length();
+                        if (cmd.isStale()) {
+                            // The sync commands queued meanwhile
+                            // expect the position without the move.
+                            if (cmd.playsMove && m_white.wasSuccess())
+                                takeBackStaleMove(m_white.getResponse());
+                        } else if (cmd.callback != null) {
                             cmd.callback.run();
                         }
                     }
@@ -1145,6 +1523,9 @@ public final class HexGui
                                            + e.getMessage() + "'");
                         ShowError.msg(m_parent, e.getMessage());
                     }
+                    finally {
+                        event.commit();
+                    }
                     
                     if (commandNeedsToLockGUI(cmd.str))
                         unlockGUI();
@@ -1157,22 +1538,163 @@ public final class HexGui
             }
         }
 
+        /** Takes back a move the program played for a position the
+            user has left. Moves that cannot be undone with HTP leave
+            the program's position unknown; it is then set up from
+            scratch. */
+        private void takeBackStaleMove(String response) throws HtpError
+        {
+            HexPoint point = HexPoint.get(response.trim());
+            if (point == null)
+                return;
+            if (point == HexPoint.SWAP_PIECES)
+            {
+                SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            m_htpNode = null;
+                            htpSync();
+                        }
+                    });
+            }
+            else if (SyncPlan.isHtpMove(new Move(point, HexColor.BLACK)))
+                m_white.sendCommand("undo\n");
+        }
+
+        /** Returns the first word of a command. */
+        private String getCommandName(String cmd)
+        {
+            cmd = cmd.trim();
+            int space = cmd.indexOf(' ');
+            return (space < 0) ? cmd : cmd.substring(0, space);
+        }
+
         Component m_parent;
-        ArrayBlockingQueue<HtpCommand> m_queue;
+        PriorityBlockingQueue<HtpCommand> m_queue;
     }
 
+    /** Adds a command to the queue of the command handler. */
+    private void queueCommand(HtpCommand command)
+    {
+        m_htp_queue.put(command);
+        s_htpQueue.set(m_htp_queue.size());
+    }
+
+    /** Queues a command that does not depend on the position. */
     private void sendCommand(String cmd, Runnable callback)
     {
 	if (m_white == null)
 	    return;
+        System.out.println("sendCommand: '" + cmd.trim() + "'");
+        queueCommand(new HtpCommand(cmd, callback, PRIORITY_INTERACTIVE,
+                                    ANY_GENERATION));
+    }
+
+    /** Queues a command that changes the program's position. Queued
+        commands for the previous position become stale, and an
+        analysis command that is running is interrupted. */
+    private void sendSyncCommand(String cmd, Runnable callback)
+    {
+	if (m_white == null)
+	    return;
+        int generation = m_htpGeneration.incrementAndGet();
+        m_gfxPublisher.discard();
+        HtpCommand running = m_running;
+        if (running != null && running.priority == PRIORITY_ANALYSIS
+            && !running.interrupted)
+        {
+            running.interrupted = true;
+            m_white.interrupt();
+        }
+        System.out.println("sendSyncCommand: '" + cmd.trim() + "'");
+        queueCommand(new HtpCommand(cmd, callback, PRIORITY_SYNC,
+                                    generation));
+    }
+
+    /** Queues an analysis of the current position. It is dropped if
+        the position changes before it runs. */
+    private void sendAnalysisCommand(String cmd, Runnable callback)
+    {
+	if (m_white == null)
+	    return;
+        System.out.println("sendAnalysisCommand: '" + cmd.trim() + "'");
+        queueCommand(new HtpCommand(cmd, callback, PRIORITY_ANALYSIS,
+                                    m_htpGeneration.get()));
+    }
+
+    /** Queues a command that makes the program play a move in the
+        current position. If the position changes while the command
+        runs, the move is not played in the Gui and is taken back in
+        the program. */
+    private void sendMoveCommand(String cmd, Runnable callback,
+                                 int priority)
+    {
+	if (m_white == null)
+	    return;
+        System.out.println("sendMoveCommand: '" + cmd.trim() + "'");
+        HtpCommand command = new HtpCommand(cmd, callback, priority,
+                                            m_htpGeneration.get());
+        command.playsMove = true;
+        queueCommand(command);
+    }
+
+    /** Like sendAnalysisCommand(), but for a command allowed by
+        isStoredCommand() the response is taken from the analysis
+        store if the command was already answered in the same
+        position, with the same color to move, by the same program with
+        the same parameters, and saved to the store otherwise. */
+    private void sendStoredCommand(String cmd, Runnable callback)
+    {
+        if (m_white == null)
+            return;
+        if (m_analysisStore == null || !isStoredCommand(cmd))
+        {
+            sendAnalysisCommand(cmd, callback);
+            return;
+        }
+        HtpCommand command = new HtpCommand(cmd, callback, PRIORITY_ANALYSIS,
+                                            m_htpGeneration.get());
+        command.storeKey = m_white_name + " " + m_white_version + "\n"
+            + Long.toHexString(m_parameters.getHash()) + " " + m_tomove
+            + (hasSetup(m_current) ? " setup" : "") + "\n"
+            + cmd.trim();
+        command.position = m_guiboard.getPositionHash();
+        System.out.println("sendStoredCommand: '" + cmd.trim() + "'");
+        queueCommand(command);
+    }
+
+    /** Returns true if the node or one of its ancestors has setup
+        stones; the program then got the position from scratch
+        instead of the moves of the game. */
+    private static boolean hasSetup(Node node)
+    {
+        for (; node != null; node = node.getParent())
+            if (node.hasSetup())
+                return true;
+        return false;
+    }
 
-        try {
-            System.out.println("sendCommand: '" + cmd.trim() + "'");
-            m_htp_queue.put(new HtpCommand(cmd, callback));
+    /** Opens the analysis store in the user's HexGui directory, if
+        enabled and not already open. */
+    private void openAnalysisStore()
+    {
+        if (m_analysisStore != null 
+            || !m_preferences.getBoolean("analysis-store-enabled"))
+            return;
+        File dir = new File(System.getProperty("user.home"), ".hexgui");
+        long maxBytes = 1024L * 1024L 
+            * m_preferences.getInt("analysis-store-max-mb");
+        try
+        {
+            m_analysisStore = new AnalysisStore(dir, maxBytes);
+            System.out.println("Analysis store: " + m_analysisStore.size()
+                               + " entries.");
         }
-        catch (InterruptedException e)
+        catch (IOException e)
         {
-            System.out.println("Interrupted while adding!");
+            System.out.println("Could not open analysis store: "
+                               + e.getMessage());
         }
     }
 
@@ -1203,7 +1725,7 @@ public final class HexGui
 
     private void htpClearBoard()
     {
-        sendCommand("clear_board\n", null);
+        sendSyncCommand("clear_board\n", null);
     }
     
     private void htpShowboard()
@@ -1231,7 +1753,7 @@ public final class HexGui
             htpSetUpCurrentBoard();
             return;
         }
-	sendCommand("play " + move.getColor().toString() +
+	sendSyncCommand("play " + move.getColor().toString() +
 		    " " + move.getPoint().toString() + "\n", null);
     }
 
@@ -1244,7 +1766,7 @@ public final class HexGui
             || move.getPoint() == HexPoint.PASS) {
             return;
         }
-	sendCommand("undo\n", null);
+	sendSyncCommand("undo\n", null);
     }
 
     private void htpGenMove(HexColor color)
@@ -1252,11 +1774,13 @@ public final class HexGui
         if (! checkBoardSizeSupported())
             return;
         m_statusbar.setMessage(format("{0} is thinking...", m_white_name));
+        final int generation = m_htpGeneration.get();
 	Runnable callback = new GuiRunnable(new Runnable()
 	    {
-		public void run() { cbGenMove(); }
+		public void run() { cbGenMove(generation); }
 	    });
- 	sendCommand("genmove " + color.toString() + "\n", callback);
+ 	sendMoveCommand("genmove " + color.toString() + "\n", callback,
+                        PRIORITY_INTERACTIVE);
     }
 
     private void htpBoardsize(Dimension size)
@@ -1268,8 +1792,11 @@ public final class HexGui
                     checkBoardSizeSupported();
                 }
 	    };
-        sendCommand("boardsize " + size.width + " " + size.height + "\n",
-                    callback);
+        sendSyncCommand("boardsize " + size.width + " " + size.height + "\n",
+                        callback);
+        // The program now has an empty board, which is the root
+        // position unless the root contains setup stones.
+        m_htpNode = m_root.hasSetup() ? null : m_root;
         m_statusbar.setMessage("New game");
     }
     
@@ -1288,7 +1815,6 @@ public final class HexGui
 	String str = m_white.getResponse();
 	// FIXME: handle errors!
 	m_white_version = str.trim();
-        releaseSemaphore();
     }
 
     private void cbAnalyzeCommands()
@@ -1303,13 +1829,34 @@ public final class HexGui
         {
             ShowError.msg(this, "Could not parse analyze commands!");
         }
-        releaseSemaphore();
+        final HtpController white = m_white;
+        SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    programReady(white);
+                }
+            });
     }
 
-    public void cbGenMove()
+    /** @param generation the position generation the move was asked
+        for in. */
+    public void cbGenMove(int generation)
     {
         if (!m_white.wasSuccess())
             return;
+        // The command handler checks this before running the
+        // callback, but the position may have changed since, with
+        // sync commands queued for a program without the move.
+        // Set the program up again instead of playing the move.
+        if (generation != m_htpGeneration.get())
+        {
+            System.out.println("Dropping stale move '"
+                               + m_white.getResponse().trim() + "'");
+            m_htpNode = null;
+            htpSync();
+            return;
+        }
         m_guiboard.clearMarks();
 	String str = m_white.getResponse();
 	HexPoint point = HexPoint.get(str.trim());
@@ -1319,7 +1866,14 @@ public final class HexGui
 	}
         else
         {
+            // The program has already played the move; if the Gui
+            // rejects it the program's position is no longer known.
+            Node parent = m_current;
 	    play(new Move(point, m_tomove));
+            if (m_current != parent && m_htpNode == parent)
+                m_htpNode = m_current;
+            else if (m_current == parent)
+                m_htpNode = null;
 	}
     }
 
@@ -1328,13 +1882,9 @@ public final class HexGui
 	if (!m_white.wasSuccess())
 	    return;
 	String str = m_white.getResponse();
-	Vector<HexPoint> points = StringUtils.parsePointList(str);
+	ArrayList<HexPoint> points = StringUtils.parsePointList(str);
         m_guiboard.clearMarks();
-        for (int i=0; i<points.size(); i++)
-        {
-	    m_guiboard.setAlphaColor(points.get(i), Color.green);
-	}
-	m_guiboard.repaint();
+        m_guiboard.setAlphaColors(points, Color.green);
     }
 
     private void cbDfpnDisplayBounds()
@@ -1342,8 +1892,9 @@ public final class HexGui
 	if (!m_white.wasSuccess()) 
 	    return;
 	String str = m_white.getResponse();
-        showDfpnBounds(str);
-	m_guiboard.repaint();
+        BoardOverlay overlay = new BoardOverlay();
+        new GfxParser().parseBounds(str, overlay);
+        showOverlay(overlay);
     }
 
     public void cbGroupGet()
@@ -1351,69 +1902,50 @@ public final class HexGui
         if (!m_white.wasSuccess())
 	    return;
 	String str = m_white.getResponse();
-	Vector<HexPoint> points = StringUtils.parsePointList(str);
+	ArrayList<HexPoint> points = StringUtils.parsePointList(str);
         m_guiboard.clearMarks();
         if (points.size() > 0)
         {
+            m_guiboard.setAlphaColors(points, Color.green);
             m_guiboard.setAlphaColor(points.get(0), Color.blue);
-            for (int i=1; i<points.size(); i++)
-            {
-                m_guiboard.setAlphaColor(points.get(i), Color.green);
-            }
         }
-	m_guiboard.repaint();
     }
 
     public void cbGfx()
     {
 	if (!m_white.wasSuccess())
 	    return;
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-        
-        String fx = m_white.getResponse();
-        int inf = fx.indexOf("INFLUENCE");
-        if (inf < 0)
-            return;
-        boolean hasText = false;
-        int text = fx.indexOf("TEXT");
-        if (text < 0)
-            text = fx.length();
-        else {
-            hasText = true;
+        // The values go through the heatmap colors of the drawer, like
+        // those of gogui-gfx, instead of a Color per point.
+        BoardOverlay overlay = new BoardOverlay();
+        try
+        {
+            if (!new GfxParser().parseInfluenceMap(m_white.getResponse(),
+                                                   overlay))
+                overlay.clear();
         }
-        
-        Vector<Pair<String, String> > pairs =
-            StringUtils.parseStringPairList(fx.substring(inf + 10, text));
-        for (int i=0; i<pairs.size(); i++)
+        catch (IllegalArgumentException e)
         {
-	    HexPoint point = HexPoint.get(pairs.get(i).first);
-            String value = pairs.get(i).second;
-            float v = Float.parseFloat(value);
-            m_guiboard.setAlphaColor(point, new Color(0, v, 1-v), 0.7f);
-	}
-        if (hasText)
-            m_statusbar.setMessage(fx.substring(text+5));
-	m_guiboard.repaint();
+            System.out.println("Invalid gfx response: " + e.getMessage());
+            overlay.clear();
+        }
+        showOverlay(overlay);
     }
 
     public void cbShowInferiorCells()
     {
 	if (!m_white.wasSuccess()) 
 	    return;
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-        showInferiorCells(m_white.getResponse());
-	m_guiboard.repaint();
+        BoardOverlay overlay = new BoardOverlay();
+        new GfxParser().parseInferiorCells(m_white.getResponse(), overlay);
+        showOverlay(overlay);
     }
 
     public void cbVCs()
     {
 	if (!m_white.wasSuccess()) 
             return;
-        String str = m_white.getResponse();
-        Vector<VC> vcs = StringUtils.parseVCList(str);
-        new VCDisplayDialog(this, m_guiboard, vcs);
+        new VCDisplayDialog(this, m_guiboard, m_white.getResponse());
     }
 
     public void cbString()
@@ -1444,7 +1976,7 @@ public final class HexGui
         if (!m_white.wasSuccess())
             return;
         String str = m_white.getResponse();
-        Vector<HexPoint> points = StringUtils.parsePointList(str, " ");
+        ArrayList<HexPoint> points = StringUtils.parsePointList(str);
         m_guiboard.clearMarks();
         m_guiboard.aboutToDirtyStones();
         HexColor color = m_tomove;
@@ -1462,7 +1994,7 @@ public final class HexGui
 	if (!m_white.wasSuccess()) 
             return;
 	String str = m_white.getResponse();
-        Vector<Pair<String, String> > pairs =
+        ArrayList<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
         m_guiboard.clearMarks();
         for (int i=0; i<pairs.size(); i++)
@@ -1479,7 +2011,7 @@ public final class HexGui
 	if (!m_white.wasSuccess()) 
             return;
 	String str = m_white.getResponse();
-        Vector<Pair<String, String> > pairs =
+        ArrayList<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
         m_guiboard.clearMarks();
         for (int i=0; i<pairs.size(); i++)
@@ -1500,7 +2032,7 @@ public final class HexGui
 	if (!m_white.wasSuccess()) 
             return;
 	String str = m_white.getResponse();
-        Vector<Pair<String, String> > pairs =
+        ArrayList<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
         String res = "";
         String rew = "";
@@ -1557,272 +2089,54 @@ public final class HexGui
     public void guifx(String fx)
     {
         System.out.println("gogui-gfx:\n'" + fx + "'");
-        
-        if (fx.length() > 3 && fx.substring(0, 3).equals("uct"))
-            guifx_uct(fx.substring(3));
-        else if (fx.length() > 2 && fx.substring(0, 2).equals("ab"))
-            guifx_ab(fx.substring(2));
-        else if (fx.length() > 4 && fx.substring(0, 4).equals("dfpn"))
-            guifx_dfpn(fx.substring(4));
-        else if (fx.length() > 6 && fx.substring(0, 6).equals("solver"))
-            guifx_solver(fx.substring(6));
-    }
+        FlightEvents.Gfx event = new FlightEvents.Gfx();
+        event.begin();
+        event.size = fx.length();
 
-    private void guifx_uct(String fx)
-    {
-        String[] tk = fx.trim().split(" ");
-        int i=0;
-
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-
-        /** @todo Fix this to parse like guifx_ab() and
-            guifx_solver(). */
-
-        //////////////////////////////////////
-        // display variation
-        for (; i < tk.length; ++i) 
+        // Output of a search for a position the user has left.
+        HtpCommand running = m_running;
+        if (running != null && running.isStale())
         {
-            String s = tk[i].trim();
-            if (s.equals("VAR"))
-                break;
-        }
-        if (i == tk.length) 
+            event.commit();
             return;
-        ++i; // skip "VAR";
-
-        Vector<HexPoint> var = new Vector<HexPoint>();
-        Vector<HexColor> col = new Vector<HexColor>();
-        for (; i < tk.length; ) 
-        {
-            String s = tk[i].trim();
-            if (s.equals("INFLUENCE"))
-                break;
-            ++i; // skip 'B' and 'W'
-
-            col.add((s.charAt(0) == 'B') ? HexColor.BLACK : HexColor.WHITE);
-            HexPoint point = HexPoint.get(tk[i++].trim());
-            var.add(point);
-        }
-        
-        m_guiboard.setColor(var.get(0), col.get(0));
-        m_guiboard.setAlphaColor(var.get(0), Color.cyan);
-        if (var.size() > 1)
-        {
-            m_guiboard.setColor(var.get(1), col.get(1));
-            m_guiboard.setAlphaColor(var.get(1), Color.blue);
         }
-
-        /////////////////////////////////////////
-        // display score/search counts
         
-        TreeMap<HexPoint, String> map = new TreeMap<HexPoint, String>();
-
-        ++i; // skip 'INFLUENCE'
-        for (; i<tk.length; ) {
-            String s = tk[i].trim();
-            if (s.equals("LABEL"))
-                break;
-
-            HexPoint point = HexPoint.get(tk[i++].trim());
-            String score = tk[i++].trim();
-            map.put(point, score);
-            if (score.equals("W"))
-                m_guiboard.setAlphaColor(point, Color.green);
-            else if (score.equals("L"))
-                m_guiboard.setAlphaColor(point, Color.red);
-        }
-
-        ++i; // skip "LABEL";
-        for (; i<tk.length; ) {
-            String s = tk[i].trim();
-            if (s.equals("TEXT"))
-                break;
-
-            HexPoint point = HexPoint.get(tk[i++].trim());
-            
-            String old = map.get(point);
-            if (old == null) old = "";
-            map.put(point, old+"@"+tk[i++].trim());
-        }
-        
-	Iterator<Map.Entry<HexPoint,String> > it = map.entrySet().iterator();
-	while(it.hasNext()) {
-	    Map.Entry<HexPoint,String> e = it.next();
-            m_guiboard.setText(e.getKey(), e.getValue());
-	}
-
-        m_guiboard.repaint();
-        m_statusbar.setMessage(fx.substring(fx.indexOf("TEXT")+5));
-    }
-
-    private void guifx_ab(String fx)
-    {
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-
-        int var = fx.indexOf("VAR");
-        int label = fx.indexOf("LABEL");
-        int text = fx.indexOf("TEXT");
-
-        Vector<Pair<HexColor, HexPoint> > vr 
-            =  StringUtils.parseVariation(fx.substring(var+3, label));
-        if (vr.size() > 0)
-        {
-            m_guiboard.setColor(vr.get(0).second, vr.get(0).first);
-            m_guiboard.setAlphaColor(vr.get(0).second, Color.green);
-            if (vr.size() >= 2) 
-            {
-                m_guiboard.setColor(vr.get(1).second, vr.get(1).first);
-                m_guiboard.setAlphaColor(vr.get(1).second, Color.red);
-            }
-        }
-        String label_str = fx.substring(label+5, text).trim();
-        Vector<Pair<String, String> > labels =
-            StringUtils.parseStringPairList(label_str);
-        for (int i = 0; i < labels.size(); ++i) 
+        // Runs on the command handler thread: build the overlay here
+        // and leave the board to the event thread.
+        BoardOverlay overlay = m_gfxPublisher.obtain();
+        boolean parsed;
+        try
         {
-            HexPoint pt = HexPoint.get(labels.get(i).first);
-            m_guiboard.setText(pt, labels.get(i).second);
+            parsed = m_gfxParser.parse(fx, overlay);
         }
-        m_guiboard.repaint();
-        m_statusbar.setMessage(fx.substring(text+5));
-    }
-
-    private void guifx_solver(String fx)
-    {
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-        m_statusbar.setProgressVisible(true);
-
-        int var = fx.indexOf("VAR");
-        int label = fx.indexOf("LABEL");
-        int text = fx.indexOf("TEXT");
-
-        Vector<Pair<HexColor, HexPoint> > vr 
-            =  StringUtils.parseVariation(fx.substring(var+3, label));
-        for (int i = 0; i < vr.size(); ++i) 
+        catch (IllegalArgumentException e)
         {
-            m_guiboard.setColor(vr.get(i).second, vr.get(i).first);
-            m_guiboard.setText(vr.get(i).second, Integer.toString(i+1));
+            // Must not end the command handler thread, which is still
+            // reading the response.
+            System.out.println("Invalid gogui-gfx: " + e.getMessage());
+            parsed = false;
         }
-
-        String label_str = fx.substring(label+5, text).trim();
-        showInferiorCells(label_str);
-    
-        String prog_str = fx.substring(text+4).trim();
-        String[] levels = prog_str.split(" ");
-
-        double contribution = 1.0;
-        double progress = 0.0;
-        for (int i = 0; i < levels.length; ++i)
+        if (parsed)
         {
-            String[] nums = levels[i].trim().split("/");
-            int cur = Integer.decode(nums[0]).intValue();
-            int max = Integer.decode(nums[1]).intValue();
-            progress += contribution*cur/max;
-            contribution *= 1.0/max;
+            m_gfxPublisher.publish(overlay);
+            event.published = true;
         }
-        m_guiboard.repaint();
-        m_statusbar.setMessage(fx.substring(text+5));
-        m_statusbar.setProgress(progress);
+        else
+            m_gfxPublisher.recycle(overlay);
+        event.commit();
     }
 
-    private void guifx_dfpn(String fx)
+    /** GfxPublisher callback. */
+    public BoardOverlay showOverlay(BoardOverlay overlay)
     {
-        m_guiboard.clearMarks();
-        m_guiboard.aboutToDirtyStones();
-
-        int var = fx.indexOf("VAR");
-        int label = fx.indexOf("LABEL");
-        int text = fx.indexOf("TEXT");
-
-        Vector<Pair<HexColor, HexPoint> > vr 
-            =  StringUtils.parseVariation(fx.substring(var+3, label));
-        for (int i = 0; i < vr.size(); ++i) 
+        if (overlay.getMessage() != null)
+            m_statusbar.setMessage(overlay.getMessage());
+        if (overlay.getProgress() >= 0)
         {
-            m_guiboard.setColor(vr.get(i).second, vr.get(i).first);
-            m_guiboard.setText(vr.get(i).second, Integer.toString(i+1));
-            m_guiboard.setAlphaColor(vr.get(i).second, Color.blue);
+            m_statusbar.setProgressVisible(true);
+            m_statusbar.setProgress(overlay.getProgress());
         }
-        String label_str = fx.substring(label+5, text).trim();
-        showDfpnBounds(label_str);
-
-        m_guiboard.repaint();
-        m_statusbar.setMessage(fx.substring(text+5));
-    }
-
-    private void showDfpnBounds(String str)
-    {
-        Vector<Pair<String, String> > pairs =
-            StringUtils.parseStringPairList(str);
-        for (int i = 0; i < pairs.size(); i++)
-        {
-	    HexPoint point = HexPoint.get(pairs.get(i).first);
-            String value = pairs.get(i).second;
-            m_guiboard.setText(point, value);
-            if (value.trim().equals("W"))
-                m_guiboard.setAlphaColor(point, Color.green);
-            else if (value.trim().equals("L"))
-                m_guiboard.setAlphaColor(point, Color.red);
-        }    
-    }
-
-    /** Draws the inferior cells to the gui board. */
-    private void showInferiorCells(String str)
-    {
-        Vector<Pair<String, String> > pairs =
-            StringUtils.parseStringPairList(str);
-        for (int i = 0; i < pairs.size(); i++)
-        {
-	    HexPoint point = HexPoint.get(pairs.get(i).first);
-            String value = pairs.get(i).second;
-
-            if (value.charAt(0) == 'f')        // fill-in
-            {
-                assert(3 == value.length());
-                if (value.charAt(1) == 'd')          // dead
-                    m_guiboard.setAlphaColor(point, Color.cyan);
-                else if (value.charAt(1) == 'p')     // permanently inferior
-                    m_guiboard.setAlphaColor(point, Color.gray);
-                else                                 // captured
-                {
-                    assert(value.charAt(1) == 'c');
-                    m_guiboard.setAlphaColor(point, Color.red);
-                }
-                if (value.charAt(2) == 'b')
-                    m_guiboard.setColor(point, HexColor.BLACK);
-                else
-                {
-                    assert(value.charAt(2) == 'w');
-                    m_guiboard.setColor(point, HexColor.WHITE);
-                }
-            }
-            else if (value.charAt(0) == 'i')   // ignorable
-            {
-                assert(4 <= value.length());
-                if (value.charAt(1) == 'v')          // vulnerable
-                    m_guiboard.setAlphaColor(point, Color.green);
-                else if (value.charAt(1) == 'r')     // reversible
-                    m_guiboard.setAlphaColor(point, Color.magenta);
-                else                                 // dominated
-                {
-                    assert(value.charAt(1) == 'd');
-                    m_guiboard.setAlphaColor(point, Color.yellow);
-                }
-                assert(value.charAt(2) == '[' &&
-                       value.charAt(value.length()-1) == ']');
-                String pts = value.substring(3, value.length()-1);
-                Vector<HexPoint> pp = StringUtils.parsePointList(pts,"-");
-                for (int j=0; j<pp.size(); ++j)
-                    m_guiboard.addArrow(point, pp.get(j));
-            }
-            else                               // not in consider set
-            {
-                assert(value.charAt(0) == 'x');
-                m_guiboard.setAlphaColor(point, Color.gray);
-            }
-	}
+        return m_guiboard.showOverlay(overlay);
     }
 
     //------------------------------------------------------------
@@ -1847,6 +2161,7 @@ public final class HexGui
     */
     public void fieldClicked(HexPoint point, boolean ctrl, boolean shift)
     {
+        flushNavigation();
         // do not modify the board in any way if an htp command is in progress!
         if (m_locked) {
             m_statusbar.setMessage("Board is locked until HTP command is completed.");
@@ -1945,7 +2260,7 @@ public final class HexGui
     public void humanMove(Move move)
     {
 	play(move);
-	htpPlay(move);
+	htpSync();
         htpShowboard();
         if (! m_guiboard.isBoardFull()
             && m_preferences.getBoolean("auto-respond")
@@ -2056,6 +2371,7 @@ public final class HexGui
                                + move.getColor().toString() + " " 
                                + move.getPoint().toString());
         setComment(m_current);
+        updateGameTree();
 
 	setFrameTitle();
 
@@ -2103,7 +2419,7 @@ public final class HexGui
         m_guiboard.paintImmediately();
 
         htpSetUpCurrentBoard();
-        htpShowboard();
+        m_htpNode = m_current;
 
         setFrameTitle();
         m_current.markRecent();
@@ -2151,19 +2467,14 @@ public final class HexGui
         }
     }
 
-    private void playSetup(Node node)
-    {
-        guiPlaySetup(node);
-        htpSetUpCurrentBoard();
-    }
-
-    // Undo the setup moves of the given node. Since the setup moves
-    // don't contain enough information to know the previous state
-    // (they can involve deleting pieces or recoloring pieces), we do
-    // this by replaying all moves up to the node's parent.
-    private void undoSetup(Node node)
+    // Undo the setup moves of the given node in the Gui. Since the
+    // setup moves don't contain enough information to know the
+    // previous state (they can involve deleting pieces or recoloring
+    // pieces), we do this by replaying all moves up to the node's
+    // parent.
+    private void guiUndoSetup(Node node)
     {
-        replayUpToNode(node.getParent());
+        guiReplayUpToNode(node.getParent());
     }
 
     // Play the given node in the Gui, not HTP.
@@ -2177,9 +2488,6 @@ public final class HexGui
             if (move.getPoint() == HexPoint.SWAP_PIECES) {
                 m_guiboard.swapPieces();
             }
-            m_statusbar.setMessage(node.getDepth() + " "
-                                   + move.getColor().toString() + " "
-                                   + move.getPoint().toString());
         }
         if (node.hasSetup())
         {
@@ -2187,29 +2495,8 @@ public final class HexGui
         }
     }
 
-    // Play the given node in the Gui and HTP. For HTP, setup moves
-    // and swap-pieces moves are special cases, as they aren't in
-    // general supported by HTP. So we rebuild the board from scratch
-    // in these cases.
-    private void playNode(Node node)
-    {
-        guiPlayNode(node);
-        if (node.hasMove())
-        {
-            Move move = node.getMove();
-            if (move.getPoint() == HexPoint.SWAP_PIECES) {
-                htpSetUpCurrentBoard();
-            } else {
-                htpPlay(move);
-            }
-        }
-        if (node.hasSetup())
-        {
-            htpSetUpCurrentBoard();
-        }
-    }
-
-    private void undoNode(Node node)
+    // Undo the given node in the Gui, not HTP.
+    private void guiUndoNode(Node node)
     {
         if (node.hasMove())
         {
@@ -2222,16 +2509,10 @@ public final class HexGui
             } else {
                 m_guiboard.setColor(move.getPoint(), HexColor.EMPTY);
             }
-            if (move.getPoint() == HexPoint.SWAP_PIECES) {
-                replayUpToNode(node.getParent());
-            } else {
-                htpUndo(move);
-            }
         }
         if (node.hasSetup())
         {
-            undoSetup(node);
-            m_statusbar.setMessage("Undo setup stones");
+            guiUndoSetup(node);
         }
     }
 
@@ -2259,7 +2540,9 @@ public final class HexGui
             displayLabels(m_current);
         if (m_current.hasCount())
             System.out.println("Count: " + m_current.getCount());
+        updateGameTree();
         determineColorToMove();
+        htpSync();
         htpShowboard();
     }
 
@@ -2269,65 +2552,158 @@ public final class HexGui
         m_toolbar.deselectSetup();
     }
     
-    /** Forward by n moves, or to the very end if n == -1 */
-    private void forward(int n)
+    /** Move n moves forward (n > 0) or backward (n < 0). Steps
+        requested in quick succession, such as key repeats, are added
+        up and carried out together once the events already queued
+        have been handled. */
+    private void navigate(int n)
+    {
+        m_pendingSteps += n;
+        if (m_navigationScheduled)
+            return;
+        m_navigationScheduled = true;
+        SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run() { flushNavigation(); }
+            });
+    }
+
+    /** Carry out the steps collected by navigate(). */
+    private void flushNavigation()
     {
-        m_guiboard.clearMarks();
+        m_navigationScheduled = false;
+        int n = m_pendingSteps;
+        m_pendingSteps = 0;
+        if (n > 0)
+            forward(n);
+        else if (n < 0)
+            backward(-n);
+    }
 
-	for (int i=0; i<n || n == -1; ++i)
+    /** Forward by n moves, or to the very end if n == -1. The board
+        is repainted and the program synced once, at the end. */
+    private void forward(int n)
+    {
+        m_guiboard.beginBatch();
+        try
         {
-	    Node child = m_current.getRecentChild();
-	    if (child == null) break;
+            m_guiboard.clearMarks();
+            for (int i=0; i<n || n == -1; ++i)
+            {
+                Node child = m_current.getRecentChild();
+                if (child == null) break;
 
-            playNode(child);
-            m_current = child;
-	}
-        stopClock();
-        refreshGuiForBoardState();
+                guiPlayNode(child);
+                m_current = child;
+            }
+            stopClock();
+            refreshGuiForBoardState();
+        }
+        finally
+        {
+            m_guiboard.endBatch();
+        }
     }
 
-    /** Rewind by n moves, or to the very start if n == -1 */
+    /** Rewind by n moves, or to the very start if n == -1. The board
+        is repainted and the program synced once, at the end. */
     private void backward(int n)
     {
-        m_guiboard.clearMarks();
-
-	for (int i=0; i<n || n == -1; ++i)
+        m_guiboard.beginBatch();
+        try
         {
-	    if (m_current == m_root) break;
+            m_guiboard.clearMarks();
+            for (int i=0; i<n || n == -1; ++i)
+            {
+                if (m_current == m_root) break;
 
-            undoNode(m_current);
-	    m_current = m_current.getParent();
-	}
-        stopClock();
-        refreshGuiForBoardState();
+                guiUndoNode(m_current);
+                m_current = m_current.getParent();
+            }
+            stopClock();
+            refreshGuiForBoardState();
+        }
+        finally
+        {
+            m_guiboard.endBatch();
+        }
     }
 
     private void down()
     {
 	if (m_current.getNext() != null)
+            gotoSibling(m_current.getNext());
+    }
+
+    private void up()
+    {
+	if (m_current.getPrev() != null)
+            gotoSibling(m_current.getPrev());
+    }
+
+    private void gotoSibling(Node sibling)
+    {
+        m_guiboard.beginBatch();
+        try
         {
             m_guiboard.clearMarks();
-            undoNode(m_current);
-            m_current = m_current.getNext();
-            playNode(m_current);
+            guiUndoNode(m_current);
+            m_current = sibling;
+            guiPlayNode(m_current);
 
             stopClock();
             refreshGuiForBoardState();
-	}
+        }
+        finally
+        {
+            m_guiboard.endBatch();
+        }
     }
 
-    private void up()
+    /** Goes to any node of the tree. Only the nodes between the
+        current node and the common ancestor of the two are undone and
+        played. */
+    private void gotoNode(Node node)
     {
-	if (m_current.getPrev() != null)
+        if (node == m_current)
+            return;
+        Vector<Node> path = new Vector<Node>();
+        Node target = node;
+        Node cur = m_current;
+        int targetDepth = target.getDepth();
+        int curDepth = cur.getDepth();
+        m_guiboard.beginBatch();
+        try
         {
             m_guiboard.clearMarks();
-            undoNode(m_current);
-	    m_current = m_current.getPrev();
-            playNode(m_current);
+            for (; curDepth > targetDepth; --curDepth)
+            {
+                guiUndoNode(cur);
+                cur = cur.getParent();
+            }
+            for (; targetDepth > curDepth; --targetDepth)
+            {
+                path.add(target);
+                target = target.getParent();
+            }
+            while (cur != target)
+            {
+                guiUndoNode(cur);
+                cur = cur.getParent();
+                path.add(target);
+                target = target.getParent();
+            }
+            for (int i = path.size() - 1; i >= 0; --i)
+                guiPlayNode(path.get(i));
+            m_current = node;
 
-            stopClock();            
+            stopClock();
             refreshGuiForBoardState();
-	}
+        }
+        finally
+        {
+            m_guiboard.endBatch();
+        }
     }
 
     private void cmdDeleteBranch()
@@ -2346,6 +2722,7 @@ public final class HexGui
 	m_toolbar.updateButtonStates(m_current, this);
         m_menubar.updateMenuStates(this);
         setFrameTitle();
+        updateGameTree();
     }
 
     private void cmdMoveBranchTop()
@@ -2433,7 +2810,7 @@ public final class HexGui
 	if (m_file != null) filename = m_file.getName();
 	if (gameChanged()) filename = filename + "*";
 	String name = "HexGui " + Version.id;
-	if (m_white != null)
+	if (m_white != null && m_white_version != null)
 	    name += " - [" + m_white_name + " " + m_white_version + "]";
 	setTitle(name + " - " + filename);
     }
@@ -2486,6 +2863,9 @@ public final class HexGui
 
     private boolean save_tree(File file, Node root, GameInfo gameinfo)
     {
+        FlightEvents.SgfSave event = new FlightEvents.SgfSave();
+        event.begin();
+        event.file = file.getPath();
 	FileOutputStream out;
 	try
         {
@@ -2493,17 +2873,25 @@ public final class HexGui
 	}
 	catch (FileNotFoundException e)
         {
+            event.commit();
 	    ShowError.msg(this, "File not found!");
 	    return false;
 	}
 
 	new SgfWriter(out, root, gameinfo);
+        event.size = file.length();
+        event.success = true;
+        event.commit();
 	return true;
     }
 
     /* Load game from file. */
     private SgfReader load(File file)
     {
+        FlightEvents.SgfLoad event = new FlightEvents.SgfLoad();
+        event.begin();
+        event.file = file.getPath();
+        event.size = file.length();
 	FileInputStream in;
 	try
         {
@@ -2511,6 +2899,7 @@ public final class HexGui
 	}
 	catch(FileNotFoundException e)
         {
+            event.commit();
 	    ShowError.msg(this, "File not found!");
 	    return null;
 	}
@@ -2522,10 +2911,13 @@ public final class HexGui
 	}
 	catch (SgfReader.SgfError e)
         {
+            event.commit();
 	    ShowError.msg(this, "Error reading SGF file:\n \"" +
                           e.getMessage() + "\"");
 	    return null;
 	}
+        event.success = true;
+        event.commit();
 	return sgf;
     }
 
@@ -2558,23 +2950,6 @@ public final class HexGui
 
     //------------------------------------------------------------
     
-    private void acquireSemaphore()
-    {
-        try {
-            m_semaphore.acquire();
-        }
-        catch(InterruptedException e) {
-            System.out.println("Acquire interrupted!");
-        }
-    }
-
-    private void releaseSemaphore()
-    {
-        m_semaphore.release();
-    }
-
-    //------------------------------------------------------------
-
     private void stopClock()
     {
         stopClock(HexColor.BLACK);
@@ -2632,7 +3007,6 @@ public final class HexGui
         if (command != null)
         {
             cmdConnectLocalProgram(new Program("", command, ""));
-            setFrameTitle();
         }
         m_programs = Program.load();
         /*
@@ -2647,6 +3021,7 @@ public final class HexGui
 
         if (file != null)
             loadGame(file);
+        StartupTimer.mark("game loaded");
     }
 
     private void loadGame(File file)
@@ -2663,7 +3038,7 @@ public final class HexGui
             htpBoardsize(m_guiboard.getBoardSize());
 
             // Play the root node, since it may contain setup.
-            playNode(m_root);
+            guiPlayNode(m_root);
             
 	    forward(-1);
 
@@ -2692,14 +3067,31 @@ public final class HexGui
     private GuiToolBar m_toolbar;
     private StatusBar m_statusbar;
     private GuiMenuBar m_menubar;
+    /** Created when the shell is first shown; the transcript is
+        kept from the start of the connection. */
     private HtpShell m_shell;
+    private ShellTranscript m_transcript;
+
+    /** Parameters set in the program; part of the analysis store
+        keys. */
+    private ParameterState m_parameters;
     private AnalyzeDialog m_analyzeDialog;
+    private JDialog m_gameTreeDialog;
+    private GameTreePanel m_gameTree;
     private GameInfoPanel m_gameinfopanel;
     private Comment m_comment;
     private boolean m_locked;
     private boolean m_unsupportedBoardSize;
     private Node m_root;
     private Node m_current;
+
+    /** Node whose position the program is at; null if unknown. */
+    private Node m_htpNode;
+
+    /** Steps collected by navigate() that have not been made yet. */
+    private int m_pendingSteps;
+
+    private boolean m_navigationScheduled;
     private GameInfo m_gameinfo;
     private HexColor m_tomove;
     private Clock m_blackClock;
@@ -2718,8 +3110,33 @@ public final class HexGui
 
     private ShowAnalyzeText m_showAnalyzeText;
 
-    private ArrayBlockingQueue<HtpCommand> m_htp_queue;
-    private Semaphore m_semaphore;
+    private PriorityBlockingQueue<HtpCommand> m_htp_queue;
+
+    private static final Metrics.Gauge s_htpQueue
+        = Metrics.gauge(PerfHud.HTP_QUEUE);
+
+    private static final Metrics.Timer s_htpLatency
+        = Metrics.timer(PerfHud.HTP_LATENCY);
+
+    private GfxPublisher m_gfxPublisher;
+
+    /** Used on the command handler thread only. */
+    private GfxParser m_gfxParser;
+
+    /** Incremented by every command that changes the program's
+        position. */
+    private AtomicInteger m_htpGeneration;
+
+    private AtomicLong m_htpSequence;
+
+    /** Command being sent by the command handler, or null. */
+    private volatile HtpCommand m_running;
+    /** True while a program process is being started. */
+    private boolean m_launching;
+
+    /** Stderr of the last program started, or null. */
+    private StderrCapture m_stderr;
+    private AnalysisStore m_analysisStore;
     private HtpController m_white;
     private String m_white_name;
     private String m_white_version;
@@ -4,35 +4,58 @@
 
 package hexgui.gui;
 
-import hexgui.hex.*;
-import hexgui.htp.HtpController;
-
 import javax.swing.*;          
-import javax.swing.text.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import java.awt.*;
 import java.awt.event.*;
 
 /** Non-modal dialog displaying the communication between HexGui and a 
-    HTP compatible program. */
+    HTP compatible program.
+
+    <p>The transcript keeps the last maxLines lines only (see
+    ShellTranscript), so leaving the shell open during long sessions
+    does not use more and more memory and time. The lines are shown
+    in a list with a fixed cell size, so only the visible lines are
+    ever measured or drawn. The transcript is passed in, so it can
+    record the session before the shell is first shown. */
 public class HtpShell 
-    extends JDialog implements ActionListener, HtpController.IOInterface
+    extends JDialog implements ActionListener
 {
     public interface Callback 
     {
 	void commandEntered(String str);
     }
 
-    public HtpShell(JFrame owner, Callback callback)
+    public HtpShell(JFrame owner, Callback callback,
+		    ShellTranscript transcript)
     {
 	super(owner, "HexGui: Shell");
 	m_callback = callback;
 
-	m_editor = new JTextPane();
-	m_editor.setEditable(false);
-	m_document = m_editor.getStyledDocument();
-	addStylesToDocument(m_document);
-
-	m_scrollpane = new JScrollPane(m_editor);
+	m_transcript = transcript;
+	m_list = new JList<ShellTranscript.Line>(m_transcript);
+	m_list.setCellRenderer(new LineRenderer());
+	FontMetrics metrics = m_list.getFontMetrics(BOLD_FONT);
+	m_charWidth = metrics.charWidth('m');
+	m_list.setFixedCellHeight(metrics.getHeight());
+	m_list.setFixedCellWidth(m_charWidth);
+	m_transcript.addListDataListener(new ListDataListener()
+	    {
+		public void intervalAdded(ListDataEvent e)
+		{
+		    linesAdded();
+		}
+
+		public void intervalRemoved(ListDataEvent e) { }
+
+		public void contentsChanged(ListDataEvent e)
+		{
+		    linesAdded();
+		}
+	    });
+
+	m_scrollpane = new JScrollPane(m_list);
 	m_scrollpane.setVerticalScrollBarPolicy(
 		     JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
 
@@ -49,67 +72,60 @@ public class HtpShell
 	getContentPane().add(m_field, BorderLayout.SOUTH);	
 	
 	pack();
+	// Size for and scroll to the lines recorded before the shell
+	// was opened.
+	linesAdded();
     }
 
-    public void appendText(String text)
+    /** Widens the cells to the longest line and keeps the last line
+        in view if it was before. */
+    private void linesAdded()
     {
-	appendText(text, null);
+	int width = (m_transcript.getMaxLength() + 1) * m_charWidth;
+	if (width > m_list.getFixedCellWidth())
+	    m_list.setFixedCellWidth(width);
+	BoundedRangeModel range = m_scrollpane.getVerticalScrollBar()
+	    .getModel();
+	boolean atEnd = (range.getValue() + range.getExtent()
+			 >= range.getMaximum() - m_list.getFixedCellHeight());
+	if (atEnd)
+	    SwingUtilities.invokeLater(new Runnable()
+		{
+		    public void run()
+		    {
+			int last = m_transcript.getSize() - 1;
+			if (last >= 0)
+			    m_list.ensureIndexIsVisible(last);
+		    }
+		});
     }
 
-    public void appendText(String text, AttributeSet style)
+    /** Draws a line in the color of its style. */
+    private static final class LineRenderer
+	extends DefaultListCellRenderer
     {
-	try {
-	    m_document.insertString(m_document.getLength(), text, style);
-	} 
-	catch (BadLocationException e) {
-	    System.out.println("Bad location!");
+	public Component getListCellRendererComponent(JList<?> list,
+						      Object value,
+						      int index,
+						      boolean isSelected,
+						      boolean hasFocus)
+	{
+	    super.getListCellRendererComponent(list, value, index,
+					       isSelected, false);
+	    ShellTranscript.Line line = (ShellTranscript.Line)value;
+	    int style = line.getStyle();
+	    setFont(style == ShellTranscript.STYLE_RESPONSE ? BOLD_FONT
+		    : PLAIN_FONT);
+	    if (!isSelected) {
+		if (style == ShellTranscript.STYLE_COMMAND)
+		    setForeground(Color.blue);
+		else if (style == ShellTranscript.STYLE_ERROR)
+		    setForeground(Color.red);
+	    }
+	    return this;
 	}
     }
 
-
-    /** HtpController.IOInterface */
-    public void sentCommand(String str)
-    {
-	appendText(str, m_document.getStyle("blue"));
-    }
-
-    public void receivedResponse(String str)
-    {
-	appendText(str, m_document.getStyle("bold"));
-    }
-
-    public void receivedError(String str)
-    {
-	appendText(str, m_document.getStyle("red"));
-    }
-
-    protected void addStylesToDocument(StyledDocument doc) {
-        Style def = StyleContext.getDefaultStyleContext().
-                        getStyle(StyleContext.DEFAULT_STYLE);
- 
-        Style regular = doc.addStyle("regular", def);
-        StyleConstants.setFontFamily(def, "Monospaced");
-	StyleConstants.setFontSize(def, 12);
- 
-        Style s = doc.addStyle("italic", regular);
-        StyleConstants.setItalic(s, true);
- 
-        s = doc.addStyle("bold", regular);
-        StyleConstants.setBold(s, true);
-
-	s = doc.addStyle("blue", regular);
-	StyleConstants.setForeground(s, Color.blue);
- 
-	s = doc.addStyle("red", regular);
-	StyleConstants.setForeground(s, Color.RED);
-
-	s = doc.addStyle("gray", regular);
-	StyleConstants.setForeground(s, Color.gray);
-
-	s = doc.addStyle("yellow", regular);
-	StyleConstants.setForeground(s, Color.YELLOW);	
-    }
-
     public void actionPerformed(ActionEvent e)
     {
 	String cmd = e.getActionCommand();
@@ -120,10 +136,16 @@ public class HtpShell
 	}
     }
 
-    JTextPane m_editor;
+    private static final Font PLAIN_FONT = new Font("Monospaced",
+						    Font.PLAIN, 12);
+
+    private static final Font BOLD_FONT = PLAIN_FONT.deriveFont(Font.BOLD);
+
+    ShellTranscript m_transcript;
+    JList<ShellTranscript.Line> m_list;
+    int m_charWidth;
     JTextField m_field;
     JScrollPane m_scrollpane;
-    StyledDocument m_document;
     Callback m_callback;
 }
 
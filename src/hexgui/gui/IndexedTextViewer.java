@@ -0,0 +1,411 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.util.LineIndex;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.AbstractListModel;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListCellRenderer;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+//----------------------------------------------------------------------------
+
+/** Dialog for displaying large texts.
+
+    <p>Unlike TextViewer, the text is never put into a text component.
+    A LineIndex over it is built by a SwingWorker, and the lines found
+    so far are shown in a list with fixed cell sizes, so opening the
+    dialog and scrolling cost only the visible lines. Syntax
+    highlighting (see TextViewer) is done per visible line. Typing in
+    the find field searches from the selected line on; Enter finds the
+    next match. Lines are selected instead of characters.
+*/
+public final class IndexedTextViewer
+    extends JDialog
+{
+    public IndexedTextViewer(Frame owner, String title, String text,
+                             boolean highlight, TextViewer.Listener listener)
+    {
+        super(owner, title);
+        m_listener = listener;
+        m_model = new LineModel();
+        m_list = new JList<String>(m_model);
+        m_renderer = new LineRenderer();
+        m_list.setCellRenderer(m_renderer);
+        FontMetrics metrics = m_list.getFontMetrics(BOLD_FONT);
+        m_charWidth = metrics.charWidth('m');
+        m_list.setFixedCellHeight(metrics.getHeight());
+        m_list.setFixedCellWidth(80 * m_charWidth);
+        m_list.setVisibleRowCount(30);
+        m_list.addListSelectionListener(new ListSelectionListener()
+            {
+                public void valueChanged(ListSelectionEvent e)
+                {
+                    if (!e.getValueIsAdjusting())
+                        selectionChanged();
+                }
+            });
+
+        m_find = new JTextField(20);
+        m_find.getDocument().addDocumentListener(new DocumentListener()
+            {
+                public void insertUpdate(DocumentEvent e) { find(false); }
+
+                public void removeUpdate(DocumentEvent e) { find(false); }
+
+                public void changedUpdate(DocumentEvent e) { }
+            });
+        m_find.addActionListener(new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e) { find(true); }
+            });
+        m_findBackground = m_find.getBackground();
+        m_status = new JLabel();
+
+        JPanel findPanel = new JPanel(new BorderLayout(5, 0));
+        findPanel.add(new JLabel("Find:"), BorderLayout.WEST);
+        findPanel.add(m_find, BorderLayout.CENTER);
+        findPanel.add(m_status, BorderLayout.EAST);
+        getContentPane().add(findPanel, BorderLayout.NORTH);
+        getContentPane().add(new JScrollPane(m_list), BorderLayout.CENTER);
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        KeyAdapter keyListener = new KeyAdapter()
+            {
+                public void keyReleased(KeyEvent e)
+                {
+                    if (e.getKeyCode() == KeyEvent.VK_ESCAPE)
+                        dispose();
+                }
+            };
+        m_list.addKeyListener(keyListener);
+        m_find.addKeyListener(keyListener);
+        setMinimumSize(new Dimension(128, 96));
+        pack();
+        setText(title, text, highlight);
+    }
+
+    /** Replaces the text; the dialog shows the new lines as they are
+        indexed. */
+    public void setText(String title, String text, boolean highlight)
+    {
+        setTitle(title);
+        if (m_indexer != null)
+            m_indexer.cancel(false);
+        m_renderer.setHighlight(highlight);
+        m_text = text;
+        m_index = new LineIndex(text);
+        m_model.setSize(0);
+        m_matchOffset = -1;
+        m_status.setText("Indexing...");
+        m_indexer = new Indexer(m_index);
+        m_indexer.execute();
+    }
+
+    //------------------------------------------------------------
+
+    /** Characters indexed between two updates of the list. */
+    private static final int SCAN_CHARS = 1 << 20;
+
+    private static final Font PLAIN_FONT = new Font("Monospaced",
+                                                    Font.PLAIN, 12);
+
+    private static final Font BOLD_FONT = PLAIN_FONT.deriveFont(Font.BOLD);
+
+    private static final Color COLOR_MATCH = new Color(255, 255, 128);
+
+    private static final Color COLOR_NOT_FOUND = new Color(255, 200, 200);
+
+    private final TextViewer.Listener m_listener;
+
+    private final LineModel m_model;
+
+    private final JList<String> m_list;
+
+    private final LineRenderer m_renderer;
+
+    private final int m_charWidth;
+
+    private final JTextField m_find;
+
+    private final Color m_findBackground;
+
+    private final JLabel m_status;
+
+    private String m_text;
+
+    private LineIndex m_index;
+
+    private Indexer m_indexer;
+
+    /** Offset of the last match found, or -1. */
+    private int m_matchOffset;
+
+    /** Indexes a text in the background and adds the lines to the
+        list as they are found. */
+    private final class Indexer
+        extends SwingWorker<Void,Integer>
+    {
+        Indexer(LineIndex index)
+        {
+            m_workerIndex = index;
+        }
+
+        protected Void doInBackground()
+        {
+            while (!isCancelled() && m_workerIndex.scan(SCAN_CHARS))
+                publish(m_workerIndex.getLineCount());
+            publish(m_workerIndex.getLineCount());
+            return null;
+        }
+
+        protected void process(List<Integer> counts)
+        {
+            if (m_index != m_workerIndex)
+                return;
+            m_model.setSize(counts.get(counts.size() - 1));
+            int width = (m_index.getMaxLineLength() + 1) * m_charWidth;
+            if (width > m_list.getFixedCellWidth())
+                m_list.setFixedCellWidth(width);
+        }
+
+        protected void done()
+        {
+            if (m_index != m_workerIndex)
+                return;
+            m_status.setText(m_index.getLineCount() + " lines");
+        }
+
+        private final LineIndex m_workerIndex;
+    }
+
+    /** The indexed lines, read from the text when shown. */
+    private final class LineModel
+        extends AbstractListModel<String>
+    {
+        public int getSize()
+        {
+            return m_size;
+        }
+
+        public String getElementAt(int line)
+        {
+            return m_index.getLine(line);
+        }
+
+        void setSize(int size)
+        {
+            int old = m_size;
+            m_size = size;
+            if (size > old)
+                fireIntervalAdded(this, old, size - 1);
+            else if (size < old)
+                fireIntervalRemoved(this, size, old - 1);
+        }
+
+        private int m_size;
+    }
+
+    /** Finds the text of the find field in the indexed lines.
+        @param next if true, search after the last match, otherwise
+        at the start of the selected line. */
+    private void find(boolean next)
+    {
+        String pattern = m_find.getText();
+        m_renderer.setMatch(pattern);
+        m_list.repaint();
+        if (pattern.length() == 0) {
+            m_find.setBackground(m_findBackground);
+            return;
+        }
+        int lines = m_model.getSize();
+        if (lines == 0)
+            return;
+        int end = m_index.getLineEnd(lines - 1);
+        int from;
+        if (next && m_matchOffset >= 0)
+            from = m_matchOffset + 1;
+        else {
+            int selected = m_list.getMinSelectionIndex();
+            from = (selected < 0) ? 0 : m_index.getLineStart(selected);
+        }
+        int offset = indexOf(pattern, from, end);
+        if (offset < 0 && from > 0)
+            offset = indexOf(pattern, 0, end);  // wrap around
+        m_matchOffset = offset;
+        if (offset < 0) {
+            m_find.setBackground(COLOR_NOT_FOUND);
+            return;
+        }
+        m_find.setBackground(m_findBackground);
+        int line = m_index.findLine(offset);
+        m_list.setSelectedIndex(line);
+        m_list.ensureIndexIsVisible(line);
+    }
+
+    /** Returns the offset of the first occurrence of pattern that
+        starts at or after from and ends at or before end, or -1. */
+    private int indexOf(String pattern, int from, int end)
+    {
+        int offset = m_text.indexOf(pattern, from);
+        if (offset < 0 || offset + pattern.length() > end)
+            return -1;
+        return offset;
+    }
+
+    private void selectionChanged()
+    {
+        if (m_listener == null)
+            return;
+        int min = m_list.getMinSelectionIndex();
+        if (min < 0) {
+            m_listener.textSelected(m_text);
+            return;
+        }
+        int max = m_list.getMaxSelectionIndex();
+        m_listener.textSelected(m_text.substring(m_index.getLineStart(min),
+                                                 m_index.getLineEnd(max)));
+    }
+
+    /** Draws a line with the styles of TextViewer's syntax
+        highlighting and the matches of the find field marked. */
+    private static final class LineRenderer
+        extends JComponent
+        implements ListCellRenderer<String>
+    {
+        public LineRenderer()
+        {
+            setOpaque(true);
+        }
+
+        public void setHighlight(boolean highlight)
+        {
+            m_highlight = highlight;
+        }
+
+        public void setMatch(String match)
+        {
+            m_match = match;
+        }
+
+        public Component getListCellRendererComponent
+            (JList<? extends String> list, String value, int index,
+             boolean isSelected, boolean cellHasFocus)
+        {
+            m_text = value;
+            m_selected = isSelected;
+            m_list = list;
+            return this;
+        }
+
+        protected void paintComponent(Graphics g)
+        {
+            g.setColor(m_selected ? m_list.getSelectionBackground()
+                       : m_list.getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            int length = m_text.length();
+            FontMetrics metrics = g.getFontMetrics(PLAIN_FONT);
+            int charWidth = metrics.charWidth('m');
+            int baseline = metrics.getAscent();
+            if (m_match != null && m_match.length() > 0) {
+                g.setColor(COLOR_MATCH);
+                for (int i = m_text.indexOf(m_match); i >= 0;
+                     i = m_text.indexOf(m_match, i + m_match.length()))
+                    g.fillRect(i * charWidth, 0,
+                               m_match.length() * charWidth, getHeight());
+            }
+            byte style[] = new byte[length];
+            if (m_highlight)
+                computeStyles(m_text, style);
+            Color foreground = m_selected ? m_list.getSelectionForeground()
+                : m_list.getForeground();
+            int start = 0;
+            while (start < length) {
+                int end = start + 1;
+                while (end < length && style[end] == style[start])
+                    ++end;
+                int s = style[start];
+                g.setFont(s == STYLE_TITLE ? BOLD_FONT : PLAIN_FONT);
+                g.setColor(s == STYLE_NONE || s == STYLE_TITLE ? foreground
+                           : STYLE_COLORS[s]);
+                g.drawString(m_text.substring(start, end),
+                             start * charWidth, baseline);
+                start = end;
+            }
+        }
+
+        private static final byte STYLE_NONE = 0;
+
+        private static final byte STYLE_TITLE = 5;
+
+        /** Colors of the styles of TextViewer, by style. */
+        private static final Color STYLE_COLORS[] = {
+            null,
+            new Color(0f, 0.54f, 0f),
+            new Color(0.8f, 0f, 0f),
+            new Color(0.54f, 0f, 0.54f),
+            new Color(0.25f, 0.5f, 0.7f),
+            null
+        };
+
+        /** The patterns of TextViewer, in the same order, so later ones
+            win where they overlap. */
+        private static final Pattern PATTERNS[] = {
+            Pattern.compile("\\b-?\\d+\\.?\\d*([Ee][+-]\\d+)?\\b"),
+            Pattern.compile("\\b[A-Z_][A-Z_]+[A-Z]\\b"),
+            Pattern.compile("\\b([Bb][Ll][Aa][Cc][Kk]|[Ww][Hh][Ii][Tt][Ee])\\b"),
+            Pattern.compile("\\b([Pp][Aa][Ss][Ss]|[A-Ta-t](1\\d|[1-9]))\\b"),
+            Pattern.compile("^\\S+:(\\s|$)")
+        };
+
+        private boolean m_highlight;
+
+        private String m_match;
+
+        private String m_text = "";
+
+        private boolean m_selected;
+
+        private JList<? extends String> m_list;
+
+        private static void computeStyles(String text, byte style[])
+        {
+            for (int i = 0; i < PATTERNS.length; ++i) {
+                Matcher matcher = PATTERNS[i].matcher(text);
+                while (matcher.find())
+                    for (int j = matcher.start(); j < matcher.end(); ++j)
+                        style[j] = (byte)(i + 1);
+            }
+        }
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,118 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.util.Metrics;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JLabel;
+import javax.swing.Timer;
+
+//----------------------------------------------------------------------------
+
+/** Label showing the performance metrics in the status bar: the
+    median and 99th percentile of the HTP round trips and of the board
+    paints over the last Metrics.WINDOW_SIZE samples, and the number
+    of commands queued for the program.
+
+    <p>The metrics are read from the Metrics registry once per second
+    while the label is shown. */
+public final class PerfHud
+    extends JLabel
+{
+    /** Metrics.Timer of the round trips of commands sent to the
+        program. */
+    public static final String HTP_LATENCY = "htp-latency";
+
+    /** Metrics.Gauge of the commands waiting for the command
+        handler. */
+    public static final String HTP_QUEUE = "htp-queue";
+
+    /** Metrics.Timer of the board paints. */
+    public static final String PAINT_TIME = "paint-time";
+
+    public PerfHud()
+    {
+        setHorizontalAlignment(JLabel.RIGHT);
+        setToolTipText("HTP round trip and board paint times (median / 99th"
+                       + " percentile), commands queued");
+        m_htpLatency = Metrics.timer(HTP_LATENCY);
+        m_htpQueue = Metrics.gauge(HTP_QUEUE);
+        m_paintTime = Metrics.timer(PAINT_TIME);
+        m_timer = new Timer(REFRESH_MS, new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    refresh();
+                }
+            });
+    }
+
+    public void addNotify()
+    {
+        super.addNotify();
+        refresh();
+        m_timer.start();
+    }
+
+    public void removeNotify()
+    {
+        m_timer.stop();
+        super.removeNotify();
+    }
+
+    //------------------------------------------------------------
+
+    private static final int REFRESH_MS = 1000;
+
+    private final Metrics.Timer m_htpLatency;
+
+    private final Metrics.Gauge m_htpQueue;
+
+    private final Metrics.Timer m_paintTime;
+
+    private final Timer m_timer;
+
+    private void refresh()
+    {
+        StringBuilder text = new StringBuilder();
+        text.append("HTP ");
+        appendPercentiles(text, m_htpLatency);
+        text.append("  queue ").append(m_htpQueue.get());
+        text.append("  paint ");
+        appendPercentiles(text, m_paintTime);
+        text.append(' ');
+        setText(text.toString());
+    }
+
+    private static void appendPercentiles(StringBuilder text,
+                                          Metrics.Timer timer)
+    {
+        long sorted[] = timer.getSorted();
+        if (sorted.length == 0)
+        {
+            text.append("-");
+            return;
+        }
+        appendMs(text, Metrics.percentile(sorted, 50));
+        text.append(" / ");
+        appendMs(text, Metrics.percentile(sorted, 99));
+        text.append(" ms");
+    }
+
+    /** Appends nanoseconds as milliseconds, with one decimal below
+        10 ms. */
+    private static void appendMs(StringBuilder text, long nanos)
+    {
+        long tenths = (nanos + 50000) / 100000;
+        if (tenths >= 100)
+            text.append(tenths / 10);
+        else
+            text.append(tenths / 10).append('.').append(tenths % 10);
+    }
+}
+
+//----------------------------------------------------------------------------
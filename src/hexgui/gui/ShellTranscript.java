@@ -0,0 +1,227 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.htp.HtpController;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.AbstractListModel;
+import javax.swing.Timer;
+
+//----------------------------------------------------------------------------
+
+/** Lines of the HTP shell, as a list model.
+
+    <p>At most a given number of lines are kept in a ring buffer; the
+    oldest are dropped when more arrive. append() may be called from
+    any thread. Text is queued and added to the model on the event
+    thread at most once per frame, with one event per kind of change,
+    so a verbose program costs the list one update per frame instead
+    of one per line.
+
+    <p>The transcript records a program's HTP session by itself, so
+    the HtpShell showing it need only be created when it is opened.
+*/
+public final class ShellTranscript
+    extends AbstractListModel<ShellTranscript.Line>
+    implements HtpController.IOInterface
+{
+    public static final int STYLE_PLAIN = 0;
+
+    public static final int STYLE_COMMAND = 1;
+
+    public static final int STYLE_RESPONSE = 2;
+
+    public static final int STYLE_ERROR = 3;
+
+    /** A line of text without the line break. */
+    public static final class Line
+    {
+        public Line(String text, int style)
+        {
+            m_text = text;
+            m_style = style;
+        }
+
+        public String getText()
+        {
+            return m_text;
+        }
+
+        public int getStyle()
+        {
+            return m_style;
+        }
+
+        /** Used when lines are copied from the list. */
+        public String toString()
+        {
+            return m_text;
+        }
+
+        private final String m_text;
+
+        private final int m_style;
+    }
+
+    public ShellTranscript(int maxLines)
+    {
+        m_lines = new Line[Math.max(maxLines, 1)];
+        m_pending = new ConcurrentLinkedQueue<Line>();
+        m_scheduled = new AtomicBoolean(false);
+        m_timer = new Timer(GfxPublisher.FRAME_MS, new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    m_scheduled.set(false);
+                    flush();
+                }
+            });
+        m_timer.setRepeats(false);
+    }
+
+    /** Adds text, which may contain several lines. A line is
+        continued by the next call until it ends with a line break.
+        Can be called from any thread. */
+    public void append(String text, int style)
+    {
+        m_pending.offer(new Line(text, style));
+        if (m_scheduled.compareAndSet(false, true))
+            m_timer.start();
+    }
+
+    /** HtpController.IOInterface */
+    public void sentCommand(String str)
+    {
+        append(str, STYLE_COMMAND);
+    }
+
+    public void receivedResponse(String str)
+    {
+        append(str, STYLE_RESPONSE);
+    }
+
+    public void receivedError(String str)
+    {
+        append(str, STYLE_ERROR);
+    }
+
+    public int getSize()
+    {
+        return m_size;
+    }
+
+    public Line getElementAt(int index)
+    {
+        return m_lines[(m_first + index) % m_lines.length];
+    }
+
+    /** Returns the length of the longest line added since the last
+        clear(), including lines already dropped. */
+    public int getMaxLength()
+    {
+        return m_maxLength;
+    }
+
+    public void clear()
+    {
+        int size = m_size;
+        m_first = 0;
+        m_size = 0;
+        m_open = false;
+        m_maxLength = 0;
+        Arrays.fill(m_lines, null);
+        if (size > 0)
+            fireIntervalRemoved(this, 0, size - 1);
+    }
+
+    //------------------------------------------------------------
+
+    private final Line m_lines[];
+
+    /** Index of the oldest line in m_lines. */
+    private int m_first;
+
+    private int m_size;
+
+    /** True if the last line has no line break yet. */
+    private boolean m_open;
+
+    private int m_maxLength;
+
+    private final ConcurrentLinkedQueue<Line> m_pending;
+
+    /** True while the timer is running. */
+    private final AtomicBoolean m_scheduled;
+
+    private final Timer m_timer;
+
+    /** Adds the queued text to the model. */
+    private void flush()
+    {
+        int oldSize = m_size;
+        boolean changedLast = false;
+        int added = 0;
+        int removed = 0;
+        Line chunk;
+        while ((chunk = m_pending.poll()) != null) {
+            String text = chunk.getText();
+            int start = 0;
+            while (start < text.length()) {
+                int end = text.indexOf('\n', start);
+                boolean complete = (end >= 0);
+                if (!complete)
+                    end = text.length();
+                String s = text.substring(start, end);
+                start = end + 1;
+                if (m_open && m_size > 0) {
+                    int last = m_size - 1;
+                    Line line = getElementAt(last);
+                    set(last, new Line(line.getText() + s, line.getStyle()));
+                    if (last < oldSize - removed)
+                        changedLast = true;
+                } else {
+                    if (m_size == m_lines.length) {
+                        m_lines[m_first] = null;
+                        m_first = (m_first + 1) % m_lines.length;
+                        --m_size;
+                        if (removed < oldSize)
+                            ++removed;
+                        else
+                            --added;
+                    }
+                    m_lines[(m_first + m_size) % m_lines.length] =
+                        new Line(s, chunk.getStyle());
+                    ++m_size;
+                    ++added;
+                }
+                m_maxLength = Math.max(m_maxLength,
+                                       getElementAt(m_size - 1)
+                                       .getText().length());
+                m_open = !complete;
+            }
+        }
+        // Report the changes in the order they apply to the old list:
+        // the line that was continued, the lines dropped from the
+        // start, the lines added at the end.
+        if (changedLast)
+            fireContentsChanged(this, oldSize - 1, oldSize - 1);
+        if (removed > 0)
+            fireIntervalRemoved(this, 0, removed - 1);
+        if (added > 0)
+            fireIntervalAdded(this, m_size - added, m_size - 1);
+    }
+
+    private void set(int index, Line line)
+    {
+        m_lines[(m_first + index) % m_lines.length] = line;
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -36,6 +36,12 @@ public final class ShowAnalyzeText
         // with an empty line to avoid text on the line with the status
         // character)
         response = response.replaceAll("\\A *\n", "");
+        if (response.length() >= LARGE_TEXT)
+        {
+            showLarge(pointArg, title, response, highlight, listener,
+                      reuseWindow);
+            return;
+        }
         if (reuseWindow && m_textViewer != null)
             m_textViewer.setText(title, response, highlight);
         else
@@ -58,6 +64,32 @@ public final class ShowAnalyzeText
         }
     }
 
+    /** Responses of at least this many characters are shown in an
+        IndexedTextViewer, since a text component would take too long
+        to lay them out. */
+    private static final int LARGE_TEXT = 256 * 1024;
+
+    private void showLarge(HexPoint pointArg, String title, String response,
+                           boolean highlight, TextViewer.Listener listener,
+                           boolean reuseWindow)
+    {
+        if (reuseWindow && m_largeTextViewer != null)
+            m_largeTextViewer.setText(title, response, highlight);
+        else
+        {
+            m_largeTextViewer = new IndexedTextViewer(m_owner, title,
+                                                      response, highlight,
+                                                      listener);
+            m_largeTextViewer.addWindowListener(new WindowAdapter() {
+                    public void windowClosing(WindowEvent e) {
+                        m_largeTextViewer = null;
+                    }
+                });
+            m_largeTextViewer.setLocationByPlatform(true);
+            m_largeTextViewer.setVisible(true);
+        }
+    }
+
     private static class PointSelectionMarker
         implements TextViewer.Listener
     {
@@ -82,4 +114,6 @@ public final class ShowAnalyzeText
     private GuiBoard m_guiBoard;
 
     private TextViewer m_textViewer;
+
+    private IndexedTextViewer m_largeTextViewer;
 }
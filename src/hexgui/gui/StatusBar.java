@@ -54,6 +54,26 @@ public class StatusBar
         m_progress.setVisible(visible);
     }
 
+    /** Shows or hides the performance HUD (see PerfHud). */
+    public void setHudVisible(boolean visible)
+    {
+        assert SwingUtilities.isEventDispatchThread();
+        if (visible == (m_hud != null))
+            return;
+        if (visible)
+        {
+            m_hud = new PerfHud();
+            add(m_hud, BorderLayout.CENTER);
+        }
+        else
+        {
+            remove(m_hud);
+            m_hud = null;
+        }
+        revalidate();
+        repaint();
+    }
+
     public void setProgress(double pct)
     {
         assert SwingUtilities.isEventDispatchThread();
@@ -69,6 +89,7 @@ public class StatusBar
 
     JLabel m_message;
     JProgressBar m_progress;
+    PerfHud m_hud;
 }
 
 //----------------------------------------------------------------------------
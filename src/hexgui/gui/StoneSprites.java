@@ -0,0 +1,318 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.util.RadialGradientPaint;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+//----------------------------------------------------------------------------
+
+/** Pre-rendered images of stones, stone shadows and the markers
+    drawn on stones, for one field size.
+
+    <p>Each image covers the bounding box of a field, so it is drawn
+    with its top left corner at the field center minus half the field
+    size. The images are rendered again by update() whenever the field
+    size, stone radius or font changes.
+
+    <p>In direct mode (see setDirect()) no images are kept; the draw
+    methods paint the stones and markers straight to the target, so
+    vector output such as SVG gets shapes instead of bitmaps.
+*/
+public final class StoneSprites
+{
+    public static final Color COLOR_STONE_BLACK = Color.decode("#030303");
+    public static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
+    public static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
+    public static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
+
+    /** Makes sure the images are rendered for the given field size.
+        @param gc configuration to create compatible images for
+        @param w width of a field
+        @param h height of a field
+        @param stoneradius radius of a stone
+        @param shadowOffset offset of a stone's shadow
+        @param font font used for the swap marker
+    */
+    public void update(GraphicsConfiguration gc, int w, int h,
+                       double stoneradius, double shadowOffset, Font font)
+    {
+        w = Math.max(w, 1);
+        h = Math.max(h, 1);
+        if (m_direct) {
+            m_width = w;
+            m_height = h;
+            m_stoneradius = stoneradius;
+            m_shadowOffset = shadowOffset;
+            m_font = font;
+            return;
+        }
+        if (m_black != null && w == m_width && h == m_height
+            && stoneradius == m_stoneradius
+            && shadowOffset == m_shadowOffset && font.equals(m_font))
+            return;
+        m_width = w;
+        m_height = h;
+        m_stoneradius = stoneradius;
+        m_shadowOffset = shadowOffset;
+        m_font = font;
+
+        m_black = renderStone(gc, COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT,
+                              stoneradius * 1.01);
+        m_white = renderStone(gc, COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT,
+                              stoneradius);
+        m_shadow = renderShadow(gc);
+        m_lastPlayed = renderLastPlayed(gc);
+        m_swapOnBlack = renderSwap(gc, Color.white);
+        m_swapOnWhite = renderSwap(gc, Color.black);
+    }
+
+    /** Sets whether stones and markers are painted directly instead
+        of copied from images. */
+    public void setDirect(boolean direct)
+    {
+        m_direct = direct;
+        m_black = null;
+        m_white = null;
+        m_shadow = null;
+        m_lastPlayed = null;
+        m_swapOnBlack = null;
+        m_swapOnWhite = null;
+    }
+
+    /** Draws a stone of the given color in the field whose bounding
+        box starts at (left, top); nothing if color is EMPTY. */
+    public void drawStone(Graphics2D g, HexColor color, int left, int top)
+    {
+        if (color != HexColor.BLACK && color != HexColor.WHITE)
+            return;
+        if (!m_direct) {
+            g.drawImage(getStone(color), left, top, null);
+            return;
+        }
+        Graphics2D g2 = translated(g, left, top);
+        if (color == HexColor.BLACK)
+            paintStone(g2, COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT,
+                       m_stoneradius * 1.01);
+        else
+            paintStone(g2, COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT,
+                       m_stoneradius);
+        g2.dispose();
+    }
+
+    public void drawShadow(Graphics2D g, int left, int top)
+    {
+        if (!m_direct) {
+            g.drawImage(m_shadow, left, top, null);
+            return;
+        }
+        Graphics2D g2 = translated(g, left, top);
+        paintShadow(g2);
+        g2.dispose();
+    }
+
+    public void drawLastPlayed(Graphics2D g, int left, int top)
+    {
+        if (!m_direct) {
+            g.drawImage(m_lastPlayed, left, top, null);
+            return;
+        }
+        Graphics2D g2 = translated(g, left, top);
+        paintLastPlayed(g2);
+        g2.dispose();
+    }
+
+    public void drawSwapPlayed(Graphics2D g, HexColor stone,
+                               int left, int top)
+    {
+        if (!m_direct) {
+            g.drawImage(getSwapPlayed(stone), left, top, null);
+            return;
+        }
+        Graphics2D g2 = translated(g, left, top);
+        paintSwap(g2, (stone == HexColor.BLACK) ? Color.white : Color.black);
+        g2.dispose();
+    }
+
+    public int getWidth()
+    {
+        return m_width;
+    }
+
+    public int getHeight()
+    {
+        return m_height;
+    }
+
+    /** Returns the image of a stone, or null if color is EMPTY. */
+    public BufferedImage getStone(HexColor color)
+    {
+        if (color == HexColor.BLACK)
+            return m_black;
+        if (color == HexColor.WHITE)
+            return m_white;
+        return null;
+    }
+
+    /** Shadow of a stone, already offset and translucent. */
+    public BufferedImage getShadow()
+    {
+        return m_shadow;
+    }
+
+    public BufferedImage getLastPlayed()
+    {
+        return m_lastPlayed;
+    }
+
+    /** Swap marker drawn on a stone of the given color. */
+    public BufferedImage getSwapPlayed(HexColor stone)
+    {
+        return (stone == HexColor.BLACK) ? m_swapOnBlack : m_swapOnWhite;
+    }
+
+    //------------------------------------------------------------
+
+    private BufferedImage create(GraphicsConfiguration gc)
+    {
+        return gc.createCompatibleImage(m_width, m_height,
+                                        Transparency.TRANSLUCENT);
+    }
+
+    private static Graphics2D createGraphics(BufferedImage image)
+    {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+        return g;
+    }
+
+    private static Graphics2D translated(Graphics2D g, int left, int top)
+    {
+        Graphics2D g2 = (Graphics2D)g.create();
+        g2.translate(left, top);
+        return g2;
+    }
+
+    private BufferedImage renderStone(GraphicsConfiguration gc,
+                                      Color normal, Color bright,
+                                      double size)
+    {
+        BufferedImage image = create(gc);
+        Graphics2D g = createGraphics(image);
+        paintStone(g, normal, bright, size);
+        g.dispose();
+        return image;
+    }
+
+    private BufferedImage renderShadow(GraphicsConfiguration gc)
+    {
+        BufferedImage image = create(gc);
+        Graphics2D g = createGraphics(image);
+        paintShadow(g);
+        g.dispose();
+        return image;
+    }
+
+    private BufferedImage renderLastPlayed(GraphicsConfiguration gc)
+    {
+        BufferedImage image = create(gc);
+        Graphics2D g = createGraphics(image);
+        paintLastPlayed(g);
+        g.dispose();
+        return image;
+    }
+
+    private BufferedImage renderSwap(GraphicsConfiguration gc, Color color)
+    {
+        BufferedImage image = create(gc);
+        Graphics2D g = createGraphics(image);
+        paintSwap(g, color);
+        g.dispose();
+        return image;
+    }
+
+    // The paint methods draw into the bounding box of a field with
+    // its top left corner at the origin.
+
+    private void paintStone(Graphics2D g, Color normal, Color bright,
+                            double size)
+    {
+	int min = (m_width < m_height) ? m_width : m_height;
+        int radius = Math.max(min / 3, 1);
+        Point2D.Double centerPoint =
+            new Point2D.Double(m_width/2 - min/6, m_height/2 - min/6);
+        Point2D.Double radiusPoint =
+            new Point2D.Double(radius, radius);
+        g.setPaint(new RadialGradientPaint(centerPoint, bright,
+                                           radiusPoint, normal));
+	g.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size,
+                                    size*2, size*2));
+    }
+
+    private void paintShadow(Graphics2D g)
+    {
+        // SRC in an image of its own; over the board when direct.
+        g.setComposite(AlphaComposite.getInstance
+                       (m_direct ? AlphaComposite.SRC_OVER 
+                        : AlphaComposite.SRC, 0.3f));
+        g.setColor(Color.black);
+        double size = m_stoneradius;
+        g.fill(new Ellipse2D.Double(m_width/2.0 - size + m_shadowOffset,
+                                    m_height/2.0 - size + m_shadowOffset,
+                                    size*2, size*2));
+    }
+
+    private void paintLastPlayed(Graphics2D g)
+    {
+        double radius = (m_height < m_width) ? m_height/2 : m_width/2;
+        double size = (radius - GuiField.getStoneMargin_new(radius*2)) / 6;
+	g.setColor(Color.gray);
+	g.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size,
+                                    2*size, 2*size));
+    }
+
+    private void paintSwap(Graphics2D g, Color color)
+    {
+        double radius = (m_height < m_width) ? m_height/2 : m_width/2;
+        double abssize = radius - GuiField.getStoneMargin_new(radius*2);
+        Font f = m_font.deriveFont((float)abssize);
+        FontMetrics m = g.getFontMetrics(f);
+        double width = m.stringWidth("S");
+        double height = m.getAscent();
+        g.setFont(f);
+        g.setColor(color);
+        g.drawString("S", (int)(m_width/2.0 - width/2),
+                     (int)(m_height/2.0 + 0.8*height/2));
+    }
+
+    private int m_width;
+    private int m_height;
+    private double m_stoneradius;
+    private double m_shadowOffset;
+    private Font m_font;
+    private boolean m_direct;
+
+    private BufferedImage m_black;
+    private BufferedImage m_white;
+    private BufferedImage m_shadow;
+    private BufferedImage m_lastPlayed;
+    private BufferedImage m_swapOnBlack;
+    private BufferedImage m_swapOnWhite;
+}
+
+//----------------------------------------------------------------------------
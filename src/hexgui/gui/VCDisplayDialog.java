@@ -6,9 +6,12 @@ package hexgui.gui;
 
 import hexgui.hex.*;
 import hexgui.htp.HtpController;
+import hexgui.util.Tokenizer;
 
-import javax.swing.*;          
+import javax.swing.*;
 import javax.swing.text.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.event.ListSelectionEvent;
 
@@ -16,20 +19,27 @@ import java.awt.*;
 import java.awt.event.*;
 
 import java.util.*;
+import java.util.List;
 
 //----------------------------------------------------------------------------
 
 /** Non-modal dialog displaying list of VCs.  Clicking on a vc displays
-    it to the given GuiBoard. */
-public class VCDisplayDialog 
+    it to the given GuiBoard.
+
+    <p>The response is parsed in chunks by a SwingWorker into a
+    VCStore, and the list shows the VCs parsed so far. The list model
+    is an index of the VCs that pass the filters (color, type, an
+    endpoint, a carrier cell); its rows are only converted to text
+    when they are shown. */
+public class VCDisplayDialog
     extends JDialog implements ListSelectionListener,
                                FocusListener
 {
-    public VCDisplayDialog(JFrame owner, GuiBoard board, Vector<VC> vcs)
+    public VCDisplayDialog(JFrame owner, GuiBoard board, String response)
     {
 	super(owner, "HexGui: VCs");
 
-	addWindowListener(new WindowAdapter() 
+	addWindowListener(new WindowAdapter()
 	    {
 		public void windowClosing(WindowEvent winEvt) {
 		    dispose();
@@ -37,15 +47,24 @@ public class VCDisplayDialog
 	    });
 
         m_guiboard = board;
+        m_store = new VCStore();
+        m_rows = new int[1024];
+        m_model = new RowModel();
 
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        panel.add(createFilterPanel());
 
-        m_list = new JList();
+        m_list = new JList<String>(m_model);
         m_list.addFocusListener(this);
         m_list.addListSelectionListener(this);
         m_list.setDragEnabled(false);
         m_list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed cell sizes, so the list does not ask for every row.
+        FontMetrics metrics = m_list.getFontMetrics(m_list.getFont());
+        m_list.setFixedCellHeight(metrics.getHeight() + 2);
+        m_list.setFixedCellWidth(400);
+        m_list.setVisibleRowCount(20);
 
 	m_scrollpane = new JScrollPane(m_list);
 	m_scrollpane.setVerticalScrollBarPolicy(
@@ -59,14 +78,15 @@ public class VCDisplayDialog
 	Dimension size = owner.getSize();
 	setLocation(0, size.height);
 
-        setVCs(vcs);
+        m_parser = new Parser(response);
+        m_parser.execute();
         setVisible(true);
     }
 
-    public void setVCs(Vector<VC> vcs)
+    public void dispose()
     {
-        m_vcs = vcs;
-        m_list.setListData(vcs);
+        m_parser.cancel(false);
+        super.dispose();
     }
 
     public void valueChanged(ListSelectionEvent e)
@@ -74,14 +94,14 @@ public class VCDisplayDialog
         if (m_list.isSelectionEmpty())
             return;
 
-        VC vc = m_vcs.get(m_list.getSelectedIndex());
-        if (vc.getType().equals("softlimit")) // do nothing on this
+        int index = m_rows[m_list.getSelectedIndex()];
+        if (m_store.isSoftLimit(index)) // do nothing on this
             return;
         m_guiboard.clearMarks();
-        m_guiboard.displayVC(vc);
+        m_guiboard.displayVC(m_store.get(index));
         m_guiboard.repaint();
     }
-    
+
     public void focusGained(FocusEvent e)
     {
     }
@@ -91,10 +111,244 @@ public class VCDisplayDialog
         m_list.clearSelection();
     }
 
-    private JList m_list;
+    /** VCs parsed per chunk handed to the event thread. */
+    private static final int CHUNK_SIZE = 5000;
+
+    private static final String ANY_COLOR = "Any color";
+
+    private static final String ANY_TYPE = "Any type";
+
+    private JList<String> m_list;
     private JScrollPane m_scrollpane;
-    private Vector<VC> m_vcs;
     private GuiBoard m_guiboard;
+
+    private final VCStore m_store;
+
+    /** Indices into m_store of the VCs that pass the filters. */
+    private int m_rows[];
+    private int m_numRows;
+
+    private final RowModel m_model;
+    private final Parser m_parser;
+
+    private JComboBox<String> m_colorFilter;
+    private JComboBox<String> m_typeFilter;
+    private JTextField m_endpointFilter;
+    private JTextField m_carrierFilter;
+    private JLabel m_status;
+
+    // Current filters; null passes everything.
+    private HexColor m_color;
+    private String m_type;
+    private HexPoint m_endpoint;
+    private HexPoint m_carrierCell;
+
+    /** Row with the most points seen, which sets the cell width. */
+    private int m_widestRow = -1;
+
+    /** Parses the response and adds the VCs to m_store in chunks. */
+    private final class Parser
+        extends SwingWorker<Void,VCStore>
+    {
+        Parser(String response)
+        {
+            m_response = response;
+        }
+
+        protected Void doInBackground()
+        {
+            Tokenizer tk = new Tokenizer(m_response);
+            boolean more = true;
+            while (more && !isCancelled()) {
+                VCStore chunk = new VCStore();
+                more = chunk.parse(tk, CHUNK_SIZE);
+                publish(chunk);
+            }
+            return null;
+        }
+
+        protected void process(List<VCStore> chunks)
+        {
+            int first = m_store.size();
+            for (VCStore chunk : chunks)
+                m_store.addAll(chunk);
+            vcsAdded(first);
+        }
+
+        protected void done()
+        {
+            m_parsed = true;
+            updateStatus();
+        }
+
+        private final String m_response;
+    }
+
+    private boolean m_parsed;
+
+    /** Shows the rows of m_rows, creating their text when shown. */
+    private final class RowModel
+        extends AbstractListModel<String>
+    {
+        public int getSize()
+        {
+            return m_numRows;
+        }
+
+        public String getElementAt(int row)
+        {
+            return m_store.get(m_rows[row]).toString();
+        }
+
+        void fireAdded(int first, int last)
+        {
+            fireIntervalAdded(this, first, last);
+        }
+
+        void fireRemoved(int first, int last)
+        {
+            fireIntervalRemoved(this, first, last);
+        }
+    }
+
+    private JPanel createFilterPanel()
+    {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        ActionListener listener = new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    filterChanged();
+                }
+            };
+        DocumentListener docListener = new DocumentListener()
+            {
+                public void insertUpdate(DocumentEvent e) { filterChanged(); }
+
+                public void removeUpdate(DocumentEvent e) { filterChanged(); }
+
+                public void changedUpdate(DocumentEvent e) { }
+            };
+
+        m_colorFilter = new JComboBox<String>(new String[] {
+                ANY_COLOR, HexColor.BLACK.toString(),
+                HexColor.WHITE.toString() });
+        m_colorFilter.addActionListener(listener);
+        panel.add(m_colorFilter);
+
+        m_typeFilter = new JComboBox<String>(new String[] { ANY_TYPE });
+        m_typeFilter.addActionListener(listener);
+        panel.add(m_typeFilter);
+
+        panel.add(new JLabel("End:"));
+        m_endpointFilter = new JTextField(3);
+        m_endpointFilter.getDocument().addDocumentListener(docListener);
+        panel.add(m_endpointFilter);
+
+        panel.add(new JLabel("Carrier:"));
+        m_carrierFilter = new JTextField(3);
+        m_carrierFilter.getDocument().addDocumentListener(docListener);
+        panel.add(m_carrierFilter);
+
+        m_status = new JLabel("Parsing...");
+        panel.add(m_status);
+        return panel;
+    }
+
+    /** Reads the filters from the controls and rebuilds the rows. */
+    private void filterChanged()
+    {
+        Object color = m_colorFilter.getSelectedItem();
+        m_color = ANY_COLOR.equals(color) ? null
+            : HexColor.get(color.toString());
+        Object type = m_typeFilter.getSelectedItem();
+        m_type = (type == null || ANY_TYPE.equals(type)) ? null
+            : type.toString();
+        m_endpoint = readCell(m_endpointFilter);
+        m_carrierCell = readCell(m_carrierFilter);
+
+        m_list.clearSelection();
+        int old = m_numRows;
+        m_numRows = 0;
+        if (old > 0)
+            m_model.fireRemoved(0, old - 1);
+        vcsAdded(0);
+    }
+
+    /** Returns the cell in a filter field, or null if it is empty or
+        not a cell, which is then marked. */
+    private static HexPoint readCell(JTextField field)
+    {
+        String text = field.getText().trim();
+        HexPoint p = null;
+        if (text.length() > 0) {
+            p = HexPoint.get((CharSequence)text, 0, text.length());
+            if (p != null && !p.is_cell())
+                p = null;
+        }
+        field.setForeground((text.length() > 0 && p == null) ? Color.red
+                            : Color.black);
+        return p;
+    }
+
+    /** Adds the rows of the VCs from index first on that pass the
+        filters. */
+    private void vcsAdded(int first)
+    {
+        List<String> types = m_store.getTypes();
+        for (int i = m_typeFilter.getItemCount() - 1; i < types.size(); ++i)
+            m_typeFilter.addItem(types.get(i));
+
+        int oldRows = m_numRows;
+        int size = m_store.size();
+        if (m_rows.length < size)
+            m_rows = Arrays.copyOf(m_rows, Math.max(size,
+                                                    2 * m_rows.length));
+        for (int i = first; i < size; ++i) {
+            if (!matches(i))
+                continue;
+            m_rows[m_numRows++] = i;
+            if (m_widestRow < 0
+                || m_store.getNumPoints(i) > m_store.getNumPoints(m_widestRow))
+                m_widestRow = i;
+        }
+        if (m_widestRow >= 0) {
+            FontMetrics metrics = m_list.getFontMetrics(m_list.getFont());
+            int width = metrics.stringWidth(m_store.get(m_widestRow)
+                                            .toString()) + 10;
+            if (width > m_list.getFixedCellWidth())
+                m_list.setFixedCellWidth(width);
+        }
+        if (m_numRows > oldRows)
+            m_model.fireAdded(oldRows, m_numRows - 1);
+        updateStatus();
+    }
+
+    private boolean matches(int i)
+    {
+        if (m_store.isSoftLimit(i))
+            // Only a separator, meaningless in a filtered list.
+            return m_color == null && m_type == null && m_endpoint == null
+                && m_carrierCell == null;
+        if (m_color != null && m_store.getColor(i) != m_color)
+            return false;
+        if (m_type != null && !m_store.getType(i).equals(m_type))
+            return false;
+        if (m_endpoint != null && m_store.getFrom(i) != m_endpoint
+            && m_store.getTo(i) != m_endpoint)
+            return false;
+        if (m_carrierCell != null && !m_store.hasCarrierCell(i, m_carrierCell))
+            return false;
+        return true;
+    }
+
+    private void updateStatus()
+    {
+        String text = m_numRows + " of " + m_store.size() + " VCs";
+        if (!m_parsed)
+            text += ", parsing...";
+        m_status.setText(text);
+    }
 }
 
 //----------------------------------------------------------------------------
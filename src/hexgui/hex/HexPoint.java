@@ -113,6 +113,46 @@ public final class HexPoint implements Comparable
 	return null;
     }
 
+    /** Returns the point named by the characters [start, end) of
+        <code>s</code>, without creating a string. Accepts the same
+        names as <code>get(String)</code>.
+	@return the point or <code>null</code> if the name is invalid.
+    */
+    public static HexPoint get(CharSequence s, int start, int end)
+    {
+        int n = end - start;
+        if (n >= 2 && n <= 3) {
+            char c = Character.toLowerCase(s.charAt(start));
+            int x = c - 'a';
+            int y = 0;
+            for (int i = start + 1; i < end && y >= 0; ++i) {
+                int d = s.charAt(i) - '0';
+                y = (d < 0 || d > 9) ? -1 : y * 10 + d;
+            }
+            if (x >= 0 && x < MAX_WIDTH && y >= 1 && y <= MAX_HEIGHT)
+                return s_points[10 + (y-1)*MAX_WIDTH + x];
+        }
+        if (regionEquals(s, start, end, "swap"))
+            return SWAP_SIDES;
+        for (int i = 0; i < 10; ++i) {
+            if (regionEquals(s, start, end, s_points[i].m_string))
+                return s_points[i];
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end,
+                                        String name)
+    {
+        if (end - start != name.length())
+            return false;
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.toLowerCase(s.charAt(start + i)) != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
     /** Returns the string representation of the point. */
     public String toString()
     {
@@ -148,10 +188,17 @@ public final class HexPoint implements Comparable
         return -1;
     }
 
+    /** Returns the index of the point; see <code>get(int)</code>. */
+    public int getIndex()
+    {
+        return m_index;
+    }
+
     private HexPoint(int p, String name)
     {
         this.x = -1;
         this.y = p-10;
+        m_index = p;
         m_string = name;
     }
 
@@ -159,6 +206,7 @@ public final class HexPoint implements Comparable
     {
 	this.x = x;
 	this.y = y;
+        m_index = 10 + y*MAX_WIDTH + x;
 	m_string = name;
     }
 
@@ -179,6 +227,7 @@ public final class HexPoint implements Comparable
     
     
     public final int x, y;
+    private final int m_index;
     private final String m_string;
 }
 
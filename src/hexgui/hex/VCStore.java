@@ -0,0 +1,335 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.hex;
+
+import hexgui.util.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** A list of VCs stored by column.
+
+    <p>Each VC takes a few array entries instead of a VC object with
+    three point vectors, so lists of 100k VCs are cheap to keep, and
+    filters can run over the columns without creating any objects.
+    The points of the carriers, stone sets and keys are kept in one
+    shared array, as point indices. get() creates a VC when one is
+    needed, e.g. to display it.
+
+    <p>parse() reads the format of StringUtils.parseVCList() a given
+    number of VCs at a time, so a large response can be parsed in
+    chunks off the event thread and the chunks added with addAll().
+    A store is not thread-safe.
+*/
+public final class VCStore
+{
+    public VCStore()
+    {
+        m_types = new ArrayList<String>();
+        m_sources = new ArrayList<String>();
+        m_sources.add("unknown");  // source of soft limits
+        allocate(256, 1024);
+    }
+
+    public int size()
+    {
+        return m_size;
+    }
+
+    public HexColor getColor(int i)
+    {
+        return (m_color[i] == 0) ? HexColor.BLACK : HexColor.WHITE;
+    }
+
+    public HexPoint getFrom(int i)
+    {
+        return HexPoint.get(m_from[i]);
+    }
+
+    public HexPoint getTo(int i)
+    {
+        return HexPoint.get(m_to[i]);
+    }
+
+    public String getType(int i)
+    {
+        return m_types.get(m_type[i]);
+    }
+
+    public String getSource(int i)
+    {
+        return m_sources.get(m_source[i]);
+    }
+
+    /** Returns true for the separator the program puts at its soft
+        limit; it has no source, carrier or stones. */
+    public boolean isSoftLimit(int i)
+    {
+        return getType(i).equals("softlimit");
+    }
+
+    /** Returns the number of carrier, stone and key points of a VC. */
+    public int getNumPoints(int i)
+    {
+        return m_numCarrier[i] + m_numStones[i] + m_numKey[i];
+    }
+
+    public boolean hasCarrierCell(int i, HexPoint p)
+    {
+        short index = (short)p.getIndex();
+        int start = m_start[i];
+        int end = start + m_numCarrier[i];
+        for (int j = start; j < end; ++j)
+            if (m_points[j] == index)
+                return true;
+        return false;
+    }
+
+    /** Returns the types that occur, in order of appearance. */
+    public List<String> getTypes()
+    {
+        return m_types;
+    }
+
+    /** Creates a VC object for the VC at index i. */
+    public VC get(int i)
+    {
+        int start = m_start[i];
+        Vector<HexPoint> carrier = getPoints(start, m_numCarrier[i]);
+        start += m_numCarrier[i];
+        Vector<HexPoint> stones = getPoints(start, m_numStones[i]);
+        start += m_numStones[i];
+        Vector<HexPoint> key = getPoints(start, m_numKey[i]);
+        return new VC(getFrom(i), getTo(i), getColor(i), getType(i),
+                      getSource(i), 0, carrier, stones, key);
+    }
+
+    /** Appends the VCs of another store. */
+    public void addAll(VCStore other)
+    {
+        int n = other.m_size;
+        allocate(m_size + n, m_numPoints + other.m_numPoints);
+        byte typeMap[] = new byte[other.m_types.size()];
+        for (int i = 0; i < typeMap.length; ++i)
+            typeMap[i] = (byte)intern(m_types, other.m_types.get(i));
+        short sourceMap[] = new short[other.m_sources.size()];
+        for (int i = 0; i < sourceMap.length; ++i)
+            sourceMap[i] = (short)intern(m_sources, other.m_sources.get(i));
+        System.arraycopy(other.m_color, 0, m_color, m_size, n);
+        System.arraycopy(other.m_from, 0, m_from, m_size, n);
+        System.arraycopy(other.m_to, 0, m_to, m_size, n);
+        System.arraycopy(other.m_numCarrier, 0, m_numCarrier, m_size, n);
+        System.arraycopy(other.m_numStones, 0, m_numStones, m_size, n);
+        System.arraycopy(other.m_numKey, 0, m_numKey, m_size, n);
+        for (int i = 0; i < n; ++i) {
+            m_type[m_size + i] = typeMap[other.m_type[i]];
+            m_source[m_size + i] = sourceMap[other.m_source[i]];
+            m_start[m_size + i] = other.m_start[i] + m_numPoints;
+        }
+        System.arraycopy(other.m_points, 0, m_points, m_numPoints,
+                         other.m_numPoints);
+        m_size += n;
+        m_numPoints += other.m_numPoints;
+    }
+
+    /** Parses up to maxVCs VCs from the tokenizer and appends them.
+        As StringUtils.parseVCList() did, parsing stops at the first
+        malformed VC, after printing a message.
+        @return false if there is no more input to parse. */
+    public boolean parse(Tokenizer tk, int maxVCs)
+    {
+        for (int n = 0; n < maxVCs; ++n) {
+            if (!tk.next())
+                return false;
+            try {
+                parseVC(tk);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Exception occurred while parsing VC: '"
+                                   + e.getMessage() + "'");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //------------------------------------------------------------
+
+    private final ArrayList<String> m_types;
+
+    private final ArrayList<String> m_sources;
+
+    private int m_size;
+
+    private byte m_color[];
+
+    private short m_from[];
+
+    private short m_to[];
+
+    /** Index into m_types. */
+    private byte m_type[];
+
+    /** Index into m_sources; 0 is "unknown". */
+    private short m_source[];
+
+    /** Start of the carrier in m_points; the stones and key follow. */
+    private int m_start[];
+
+    private short m_numCarrier[];
+
+    private short m_numStones[];
+
+    private byte m_numKey[];
+
+    private short m_points[];
+
+    private int m_numPoints;
+
+    /** Parses a VC; the current token is its color. */
+    private void parseVC(Tokenizer tk)
+    {
+        HexColor color;
+        if (tk.tokenEquals("black"))
+            color = HexColor.BLACK;
+        else if (tk.tokenEquals("white"))
+            color = HexColor.WHITE;
+        else
+            throw new IllegalArgumentException("Invalid color '"
+                                               + tk.token() + "'");
+        tk.expectNext();
+        HexPoint from = point(tk);
+        tk.expectNext();
+        HexPoint to = point(tk);
+        tk.expectNext();
+        int type = intern(m_types, tk);
+        int source = 0;
+        int start = m_numPoints;
+        int numCarrier = 0;
+        int numStones = 0;
+        int numKey = 0;
+        if (m_types.get(type).equals("softlimit"))
+            tk.next();  // skip the field in place of the source
+        else {
+            tk.expectNext();
+            source = intern(m_sources, tk);
+            tk.expectNext();
+            numCarrier = parseSet(tk, "No carrier!");
+            tk.expectNext();
+            numStones = parseSet(tk, "No stones!");
+            if (m_types.get(type).equals("semi")) {
+                tk.expectNext();
+                addPoint(point(tk));
+                numKey = 1;
+            }
+        }
+        allocate(m_size + 1, m_numPoints);
+        m_color[m_size] = (byte)(color == HexColor.BLACK ? 0 : 1);
+        m_from[m_size] = (short)from.getIndex();
+        m_to[m_size] = (short)to.getIndex();
+        m_type[m_size] = (byte)type;
+        m_source[m_size] = (short)source;
+        m_start[m_size] = start;
+        m_numCarrier[m_size] = (short)numCarrier;
+        m_numStones[m_size] = (short)numStones;
+        m_numKey[m_size] = (byte)numKey;
+        ++m_size;
+    }
+
+    /** Parses a point set "[ a1 b2 ]"; the current token must be the
+        opening bracket.
+        @return the number of points. */
+    private int parseSet(Tokenizer tk, String message)
+    {
+        if (!tk.tokenEquals("["))
+            throw new IllegalArgumentException(message);
+        int n = 0;
+        for (tk.expectNext(); !tk.tokenEquals("]"); tk.expectNext()) {
+            addPoint(point(tk));
+            ++n;
+        }
+        return n;
+    }
+
+    private static HexPoint point(Tokenizer tk)
+    {
+        HexPoint p = HexPoint.get(tk.getInput(), tk.start(), tk.end());
+        if (p == null)
+            throw new IllegalArgumentException("Invalid point '"
+                                               + tk.token() + "'");
+        return p;
+    }
+
+    private void addPoint(HexPoint p)
+    {
+        allocate(m_size, m_numPoints + 1);
+        m_points[m_numPoints++] = (short)p.getIndex();
+    }
+
+    /** Returns the index of the current token in the list, adding it
+        if needed. */
+    private static int intern(ArrayList<String> list, Tokenizer tk)
+    {
+        for (int i = 0; i < list.size(); ++i)
+            if (tk.tokenEquals(list.get(i)))
+                return i;
+        list.add(tk.token());
+        return list.size() - 1;
+    }
+
+    private static int intern(ArrayList<String> list, String s)
+    {
+        int i = list.indexOf(s);
+        if (i >= 0)
+            return i;
+        list.add(s);
+        return list.size() - 1;
+    }
+
+    private Vector<HexPoint> getPoints(int start, int n)
+    {
+        Vector<HexPoint> points = new Vector<HexPoint>(n);
+        for (int j = start; j < start + n; ++j)
+            points.add(HexPoint.get(m_points[j]));
+        return points;
+    }
+
+    /** Makes room for the given number of VCs and points. */
+    private void allocate(int vcs, int points)
+    {
+        if (m_color == null || vcs > m_color.length) {
+            int n = Math.max(vcs, (m_color == null) ? 0
+                             : 2 * m_color.length);
+            m_color = (m_color == null) ? new byte[n]
+                : Arrays.copyOf(m_color, n);
+            m_from = (m_from == null) ? new short[n]
+                : Arrays.copyOf(m_from, n);
+            m_to = (m_to == null) ? new short[n] : Arrays.copyOf(m_to, n);
+            m_type = (m_type == null) ? new byte[n]
+                : Arrays.copyOf(m_type, n);
+            m_source = (m_source == null) ? new short[n]
+                : Arrays.copyOf(m_source, n);
+            m_start = (m_start == null) ? new int[n]
+                : Arrays.copyOf(m_start, n);
+            m_numCarrier = (m_numCarrier == null) ? new short[n]
+                : Arrays.copyOf(m_numCarrier, n);
+            m_numStones = (m_numStones == null) ? new short[n]
+                : Arrays.copyOf(m_numStones, n);
+            m_numKey = (m_numKey == null) ? new byte[n]
+                : Arrays.copyOf(m_numKey, n);
+        }
+        if (m_points == null || points > m_points.length) {
+            int n = Math.max(points, (m_points == null) ? 0
+                             : 2 * m_points.length);
+            m_points = (m_points == null) ? new short[n]
+                : Arrays.copyOf(m_points, n);
+        }
+    }
+}
+
+//----------------------------------------------------------------------------
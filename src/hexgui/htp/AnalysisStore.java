@@ -0,0 +1,319 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+//----------------------------------------------------------------------------
+
+/** Persistent store of HTP responses, shared across sessions.
+
+    <p>Responses are keyed by a position hash and the command that
+    produced them.  Records are appended to a log file; an index file
+    holds the offset of the most recent record for each key so the
+    log does not need to be scanned on startup.  If the index is
+    missing or does not match the log it is rebuilt from the log.
+
+    <p>When the log grows beyond the size cap it is compacted: stale
+    records are dropped and the oldest live records are discarded
+    until the log fits into half the cap.
+*/
+public final class AnalysisStore
+{
+    /** Opens (or creates) the store in the given directory.
+        @param dir directory holding the log and index files
+        @param maxBytes size cap of the log file
+    */
+    public AnalysisStore(File dir, long maxBytes) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create directory '"
+                                  + dir.getPath() + "'");
+        m_logFile = new File(dir, LOG_NAME);
+        m_indexFile = new File(dir, INDEX_NAME);
+        m_maxBytes = maxBytes;
+        m_index = new HashMap<Long, Long>();
+        m_log = new RandomAccessFile(m_logFile, "rw");
+        m_idx = new RandomAccessFile(m_indexFile, "rw");
+        if (!readIndex())
+            rebuildIndex();
+    }
+
+    /** Returns the stored response for the command in the given
+        position, or <code>null</code> if there is none. */
+    public synchronized String get(long position, String command)
+    {
+        Long offset = m_index.get(key(position, command));
+        if (offset == null)
+            return null;
+        try {
+            Record r = readRecord(offset.longValue());
+            if (r == null || r.position != position
+                || !r.command.equals(command))
+                return null;
+            return r.response;
+        }
+        catch (IOException e) {
+            System.out.println("AnalysisStore: read failed: "
+                               + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Stores the response for the command in the given position. */
+    public synchronized void put(long position, String command,
+                                 String response)
+    {
+        try {
+            long offset = m_log.length();
+            writeRecord(m_log, offset, position, command, response);
+            long key = key(position, command);
+            m_index.put(key, offset);
+            m_idx.seek(m_idx.length());
+            m_idx.writeLong(key);
+            m_idx.writeLong(offset);
+            if (m_log.length() > m_maxBytes)
+                compact();
+        }
+        catch (IOException e) {
+            System.out.println("AnalysisStore: write failed: "
+                               + e.getMessage());
+        }
+    }
+
+    /** Rewrites the log keeping only the most recent record for each
+        key, and only as many of the newest records as fit into half
+        of the size cap. */
+    public synchronized void compact() throws IOException
+    {
+        ArrayList<Long> offsets = new ArrayList<Long>(m_index.values());
+        Collections.sort(offsets, Collections.reverseOrder());
+
+        File tmpFile = new File(m_logFile.getPath() + ".tmp");
+        ArrayList<Record> kept = new ArrayList<Record>();
+        long size = 0;
+        for (Long offset : offsets) {
+            Record r = readRecord(offset.longValue());
+            if (r == null)
+                continue;
+            size += r.size;
+            if (size > m_maxBytes / 2)
+                break;
+            kept.add(r);
+        }
+        // Write oldest first so that offsets keep their meaning as age.
+        Collections.reverse(kept);
+        Map<Long, Long> index = new HashMap<Long, Long>();
+        RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+        try {
+            tmp.setLength(0);
+            for (Record r : kept) {
+                long offset = tmp.length();
+                writeRecord(tmp, offset, r.position, r.command, r.response);
+                index.put(key(r.position, r.command), offset);
+            }
+        }
+        finally {
+            tmp.close();
+        }
+        // The log stays open until the compacted file is in place, so
+        // a failed move leaves the store working on the old log, which
+        // the index still matches.
+        try {
+            Files.move(tmpFile.toPath(), m_logFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            // Some systems cannot replace an open file; try again
+            // with the log closed.
+            m_log.close();
+            try {
+                Files.move(tmpFile.toPath(), m_logFile.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException e2) {
+                tmpFile.delete();
+                m_log = new RandomAccessFile(m_logFile, "rw");
+                throw new IOException("Could not replace '"
+                                      + m_logFile.getPath() + "': "
+                                      + e2.getMessage());
+            }
+        }
+        // Closing is a no-op if the log was closed for the move.
+        RandomAccessFile old = m_log;
+        m_log = new RandomAccessFile(m_logFile, "rw");
+        old.close();
+        m_index.clear();
+        m_index.putAll(index);
+        writeIndex();
+        System.out.println("AnalysisStore: compacted to " + kept.size()
+                           + " entries, " + m_log.length() + " bytes.");
+    }
+
+    /** Closes the underlying files. */
+    public synchronized void close()
+    {
+        try {
+            m_log.close();
+            m_idx.close();
+        }
+        catch (IOException e) {
+            System.out.println("AnalysisStore: close failed: "
+                               + e.getMessage());
+        }
+    }
+
+    /** Number of distinct entries in the store. */
+    public synchronized int size()
+    {
+        return m_index.size();
+    }
+
+    //------------------------------------------------------------
+
+    private static final String LOG_NAME = "analysis.log";
+    private static final String INDEX_NAME = "analysis.idx";
+
+    private static final int MAGIC = 0x48475853;  // "HGXS"
+
+    /** A record read back from the log. */
+    private static final class Record
+    {
+        long position;
+        String command;
+        String response;
+        long size;
+    }
+
+    private static long key(long position, String command)
+    {
+        return position * 0x9E3779B97F4A7C15L + command.hashCode();
+    }
+
+    private static void writeRecord(RandomAccessFile file, long offset,
+                                    long position, String command,
+                                    String response) throws IOException
+    {
+        byte[] cmd = command.getBytes(StandardCharsets.UTF_8);
+        byte[] resp = response.getBytes(StandardCharsets.UTF_8);
+        file.seek(offset);
+        file.writeInt(MAGIC);
+        file.writeLong(position);
+        file.writeInt(cmd.length);
+        file.write(cmd);
+        file.writeInt(resp.length);
+        file.write(resp);
+    }
+
+    /** Reads the record at the given offset; returns null if there
+        is no valid record there. */
+    private Record readRecord(long offset) throws IOException
+    {
+        long length = m_log.length();
+        if (offset + 16 > length)
+            return null;
+        m_log.seek(offset);
+        if (m_log.readInt() != MAGIC)
+            return null;
+        Record r = new Record();
+        r.position = m_log.readLong();
+        int cmdLength = m_log.readInt();
+        if (cmdLength < 0 || m_log.getFilePointer() + cmdLength > length)
+            return null;
+        byte[] cmd = new byte[cmdLength];
+        m_log.readFully(cmd);
+        int respLength = m_log.readInt();
+        if (respLength < 0 || m_log.getFilePointer() + respLength > length)
+            return null;
+        byte[] resp = new byte[respLength];
+        m_log.readFully(resp);
+        r.command = new String(cmd, StandardCharsets.UTF_8);
+        r.response = new String(resp, StandardCharsets.UTF_8);
+        r.size = m_log.getFilePointer() - offset;
+        return r;
+    }
+
+    /** Loads the index file. Returns false if it is unusable. */
+    private boolean readIndex() throws IOException
+    {
+        long logLength = m_log.length();
+        long n = m_idx.length() / 16;
+        if (m_idx.length() % 16 != 0)
+            return false;
+        m_idx.seek(0);
+        Map<Long, Long> index = new HashMap<Long, Long>();
+        long last = -1;
+        for (long i = 0; i < n; ++i) {
+            long key = m_idx.readLong();
+            long offset = m_idx.readLong();
+            if (offset < 0 || offset >= logLength)
+                return false;
+            index.put(key, offset);
+            last = Math.max(last, offset);
+        }
+        // The newest indexed record must end exactly at the end of
+        // the log, otherwise the index is stale.
+        if (last < 0) {
+            if (logLength != 0)
+                return false;
+        } else {
+            Record r = readRecord(last);
+            if (r == null || last + r.size != logLength)
+                return false;
+        }
+        m_index.putAll(index);
+        return true;
+    }
+
+    /** Scans the log and rewrites the index from it. A truncated
+        record at the end of the log (from an interrupted write) is
+        cut off. */
+    private void rebuildIndex() throws IOException
+    {
+        System.out.println("AnalysisStore: rebuilding index.");
+        m_index.clear();
+        long offset = 0;
+        while (true) {
+            Record r = readRecord(offset);
+            if (r == null)
+                break;
+            m_index.put(key(r.position, r.command), offset);
+            offset += r.size;
+        }
+        m_log.setLength(offset);
+        writeIndex();
+    }
+
+    private void writeIndex() throws IOException
+    {
+        m_idx.setLength(0);
+        m_idx.seek(0);
+        for (Map.Entry<Long, Long> e : m_index.entrySet()) {
+            m_idx.writeLong(e.getKey());
+            m_idx.writeLong(e.getValue());
+        }
+    }
+
+    private final File m_logFile;
+    private final File m_indexFile;
+    private final long m_maxBytes;
+
+    private RandomAccessFile m_log;
+    private RandomAccessFile m_idx;
+
+    /** Maps key to offset of the most recent record in the log. */
+    private final Map<Long, Long> m_index;
+}
+
+//----------------------------------------------------------------------------
@@ -76,6 +76,18 @@ public class HtpController
         handleResponse();
     }
 
+    /** Answers a command from a stored response instead of sending
+        it to the program. The response is reported to the IOInterface
+        as if it had been received. */
+    public synchronized void useStoredResponse(String cmd, String response)
+    {
+        System.out.println("controller: stored '" + cmd.trim() + "'");
+        m_io.sentCommand(cmd);
+        m_success = true;
+        m_response = response;
+        m_io.receivedResponse("= " + response);
+    }
+
     public boolean cmdInProgress() { return m_waiting; }
 
     public boolean wasSuccess() { return m_success; }
@@ -0,0 +1,108 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+//----------------------------------------------------------------------------
+
+/** Parameters set in the program during this session, as seen in the
+    commands sent to it.
+
+    <p>Wraps the IOInterface of an HtpController, so it sees every
+    command, including those the parameter dialog sends directly. A
+    command "param_xxx name value" (the parameter commands of the
+    Benzene programs) sets a parameter; the same command without a
+    value only shows them. A value is recorded when the program
+    answers the command with success, so values the program rejects
+    are not part of the hash. A program starts each session with its
+    defaults, so equal hashes mean equal settings as long as the
+    program and its version are the same. */
+public final class ParameterState
+    implements HtpController.IOInterface
+{
+    public ParameterState(HtpController.IOInterface io)
+    {
+        m_io = io;
+        m_values = new TreeMap<String,String>();
+    }
+
+    /** Returns a hash of the parameters set so far; 0 if none. */
+    public synchronized long getHash()
+    {
+        long hash = 0;
+        for (Map.Entry<String,String> entry : m_values.entrySet())
+        {
+            String s = entry.getKey() + "=" + entry.getValue() + "\n";
+            if (hash == 0)
+                hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); ++i)
+                hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public void sentCommand(String str)
+    {
+        sent(str);
+        m_io.sentCommand(str);
+    }
+
+    public void receivedResponse(String str)
+    {
+        succeeded();
+        m_io.receivedResponse(str);
+    }
+
+    public void receivedError(String str)
+    {
+        m_io.receivedError(str);
+    }
+
+    //------------------------------------------------------------
+
+    private final HtpController.IOInterface m_io;
+
+    /** Value by "command name". */
+    private final TreeMap<String,String> m_values;
+
+    /** Key and value set by the command waiting for its response;
+        null if it sets no parameter. */
+    private String m_pendingKey;
+
+    private String m_pendingValue;
+
+    private synchronized void sent(String cmd)
+    {
+        cmd = cmd.trim();
+        // An interrupt is sent while another command is running.
+        if (cmd.startsWith("#"))
+            return;
+        m_pendingKey = null;
+        m_pendingValue = null;
+        if (!cmd.startsWith("param_"))
+            return;
+        int nameStart = cmd.indexOf(' ');
+        if (nameStart < 0)
+            return;
+        int valueStart = cmd.indexOf(' ', nameStart + 1);
+        if (valueStart < 0)
+            return;
+        m_pendingKey = cmd.substring(0, valueStart);
+        m_pendingValue = cmd.substring(valueStart + 1).trim();
+    }
+
+    private synchronized void succeeded()
+    {
+        if (m_pendingKey == null)
+            return;
+        m_values.put(m_pendingKey, m_pendingValue);
+        m_pendingKey = null;
+        m_pendingValue = null;
+    }
+}
+
+//----------------------------------------------------------------------------
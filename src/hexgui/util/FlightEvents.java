@@ -0,0 +1,140 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+//----------------------------------------------------------------------------
+
+/** Java Flight Recorder events of HexGui.
+
+    <p>The events show up in a recording started with e.g.
+    -XX:StartFlightRecording or jcmd, in the category HexGui. The
+    duration of each event is the time the work took. Creating an
+    event is cheap and does nothing unless a recording has the event
+    enabled, so the events are always created. */
+public final class FlightEvents
+{
+    /** A command sent to the program and its response, or a response
+        taken from the analysis store. */
+    @Name("hexgui.HtpCommand")
+    @Label("HTP Command")
+    @Category({"HexGui", "HTP"})
+    @StackTrace(false)
+    public static final class HtpCommand
+        extends Event
+    {
+        @Label("Command")
+        @Description("First word of the command")
+        public String command;
+
+        @Label("Sent")
+        @DataAmount
+        public int sent;
+
+        @Label("Received")
+        @DataAmount
+        public int received;
+
+        @Label("Queue Wait")
+        @Description("Time from queueing the command to sending it")
+        @Timespan
+        public long queueWait;
+
+        @Label("Stored")
+        @Description("Response taken from the analysis store")
+        public boolean stored;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    /** Parsing a gogui-gfx output of the program into an overlay. */
+    @Name("hexgui.Gfx")
+    @Label("GFX Update")
+    @Category({"HexGui", "HTP"})
+    @StackTrace(false)
+    public static final class Gfx
+        extends Event
+    {
+        @Label("Size")
+        @DataAmount
+        public int size;
+
+        @Label("Published")
+        @Description("Overlay handed to the board; false if the output"
+                     + " was stale or not understood")
+        public boolean published;
+    }
+
+    @Name("hexgui.SgfLoad")
+    @Label("SGF Load")
+    @Category({"HexGui", "SGF"})
+    @StackTrace(false)
+    public static final class SgfLoad
+        extends Event
+    {
+        @Label("File")
+        public String file;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("hexgui.SgfSave")
+    @Label("SGF Save")
+    @Category({"HexGui", "SGF"})
+    @StackTrace(false)
+    public static final class SgfSave
+        extends Event
+    {
+        @Label("File")
+        public String file;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    /** Painting the board on the event thread. */
+    @Name("hexgui.BoardPaint")
+    @Label("Board Paint")
+    @Category({"HexGui", "GUI"})
+    @StackTrace(false)
+    public static final class BoardPaint
+        extends Event
+    {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Scaled")
+        @Description("Last frame scaled while the board is resized")
+        public boolean scaled;
+    }
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private FlightEvents()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,157 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+//----------------------------------------------------------------------------
+
+/** Offsets of the lines of a text.
+
+    <p>The index is built in steps by scan(), so a large text can be
+    indexed in the background while the lines found so far are
+    already used: scan() must be called from one thread only, but the
+    other methods may be called from any thread for the lines counted
+    by getLineCount(). Line breaks at the end of the text are ignored.
+*/
+public final class LineIndex
+{
+    public LineIndex(CharSequence text)
+    {
+        int length = text.length();
+        while (length > 0 && text.charAt(length - 1) == '\n')
+            --length;
+        m_text = text;
+        m_length = length;
+        m_blocks = new int[16][];
+        m_blocks[0] = new int[BLOCK_SIZE];
+        // m_blocks[0][0] == 0 is the start of the first line.
+    }
+
+    public CharSequence getText()
+    {
+        return m_text;
+    }
+
+    /** Indexes the next maxChars characters of the text.
+        @return false if the whole text is indexed. */
+    public boolean scan(int maxChars)
+    {
+        if (isComplete())
+            return false;
+        int end = (int)Math.min((long)m_pos + maxChars, m_length);
+        int count = m_count;
+        int maxLength = m_maxLength;
+        for (int i = m_pos; i < end; ++i) {
+            if (m_text.charAt(i) == '\n') {
+                maxLength = Math.max(maxLength, i - getLineStart(count));
+                setStart(++count, i + 1);
+            }
+        }
+        m_pos = end;
+        if (end == m_length) {
+            // The last line ends at the end of the text.
+            maxLength = Math.max(maxLength, end - getLineStart(count));
+            setStart(++count, end + 1);
+        }
+        m_maxLength = maxLength;
+        // Written last, so readers that see the new count also see the
+        // offsets.
+        m_count = count;
+        return !isComplete();
+    }
+
+    public boolean isComplete()
+    {
+        return m_count > 0 && m_pos == m_length;
+    }
+
+    /** Returns the number of lines indexed so far. */
+    public int getLineCount()
+    {
+        return m_count;
+    }
+
+    /** Returns the length of the longest line indexed so far. */
+    public int getMaxLineLength()
+    {
+        return m_maxLength;
+    }
+
+    /** Returns the offset of the first character of a line. */
+    public int getLineStart(int line)
+    {
+        return m_blocks[line >> BLOCK_BITS][line & (BLOCK_SIZE - 1)];
+    }
+
+    /** Returns the offset after the last character of a line, not
+        counting the line break. */
+    public int getLineEnd(int line)
+    {
+        return getLineStart(line + 1) - 1;
+    }
+
+    public String getLine(int line)
+    {
+        return m_text.subSequence(getLineStart(line),
+                                  getLineEnd(line)).toString();
+    }
+
+    /** Returns the line containing the character at offset, or -1 if
+        that line is not indexed yet. */
+    public int findLine(int offset)
+    {
+        int count = m_count;
+        if (count == 0 || offset < 0 || offset > getLineEnd(count - 1))
+            return -1;
+        int min = 0;
+        int max = count - 1;
+        while (min < max) {
+            int mid = (min + max + 1) >>> 1;
+            if (getLineStart(mid) <= offset)
+                min = mid;
+            else
+                max = mid - 1;
+        }
+        return min;
+    }
+
+    //------------------------------------------------------------
+
+    private static final int BLOCK_BITS = 12;
+
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private final CharSequence m_text;
+
+    private final int m_length;
+
+    /** Line starts in blocks of BLOCK_SIZE. Blocks are never moved,
+        so a reader holding an old m_blocks still sees valid
+        offsets. The start of the line after the last one is kept as
+        well, as the end of the last line plus one. */
+    private volatile int m_blocks[][];
+
+    private volatile int m_count;
+
+    private volatile int m_maxLength;
+
+    /** Offset up to which the text is scanned; scan() only. */
+    private int m_pos;
+
+    private void setStart(int line, int offset)
+    {
+        int block = line >> BLOCK_BITS;
+        int blocks[][] = m_blocks;
+        if (block == blocks.length) {
+            int grown[][] = new int[2 * blocks.length][];
+            System.arraycopy(blocks, 0, grown, 0, blocks.length);
+            m_blocks = blocks = grown;
+        }
+        if (blocks[block] == null)
+            blocks[block] = new int[BLOCK_SIZE];
+        blocks[block][line & (BLOCK_SIZE - 1)] = offset;
+    }
+}
+
+//----------------------------------------------------------------------------
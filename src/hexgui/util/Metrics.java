@@ -0,0 +1,140 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//----------------------------------------------------------------------------
+
+/** Registry of performance metrics kept while HexGui runs.
+
+    <p>Metrics are looked up by name and created on first use, so the
+    code recording a metric and the code showing it (the performance
+    HUD) only share the name. Recording never takes a lock: a timer
+    claims a slot of its window with one atomic increment, and a gauge
+    is a single atomic value. Reading is meant for a display refreshed
+    a few times per second; it copies the window and sorts the copy.
+    A sample being written while the window is copied may show up as
+    the sample it replaces. */
+public final class Metrics
+{
+    /** The last samples of a duration. */
+    public static final class Timer
+    {
+        /** Records a duration in nanoseconds. */
+        public void record(long nanos)
+        {
+            long i = m_count.getAndIncrement();
+            m_window.set((int)(i & (WINDOW_SIZE - 1)), nanos);
+        }
+
+        /** Returns the number of samples recorded so far. */
+        public long getCount()
+        {
+            return m_count.get();
+        }
+
+        /** Returns the samples in the window in ascending order. */
+        public long[] getSorted()
+        {
+            int n = (int)Math.min(m_count.get(), WINDOW_SIZE);
+            long samples[] = new long[n];
+            for (int i = 0; i < n; ++i)
+                samples[i] = m_window.get(i);
+            Arrays.sort(samples);
+            return samples;
+        }
+
+        private final AtomicLong m_count = new AtomicLong();
+
+        private final AtomicLongArray m_window
+            = new AtomicLongArray(WINDOW_SIZE);
+
+        private Timer()
+        {
+        }
+    }
+
+    /** A value that is set, e.g. the length of a queue. */
+    public static final class Gauge
+    {
+        public void set(long value)
+        {
+            m_value.set(value);
+        }
+
+        public long get()
+        {
+            return m_value.get();
+        }
+
+        private final AtomicLong m_value = new AtomicLong();
+
+        private Gauge()
+        {
+        }
+    }
+
+    /** Samples kept per timer; a power of two. */
+    public static final int WINDOW_SIZE = 256;
+
+    /** Returns the timer with the given name, creating it if needed. */
+    public static Timer timer(String name)
+    {
+        Timer timer = s_timers.get(name);
+        if (timer == null)
+        {
+            Timer created = new Timer();
+            timer = s_timers.putIfAbsent(name, created);
+            if (timer == null)
+                timer = created;
+        }
+        return timer;
+    }
+
+    /** Returns the gauge with the given name, creating it if needed. */
+    public static Gauge gauge(String name)
+    {
+        Gauge gauge = s_gauges.get(name);
+        if (gauge == null)
+        {
+            Gauge created = new Gauge();
+            gauge = s_gauges.putIfAbsent(name, created);
+            if (gauge == null)
+                gauge = created;
+        }
+        return gauge;
+    }
+
+    /** Returns the given percentile of sorted samples, or -1 if there
+        are none.
+        @param sorted samples from Timer.getSorted().
+        @param percent the percentile, from 0 to 100. */
+    public static long percentile(long sorted[], double percent)
+    {
+        if (sorted.length == 0)
+            return -1;
+        int i = (int)Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+
+    //------------------------------------------------------------
+
+    private static final ConcurrentHashMap<String,Timer> s_timers
+        = new ConcurrentHashMap<String,Timer>();
+
+    private static final ConcurrentHashMap<String,Gauge> s_gauges
+        = new ConcurrentHashMap<String,Gauge>();
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private Metrics()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
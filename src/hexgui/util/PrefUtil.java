@@ -3,6 +3,8 @@
 package hexgui.util;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.prefs.Preferences;
 import java.util.prefs.BackingStoreException;
 
@@ -78,6 +80,115 @@ public final class PrefUtil
             prefs.put("element_" + i, list.get(i));
     }
 
+    /** Put a value to preferences in the background.
+        The value is written by a writer thread, so the caller never
+        waits for the backing store. Several values put to the same
+        key before the writer gets to them are written once, with the
+        last value.
+        @param prefs The node.
+        @param key The key.
+        @param value The value. */
+    public static void putLater(Preferences prefs, String key, String value)
+    {
+        synchronized (s_pending)
+        {
+            Map<String,String> values = s_pending.get(prefs);
+            if (values == null)
+            {
+                values = new LinkedHashMap<String,String>();
+                s_pending.put(prefs, values);
+            }
+            values.put(key, value);
+            if (s_writer == null)
+            {
+                s_writer = new Thread(new Runnable()
+                    {
+                        public void run()
+                        {
+                            writePending();
+                        }
+                    }, "HexGui preferences writer");
+                s_writer.setDaemon(true);
+                s_writer.start();
+            }
+            s_pending.notifyAll();
+        }
+    }
+
+    /** Wait until the values put with putLater() are written.
+        Call before exiting, since the writer thread does not keep the
+        program alive. */
+    public static void waitForPending()
+    {
+        synchronized (s_pending)
+        {
+            while (! s_pending.isEmpty() || s_writing)
+            {
+                try
+                {
+                    s_pending.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Values waiting to be written, by node. */
+    private static final Map<Preferences,Map<String,String>> s_pending
+        = new LinkedHashMap<Preferences,Map<String,String>>();
+
+    /** True while the writer writes values taken from s_pending. */
+    private static boolean s_writing;
+
+    private static Thread s_writer;
+
+    private static void writePending()
+    {
+        while (true)
+        {
+            Map<Preferences,Map<String,String>> pending;
+            synchronized (s_pending)
+            {
+                s_writing = false;
+                s_pending.notifyAll();
+                while (s_pending.isEmpty())
+                {
+                    try
+                    {
+                        s_pending.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                pending = new LinkedHashMap<Preferences,Map<String,String>>(
+                                                                 s_pending);
+                s_pending.clear();
+                s_writing = true;
+            }
+            for (Map.Entry<Preferences,Map<String,String>> node
+                     : pending.entrySet())
+                for (Map.Entry<String,String> entry
+                         : node.getValue().entrySet())
+                {
+                    try
+                    {
+                        node.getKey().put(entry.getKey(), entry.getValue());
+                    }
+                    catch (RuntimeException e)
+                    {
+                        System.out.println("Could not store preference "
+                                           + entry.getKey() + ": "
+                                           + e.getMessage());
+                    }
+                }
+        }
+    }
+
     /** Make constructor unavailable; class is for namespace only. */
     private PrefUtil()
     {
@@ -62,6 +62,28 @@ public class RadialGradientPaint
         return m_transparency;
     }
 
+    /** Center of the gradient. */
+    public Point2D getPoint()
+    {
+        return m_point;
+    }
+
+    /** Vector whose length is the radius of the gradient. */
+    public Point2D getRadius()
+    {
+        return m_radius;
+    }
+
+    public Color getPointColor()
+    {
+        return m_pointColor;
+    }
+
+    public Color getBackgroundColor()
+    {
+        return m_backgroundColor;
+    }
+
     private final int m_transparency;
 
     private Point2D m_transformedPoint;
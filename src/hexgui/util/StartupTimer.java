@@ -0,0 +1,62 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+
+//----------------------------------------------------------------------------
+
+/** Prints the time at which the phases of startup are reached.
+
+    <p>Disabled unless setEnabled() is called (the -timing command
+    line option), so mark() costs nothing in normal use. Each phase is
+    printed once, with the milliseconds since the virtual machine was
+    started, so the time spent before main() shows up as well. Can be
+    called from any thread. */
+public final class StartupTimer
+{
+    public static synchronized void setEnabled(boolean enabled)
+    {
+        s_enabled = enabled;
+        if (enabled && s_start == 0)
+            s_start = ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    public static boolean isEnabled()
+    {
+        return s_enabled;
+    }
+
+    /** Prints the time of a phase, if it was not reached before. */
+    public static void mark(String phase)
+    {
+        if (!s_enabled)
+            return;
+        synchronized (StartupTimer.class)
+        {
+            if (!s_marked.add(phase))
+                return;
+            System.out.println("Startup: " + phase + " at "
+                               + (System.currentTimeMillis() - s_start)
+                               + " ms");
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private static volatile boolean s_enabled;
+
+    private static long s_start;
+
+    private static final HashSet<String> s_marked = new HashSet<String>();
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private StartupTimer()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
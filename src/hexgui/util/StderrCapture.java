@@ -0,0 +1,212 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+//----------------------------------------------------------------------------
+
+/** Thread keeping the last output of a stream, e.g. the standard
+    error of a program.
+
+    <p>The stream is read in large blocks into a ring buffer outside
+    the Java heap, so a verbose program never waits for anything but
+    this thread, and memory use stays at the capacity however much it
+    writes. The start offsets of the lines are kept in a second ring,
+    so the retained text starts at a whole line. If the lines are
+    very short, old lines may be dropped before their bytes are
+    overwritten.
+
+    <p>run() is called by the reading thread; the other methods may be
+    called from any thread. */
+public final class StderrCapture
+    implements Runnable
+{
+    /** @param src Stream to read.
+        @param capacity Bytes to keep; at least BLOCK_SIZE are kept. */
+    public StderrCapture(InputStream src, int capacity)
+    {
+        m_src = src;
+        m_capacity = Math.max(capacity, BLOCK_SIZE);
+        m_ring = ByteBuffer.allocateDirect(m_capacity);
+        m_maxLines = Math.max(m_capacity / 32, 1024);
+        m_lines = ByteBuffer.allocateDirect(8 * m_maxLines).asLongBuffer();
+        addLine(0);
+    }
+
+    /** Reads the stream until it ends.
+        Exceptions caught are written to stderr. */
+    public void run()
+    {
+        try
+        {
+            byte buffer[] = new byte[BLOCK_SIZE];
+            while (true)
+            {
+                int n = m_src.read(buffer);
+                if (n < 0)
+                    break;
+                append(buffer, n);
+            }
+        }
+        catch (Throwable e)
+        {
+            StringUtils.printException(e);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                m_ended = true;
+            }
+        }
+    }
+
+    /** Returns true once the stream has ended. */
+    public synchronized boolean hasEnded()
+    {
+        return m_ended;
+    }
+
+    /** Returns the number of bytes read so far. */
+    public synchronized long getTotalBytes()
+    {
+        return m_written;
+    }
+
+    /** Returns the number of bytes read but no longer kept. */
+    public synchronized long getDroppedBytes()
+    {
+        return getStart();
+    }
+
+    /** Returns the number of lines kept; the last one may not be
+        complete yet. */
+    public synchronized int getLineCount()
+    {
+        return m_numLines;
+    }
+
+    /** Returns the kept text, decoded with the default charset. */
+    public String getText()
+    {
+        return new String(getBytes());
+    }
+
+    /** Writes the kept bytes to a file. */
+    public void save(File file) throws IOException
+    {
+        byte bytes[] = getBytes();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    /** Bytes read at a time. */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final InputStream m_src;
+
+    private final int m_capacity;
+
+    private final ByteBuffer m_ring;
+
+    private final int m_maxLines;
+
+    /** Absolute offsets of the line starts, in a ring. */
+    private final LongBuffer m_lines;
+
+    /** Index in m_lines of the first line kept. */
+    private int m_firstLine;
+
+    private int m_numLines;
+
+    /** Bytes read so far; the ring holds the last m_capacity. */
+    private long m_written;
+
+    private boolean m_ended;
+
+    private synchronized void append(byte buffer[], int n)
+    {
+        int pos = (int)(m_written % m_capacity);
+        int first = Math.min(n, m_capacity - pos);
+        m_ring.position(pos);
+        m_ring.put(buffer, 0, first);
+        if (first < n)
+        {
+            m_ring.position(0);
+            m_ring.put(buffer, first, n - first);
+        }
+        for (int i = 0; i < n; ++i)
+            if (buffer[i] == '\n')
+                addLine(m_written + i + 1);
+        m_written += n;
+        long oldest = m_written - m_capacity;
+        while (m_numLines > 0 && getLine(0) < oldest)
+            dropLine();
+    }
+
+    private void addLine(long start)
+    {
+        if (m_numLines == m_maxLines)
+            dropLine();
+        m_lines.put((m_firstLine + m_numLines) % m_maxLines, start);
+        ++m_numLines;
+    }
+
+    private void dropLine()
+    {
+        m_firstLine = (m_firstLine + 1) % m_maxLines;
+        --m_numLines;
+    }
+
+    private long getLine(int i)
+    {
+        return m_lines.get((m_firstLine + i) % m_maxLines);
+    }
+
+    /** Returns the offset of the first byte kept: the start of the
+        first whole line, or the oldest byte if a single line fills
+        the ring. */
+    private long getStart()
+    {
+        if (m_numLines > 0)
+            return getLine(0);
+        return Math.max(0, m_written - m_capacity);
+    }
+
+    private synchronized byte[] getBytes()
+    {
+        long start = getStart();
+        byte bytes[] = new byte[(int)(m_written - start)];
+        int pos = (int)(start % m_capacity);
+        int first = Math.min(bytes.length, m_capacity - pos);
+        ByteBuffer ring = m_ring.duplicate();
+        ring.position(pos);
+        ring.get(bytes, 0, first);
+        if (first < bytes.length)
+        {
+            ring.position(0);
+            ring.get(bytes, first, bytes.length - first);
+        }
+        return bytes;
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -2,10 +2,11 @@ package hexgui.util;
 
 import hexgui.hex.HexPoint;
 import hexgui.hex.HexColor;
+import hexgui.hex.Move;
 import hexgui.hex.VC;
+import hexgui.hex.VCStore;
 import hexgui.util.Pair;
 
-import java.io.StringReader;
 import java.io.PrintStream;
 import java.io.IOException;
 import java.util.Vector;
@@ -38,174 +39,96 @@ public final class StringUtils
     }
 
     /** Converts all whitespace characters to a single ' '. */
-    public static String cleanWhiteSpace(String str)
+    public static String cleanWhiteSpace(CharSequence str)
     {
-        StringReader reader = new StringReader(str);
-        StringBuilder ret = new StringBuilder();
-
+        int n = str.length();
+        char ret[] = new char[n];
+        int k = 0;
         boolean white = false;
-        while (true) {
-            int c;
-            try {
-                c = reader.read();
-            }
-            catch (Throwable t) {
-                System.out.println("Something bad happened!");
-                break;
-            }
-
-            if (c == -1) break;
+        for (int i = 0; i < n; ++i) {
+            char c = str.charAt(i);
             if (c == ' ' || c == '\n' || c == '\t') {
-                if (!white) ret.append(" ");
+                if (!white) ret[k++] = ' ';
                 white = true;
             } else {
                 white = false;
-                ret.append((char)c);
+                ret[k++] = c;
             }
         }
-        return ret.toString();
+        return new String(ret, 0, k);
     }
 
-    public static Vector<HexPoint> parsePointList(String str, String sep)
+    /** Parses whitespace separated points; names that are not points
+        give null entries. */
+    public static ArrayList<HexPoint> parsePointList(CharSequence str)
     {
-	Vector<HexPoint> ret = new Vector<HexPoint>();
-        String cleaned = cleanWhiteSpace(str.trim());
-        if (cleaned.length() == 0)
-            return ret;
-
-	String[] pts = cleaned.split(sep);
-	for (int i=0; i<pts.length; i++) {
-	    HexPoint p = HexPoint.get(pts[i].trim());
-	    ret.add(p);
-	}
-	return ret;
+        ArrayList<HexPoint> ret = new ArrayList<HexPoint>();
+        Tokenizer tk = new Tokenizer(str);
+        while (tk.next())
+            ret.add(HexPoint.get(tk.getInput(), tk.start(), tk.end()));
+        return ret;
     }
 
-    public static Vector<Pair<HexColor, HexPoint> > parseVariation(String str)
+    /** Parses a variation "B a1 W b2 ..."; a color starting with 'B'
+        is black, anything else white. */
+    public static ArrayList<Move> parseVariation(CharSequence str)
     {
-        Vector<Pair<HexColor, HexPoint> > ret 
-            =  new Vector<Pair<HexColor, HexPoint> >(); 
-
-        Vector<Pair<String, String> > pairs 
-            = StringUtils.parseStringPairList(str.trim());
-        for (int i=0; i<pairs.size(); ++i) 
-        {
-            HexColor color = (pairs.get(i).first.charAt(0) == 'B') 
+        ArrayList<Move> ret = new ArrayList<Move>();
+        Tokenizer tk = new Tokenizer(str);
+        while (tk.next()) {
+            HexColor color = (tk.charAt(0) == 'B') 
                 ? HexColor.BLACK : HexColor.WHITE;
-            HexPoint point = HexPoint.get(pairs.get(i).second);
-            ret.add(new Pair<HexColor, HexPoint>(color, point));
+            if (!tk.next())
+                break;
+            HexPoint point = HexPoint.get(tk.getInput(), tk.start(), 
+                                          tk.end());
+            ret.add(new Move(point, color));
         }
         return ret;
     }
 
-    public static Vector<HexPoint> parsePointList(String str)
+    public static ArrayList<String> parseStringList(CharSequence str)
     {
-        return parsePointList(str, " ");
+        ArrayList<String> ret = new ArrayList<String>();
+        Tokenizer tk = new Tokenizer(str);
+        while (tk.next())
+            ret.add(tk.token());
+        return ret;
     }
 
-    public static Vector<String> parseStringList(String str)
+    public static ArrayList<Pair<String, String> > 
+        parseStringPairList(CharSequence str)
     {
-	Vector<String> ret = new Vector<String>();
-        String cleaned = cleanWhiteSpace(str.trim());
-        if (cleaned.length() == 0)
-            return ret;
-
-	String[] strs = cleaned.split(" ");
-	for (int i=0; i<strs.length; i++) {
-	    String cur = strs[i].trim();
-	    ret.add(cur);
-	}
-	return ret;
+        return parseStringPairList(str, 0, str.length());
     }
 
-    public static Vector<Pair<String, String> > parseStringPairList(String str)
+    /** Parses the pairs in [start, end) of str, so a part of a
+        response can be parsed without copying it. A last token
+        without a partner is ignored. */
+    public static ArrayList<Pair<String, String> > 
+        parseStringPairList(CharSequence str, int start, int end)
     {
-	Vector<Pair<String, String> > ret = new Vector<Pair<String, String> >();
-        String cleaned = cleanWhiteSpace(str.trim());
-        if (cleaned.length() == 0)
-            return ret;
-
-	String[] strs = cleaned.split(" ");
-	for (int i=0; i<strs.length; i+=2) {
-	    String c1 = strs[i].trim();
-            String c2 = strs[i+1].trim();
-	    ret.add(new Pair<String, String>(c1, c2));
-	}
-	return ret;
+        ArrayList<Pair<String, String> > ret 
+            = new ArrayList<Pair<String, String> >();
+        Tokenizer tk = new Tokenizer(str, start, end);
+        while (tk.next()) {
+            String first = tk.token();
+            if (!tk.next())
+                break;
+            ret.add(new Pair<String, String>(first, tk.token()));
+        }
+        return ret;
     }
 
-    public static Vector<VC> parseVCList(String str)
+    /** Parses a list of VCs with VCStore.parse(); parsing stops at the
+        first malformed VC. */
+    public static ArrayList<VC> parseVCList(CharSequence str)
     {
-        Vector<VC> ret = new Vector<VC>();
-        String cleaned = cleanWhiteSpace(str.trim());
-        if (cleaned.length() == 0)
-            return ret;
-
-	String[] vcs = cleaned.split(" ");
-
-        for (int i=0, j=0; i<vcs.length; i+=j) {
-            HexPoint from, to;
-            HexColor color;
-            String type = "unknown";
-            int moves = 0;
-            Vector<HexPoint> carrier = new Vector<HexPoint>();
-            Vector<HexPoint> stones = new Vector<HexPoint>();
-            Vector<HexPoint> key = new Vector<HexPoint>();
-            String source = "unknown";
-
-            try {
-                color = HexColor.get(vcs[i+0]);
-                from = HexPoint.get(vcs[i+1]);
-                to = HexPoint.get(vcs[i+2]);
-                type = vcs[i+3];
-
-                j = 5;
-                if (!type.equals("softlimit")) {
-                    source = vcs[i+4];
-  
-                    // read carrier set
-                    if (!vcs[i+5].equals("["))
-                        throw new Throwable("No carrier!");
-                    
-                    for (j=6; j < vcs.length; j++) {
-                        if (vcs[i+j].equals("]")) break;
-                        HexPoint p = HexPoint.get(vcs[i+j]);
-                        carrier.add(p);
-                    }
-                    
-                    j++;  // skip closing ']'
-                
-                    // read stone set
-                    if (!vcs[i+j].equals("["))
-                        throw new Throwable("No stones! Should be '[', got '" +
-                                            vcs[j] + "'");
-                    
-                    for (j++; j < vcs.length; j++) {
-                        if (vcs[i+j].equals("]")) break;
-                        HexPoint p = HexPoint.get(vcs[i+j]);
-                        stones.add(p);
-                    }
-                    
-                    j++;  // skip closing ']'
-
-                    int blah = 0;
-                    if (type.equals("semi")) blah = 1;
-                    for (int k=0; k<blah; k++, j++) {
-                        HexPoint p = HexPoint.get(vcs[i+j]);
-                        key.add(p);
-                    }
-                }
-
-            }
-            catch(Throwable t) {
-                System.out.println("Exception occurred while parsing VC: '" +
-                                   t.getMessage() + "'");
-                return ret;                
-            }
-
-            ret.add(new VC(from, to, color, type, 
-                           source, moves, carrier, stones, key));
-        }
+        VCStore store = new VCStore();
+        store.parse(new Tokenizer(str), Integer.MAX_VALUE);
+        ArrayList<VC> ret = new ArrayList<VC>(store.size());
+        for (int i = 0; i < store.size(); ++i)
+            ret.add(store.get(i));
         return ret;
     }
 
@@ -0,0 +1,849 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.AttributedCharacterIterator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+//----------------------------------------------------------------------------
+
+/** Graphics2D that records what is drawn as an SVG document.
+
+    <p>Shapes, text, solid colors, GradientPaint, RadialGradientPaint and
+    AlphaComposite opacity are written as SVG elements; images are
+    embedded as PNG, each distinct image and size only once. Clipping
+    is recorded but not written, XOR mode and copyArea() are not
+    supported. Works without a display.
+
+    <p>Graphics created from this one with create() write to the same
+    document. Call write() when drawing is done.
+*/
+public final class SvgGraphics2D
+    extends Graphics2D
+{
+    /** Creates a graphics for a document of the given size. */
+    public SvgGraphics2D(int width, int height)
+    {
+        m_doc = new Document(width, height);
+        m_transform = new AffineTransform();
+        m_color = Color.black;
+        m_paint = m_color;
+        m_composite = AlphaComposite.SrcOver;
+        m_stroke = new BasicStroke();
+        m_font = new Font(Font.DIALOG, Font.PLAIN, 12);
+        m_background = Color.white;
+        m_hints = new RenderingHints(null);
+    }
+
+    /** Writes the SVG document drawn so far. */
+    public void write(Writer out) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\""
+                  + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+                  + " width=\"" + m_doc.m_width + "\" height=\""
+                  + m_doc.m_height + "\" viewBox=\"0 0 " + m_doc.m_width
+                  + " " + m_doc.m_height + "\">\n");
+        if (m_doc.m_defs.length() > 0) {
+            out.write("<defs>\n");
+            out.append(m_doc.m_defs);
+            out.write("</defs>\n");
+        }
+        out.append(m_doc.m_body);
+        out.write("</svg>\n");
+    }
+
+    //------------------------------------------------------------
+
+    public Graphics create()
+    {
+        SvgGraphics2D g = new SvgGraphics2D(m_doc);
+        g.m_transform = new AffineTransform(m_transform);
+        g.m_color = m_color;
+        g.m_paint = m_paint;
+        g.m_composite = m_composite;
+        g.m_stroke = m_stroke;
+        g.m_font = m_font;
+        g.m_background = m_background;
+        g.m_clip = m_clip;
+        g.m_hints = (RenderingHints)m_hints.clone();
+        return g;
+    }
+
+    public void dispose()
+    {
+    }
+
+    public void draw(Shape s)
+    {
+        StringBuilder b = m_doc.m_body;
+        b.append("<path d=\"");
+        appendPath(b, s);
+        b.append("\" fill=\"none\"");
+        appendPaint(b, "stroke");
+        if (m_stroke instanceof BasicStroke) {
+            BasicStroke stroke = (BasicStroke)m_stroke;
+            b.append(" stroke-width=\"").append(fmt(stroke.getLineWidth()))
+                .append('"');
+            if (stroke.getEndCap() == BasicStroke.CAP_ROUND)
+                b.append(" stroke-linecap=\"round\"");
+            else if (stroke.getEndCap() == BasicStroke.CAP_SQUARE)
+                b.append(" stroke-linecap=\"square\"");
+            if (stroke.getLineJoin() == BasicStroke.JOIN_ROUND)
+                b.append(" stroke-linejoin=\"round\"");
+            else if (stroke.getLineJoin() == BasicStroke.JOIN_BEVEL)
+                b.append(" stroke-linejoin=\"bevel\"");
+        }
+        appendTransform(b);
+        b.append("/>\n");
+    }
+
+    public void fill(Shape s)
+    {
+        StringBuilder b = m_doc.m_body;
+        b.append("<path d=\"");
+        appendPath(b, s);
+        b.append('"');
+        appendPaint(b, "fill");
+        appendTransform(b);
+        b.append("/>\n");
+    }
+
+    public void drawString(String str, float x, float y)
+    {
+        StringBuilder b = m_doc.m_body;
+        b.append("<text x=\"").append(fmt(x)).append("\" y=\"")
+            .append(fmt(y)).append("\" font-family=\"")
+            .append(escape(m_font.getFamily())).append(", sans-serif\"")
+            .append(" font-size=\"").append(fmt(m_font.getSize2D()))
+            .append('"');
+        if (m_font.isBold())
+            b.append(" font-weight=\"bold\"");
+        if (m_font.isItalic())
+            b.append(" font-style=\"italic\"");
+        appendPaint(b, "fill");
+        appendTransform(b);
+        b.append(" xml:space=\"preserve\">").append(escape(str))
+            .append("</text>\n");
+    }
+
+    public void drawString(String str, int x, int y)
+    {
+        drawString(str, (float)x, (float)y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator,
+                           float x, float y)
+    {
+        StringBuilder s = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE;
+             c = iterator.next())
+            s.append(c);
+        drawString(s.toString(), x, y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator,
+                           int x, int y)
+    {
+        drawString(iterator, (float)x, (float)y);
+    }
+
+    public void drawGlyphVector(GlyphVector g, float x, float y)
+    {
+        fill(g.getOutline(x, y));
+    }
+
+    public boolean drawImage(Image img, AffineTransform xform,
+                             ImageObserver obs)
+    {
+        AffineTransform old = m_transform;
+        m_transform = new AffineTransform(old);
+        if (xform != null)
+            m_transform.concatenate(xform);
+        boolean result = drawImage(img, 0, 0, obs);
+        m_transform = old;
+        return result;
+    }
+
+    public void drawImage(BufferedImage img, BufferedImageOp op,
+                          int x, int y)
+    {
+        drawImage(op == null ? img : op.filter(img, null), x, y, null);
+    }
+
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform)
+    {
+        if (img instanceof BufferedImage)
+            drawImage((BufferedImage)img, xform, null);
+    }
+
+    public void drawRenderableImage(RenderableImage img,
+                                    AffineTransform xform)
+    {
+        drawRenderedImage(img.createDefaultRendering(), xform);
+    }
+
+    public boolean drawImage(Image img, int x, int y, ImageObserver obs)
+    {
+        int w = img.getWidth(obs);
+        int h = img.getHeight(obs);
+        if (w < 0 || h < 0)
+            return false;
+        return drawImage(img, x, y, w, h, obs);
+    }
+
+    public boolean drawImage(Image img, int x, int y, int w, int h,
+                             ImageObserver obs)
+    {
+        String id = m_doc.getImageId(img, w, h);
+        if (id == null)
+            return false;
+        StringBuilder b = m_doc.m_body;
+        b.append("<use xlink:href=\"#").append(id).append("\" x=\"")
+            .append(x).append("\" y=\"").append(y).append('"');
+        float opacity = getOpacity(255);
+        if (opacity < 1.0f)
+            b.append(" opacity=\"").append(fmt(opacity)).append('"');
+        appendTransform(b);
+        b.append("/>\n");
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bgcolor,
+                             ImageObserver obs)
+    {
+        return drawImage(img, x, y, obs);
+    }
+
+    public boolean drawImage(Image img, int x, int y, int w, int h,
+                             Color bgcolor, ImageObserver obs)
+    {
+        return drawImage(img, x, y, w, h, obs);
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+                             int sx1, int sy1, int sx2, int sy2,
+                             ImageObserver obs)
+    {
+        BufferedImage image = toBufferedImage(img);
+        if (image == null || sx2 <= sx1 || sy2 <= sy1)
+            return false;
+        BufferedImage part = new BufferedImage(sx2 - sx1, sy2 - sy1,
+                                               BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = part.createGraphics();
+        g.drawImage(image, 0, 0, sx2 - sx1, sy2 - sy1,
+                    sx1, sy1, sx2, sy2, null);
+        g.dispose();
+        return drawImage(part, dx1, dy1, dx2 - dx1, dy2 - dy1, obs);
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+                             int sx1, int sy1, int sx2, int sy2,
+                             Color bgcolor, ImageObserver obs)
+    {
+        return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, obs);
+    }
+
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke)
+    {
+        if (onStroke)
+            s = m_stroke.createStrokedShape(s);
+        return m_transform.createTransformedShape(s).intersects(rect);
+    }
+
+    public GraphicsConfiguration getDeviceConfiguration()
+    {
+        return s_scratch.getDeviceConfiguration();
+    }
+
+    public void setComposite(Composite comp)
+    {
+        m_composite = comp;
+    }
+
+    public Composite getComposite()
+    {
+        return m_composite;
+    }
+
+    public void setPaint(Paint paint)
+    {
+        if (paint == null)
+            return;
+        m_paint = paint;
+        if (paint instanceof Color)
+            m_color = (Color)paint;
+    }
+
+    public Paint getPaint()
+    {
+        return m_paint;
+    }
+
+    public void setColor(Color c)
+    {
+        if (c == null)
+            return;
+        m_color = c;
+        m_paint = c;
+    }
+
+    public Color getColor()
+    {
+        return m_color;
+    }
+
+    public void setStroke(Stroke s)
+    {
+        m_stroke = s;
+    }
+
+    public Stroke getStroke()
+    {
+        return m_stroke;
+    }
+
+    public void setRenderingHint(RenderingHints.Key key, Object value)
+    {
+        m_hints.put(key, value);
+    }
+
+    public Object getRenderingHint(RenderingHints.Key key)
+    {
+        return m_hints.get(key);
+    }
+
+    public void setRenderingHints(Map<?, ?> hints)
+    {
+        m_hints.clear();
+        m_hints.putAll(hints);
+    }
+
+    public void addRenderingHints(Map<?, ?> hints)
+    {
+        m_hints.putAll(hints);
+    }
+
+    public RenderingHints getRenderingHints()
+    {
+        return (RenderingHints)m_hints.clone();
+    }
+
+    public void translate(int x, int y)
+    {
+        m_transform.translate(x, y);
+    }
+
+    public void translate(double tx, double ty)
+    {
+        m_transform.translate(tx, ty);
+    }
+
+    public void rotate(double theta)
+    {
+        m_transform.rotate(theta);
+    }
+
+    public void rotate(double theta, double x, double y)
+    {
+        m_transform.rotate(theta, x, y);
+    }
+
+    public void scale(double sx, double sy)
+    {
+        m_transform.scale(sx, sy);
+    }
+
+    public void shear(double shx, double shy)
+    {
+        m_transform.shear(shx, shy);
+    }
+
+    public void transform(AffineTransform tx)
+    {
+        m_transform.concatenate(tx);
+    }
+
+    public void setTransform(AffineTransform tx)
+    {
+        m_transform = new AffineTransform(tx);
+    }
+
+    public AffineTransform getTransform()
+    {
+        return new AffineTransform(m_transform);
+    }
+
+    public void setBackground(Color color)
+    {
+        m_background = color;
+    }
+
+    public Color getBackground()
+    {
+        return m_background;
+    }
+
+    public void setPaintMode()
+    {
+    }
+
+    public void setXORMode(Color c)
+    {
+    }
+
+    public Font getFont()
+    {
+        return m_font;
+    }
+
+    public void setFont(Font font)
+    {
+        if (font != null)
+            m_font = font;
+    }
+
+    public FontMetrics getFontMetrics(Font f)
+    {
+        return s_scratch.getFontMetrics(f);
+    }
+
+    public FontRenderContext getFontRenderContext()
+    {
+        return s_scratch.getFontRenderContext();
+    }
+
+    public void clip(Shape s)
+    {
+        if (s == null) {
+            m_clip = null;
+            return;
+        }
+        Shape device = m_transform.createTransformedShape(s);
+        if (m_clip == null)
+            m_clip = device;
+        else
+            m_clip = m_clip.getBounds2D()
+                .createIntersection(device.getBounds2D());
+    }
+
+    public Rectangle getClipBounds()
+    {
+        Shape clip = getClip();
+        return (clip == null) ? null : clip.getBounds();
+    }
+
+    public void clipRect(int x, int y, int w, int h)
+    {
+        clip(new Rectangle(x, y, w, h));
+    }
+
+    public void setClip(int x, int y, int w, int h)
+    {
+        setClip(new Rectangle(x, y, w, h));
+    }
+
+    public Shape getClip()
+    {
+        if (m_clip == null)
+            return null;
+        try {
+            return m_transform.createInverse().createTransformedShape(m_clip);
+        } catch (java.awt.geom.NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    public void setClip(Shape clip)
+    {
+        m_clip = (clip == null) ? null
+            : m_transform.createTransformedShape(clip);
+    }
+
+    public void copyArea(int x, int y, int w, int h, int dx, int dy)
+    {
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2)
+    {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    public void fillRect(int x, int y, int w, int h)
+    {
+        fill(new Rectangle(x, y, w, h));
+    }
+
+    public void clearRect(int x, int y, int w, int h)
+    {
+        Paint paint = m_paint;
+        Composite composite = m_composite;
+        setColor(m_background);
+        m_composite = AlphaComposite.Src;
+        fillRect(x, y, w, h);
+        m_paint = paint;
+        m_composite = composite;
+    }
+
+    public void drawRoundRect(int x, int y, int w, int h,
+                              int arcWidth, int arcHeight)
+    {
+        draw(new RoundRectangle2D.Float(x, y, w, h, arcWidth, arcHeight));
+    }
+
+    public void fillRoundRect(int x, int y, int w, int h,
+                              int arcWidth, int arcHeight)
+    {
+        fill(new RoundRectangle2D.Float(x, y, w, h, arcWidth, arcHeight));
+    }
+
+    public void drawOval(int x, int y, int w, int h)
+    {
+        draw(new Ellipse2D.Float(x, y, w, h));
+    }
+
+    public void fillOval(int x, int y, int w, int h)
+    {
+        fill(new Ellipse2D.Float(x, y, w, h));
+    }
+
+    public void drawArc(int x, int y, int w, int h,
+                        int startAngle, int arcAngle)
+    {
+        draw(new Arc2D.Float(x, y, w, h, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    public void fillArc(int x, int y, int w, int h,
+                        int startAngle, int arcAngle)
+    {
+        fill(new Arc2D.Float(x, y, w, h, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    public void drawPolyline(int[] xPoints, int[] yPoints, int n)
+    {
+        if (n <= 0)
+            return;
+        Path2D.Float path = new Path2D.Float();
+        path.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < n; ++i)
+            path.lineTo(xPoints[i], yPoints[i]);
+        draw(path);
+    }
+
+    public void drawPolygon(int[] xPoints, int[] yPoints, int n)
+    {
+        draw(new Polygon(xPoints, yPoints, n));
+    }
+
+    public void fillPolygon(int[] xPoints, int[] yPoints, int n)
+    {
+        fill(new Polygon(xPoints, yPoints, n));
+    }
+
+    //------------------------------------------------------------
+
+    /** State shared by all graphics drawing to one document. */
+    private static final class Document
+    {
+        Document(int width, int height)
+        {
+            m_width = width;
+            m_height = height;
+            m_body = new StringBuilder();
+            m_defs = new StringBuilder();
+            m_images = new IdentityHashMap<Image, Map<Long, String>>();
+        }
+
+        String newId(String prefix)
+        {
+            return prefix + (m_nextId++);
+        }
+
+        /** Returns the id of the definition of the image drawn with
+            the given size, adding it if needed; null if the image
+            cannot be converted. */
+        String getImageId(Image img, int w, int h)
+        {
+            Map<Long, String> sizes = m_images.get(img);
+            if (sizes == null) {
+                sizes = new HashMap<Long, String>();
+                m_images.put(img, sizes);
+            }
+            Long size = Long.valueOf(((long)w << 32) | (h & 0xffffffffL));
+            String id = sizes.get(size);
+            if (id != null)
+                return id;
+            String data = encodePng(img);
+            if (data == null)
+                return null;
+            id = newId("i");
+            m_defs.append("<image id=\"").append(id)
+                .append("\" width=\"").append(w).append("\" height=\"")
+                .append(h).append("\" preserveAspectRatio=\"none\"")
+                .append(" xlink:href=\"data:image/png;base64,")
+                .append(data).append("\"/>\n");
+            sizes.put(size, id);
+            return id;
+        }
+
+        final int m_width;
+        final int m_height;
+        final StringBuilder m_body;
+        final StringBuilder m_defs;
+        final IdentityHashMap<Image, Map<Long, String>> m_images;
+        int m_nextId;
+    }
+
+    /** Used for font metrics and compatible images. */
+    private static final Graphics2D s_scratch
+        = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)
+        .createGraphics();
+
+    private final Document m_doc;
+    private AffineTransform m_transform;
+    private Color m_color;
+    private Paint m_paint;
+    private Composite m_composite;
+    private Stroke m_stroke;
+    private Font m_font;
+    private Color m_background;
+
+    /** Clip in device space; null for none. */
+    private Shape m_clip;
+
+    private RenderingHints m_hints;
+
+    private SvgGraphics2D(Document doc)
+    {
+        m_doc = doc;
+    }
+
+    private static BufferedImage toBufferedImage(Image img)
+    {
+        if (img instanceof BufferedImage)
+            return (BufferedImage)img;
+        int w = img.getWidth(null);
+        int h = img.getHeight(null);
+        if (w <= 0 || h <= 0)
+            return null;
+        BufferedImage image
+            = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return image;
+    }
+
+    private static String encodePng(Image img)
+    {
+        BufferedImage image = toBufferedImage(img);
+        if (image == null)
+            return null;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return Base64.getEncoder().encodeToString(out.toByteArray());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Opacity of the composite combined with a color's alpha. */
+    private float getOpacity(int alpha)
+    {
+        float opacity = alpha / 255.0f;
+        if (m_composite instanceof AlphaComposite)
+            opacity *= ((AlphaComposite)m_composite).getAlpha();
+        return opacity;
+    }
+
+    /** Appends the fill or stroke attribute for the current paint. */
+    private void appendPaint(StringBuilder b, String attribute)
+    {
+        Color color = m_color;
+        String value;
+        if (m_paint instanceof RadialGradientPaint) {
+            RadialGradientPaint p = (RadialGradientPaint)m_paint;
+            Point2D center = p.getPoint();
+            Point2D radius = p.getRadius();
+            String id = m_doc.newId("g");
+            m_doc.m_defs.append("<radialGradient id=\"").append(id)
+                .append("\" gradientUnits=\"userSpaceOnUse\" cx=\"")
+                .append(fmt(center.getX())).append("\" cy=\"")
+                .append(fmt(center.getY())).append("\" r=\"")
+                .append(fmt(radius.distance(0, 0))).append("\">");
+            appendStop(m_doc.m_defs, 0, p.getPointColor());
+            appendStop(m_doc.m_defs, 1, p.getBackgroundColor());
+            m_doc.m_defs.append("</radialGradient>\n");
+            value = "url(#" + id + ")";
+            color = Color.black;
+        } else if (m_paint instanceof GradientPaint) {
+            GradientPaint p = (GradientPaint)m_paint;
+            String id = m_doc.newId("g");
+            m_doc.m_defs.append("<linearGradient id=\"").append(id)
+                .append("\" gradientUnits=\"userSpaceOnUse\" x1=\"")
+                .append(fmt(p.getPoint1().getX())).append("\" y1=\"")
+                .append(fmt(p.getPoint1().getY())).append("\" x2=\"")
+                .append(fmt(p.getPoint2().getX())).append("\" y2=\"")
+                .append(fmt(p.getPoint2().getY())).append('"');
+            if (p.isCyclic())
+                m_doc.m_defs.append(" spreadMethod=\"reflect\"");
+            m_doc.m_defs.append('>');
+            appendStop(m_doc.m_defs, 0, p.getColor1());
+            appendStop(m_doc.m_defs, 1, p.getColor2());
+            m_doc.m_defs.append("</linearGradient>\n");
+            value = "url(#" + id + ")";
+            color = Color.black;
+        } else
+            value = toHex(color);
+        b.append(' ').append(attribute).append("=\"").append(value)
+            .append('"');
+        float opacity = getOpacity(color.getAlpha());
+        if (opacity < 1.0f)
+            b.append(' ').append(attribute).append("-opacity=\"")
+                .append(fmt(opacity)).append('"');
+    }
+
+    private static void appendStop(StringBuilder b, double offset,
+                                   Color color)
+    {
+        b.append("<stop offset=\"").append(fmt(offset))
+            .append("\" stop-color=\"").append(toHex(color)).append('"');
+        if (color.getAlpha() < 255)
+            b.append(" stop-opacity=\"")
+                .append(fmt(color.getAlpha() / 255.0)).append('"');
+        b.append("/>");
+    }
+
+    private void appendTransform(StringBuilder b)
+    {
+        if (m_transform.isIdentity())
+            return;
+        if (m_transform.getType() == AffineTransform.TYPE_TRANSLATION) {
+            b.append(" transform=\"translate(")
+                .append(fmt(m_transform.getTranslateX())).append(' ')
+                .append(fmt(m_transform.getTranslateY())).append(")\"");
+            return;
+        }
+        double m[] = new double[6];
+        m_transform.getMatrix(m);
+        b.append(" transform=\"matrix(");
+        for (int i = 0; i < 6; ++i) {
+            if (i > 0)
+                b.append(' ');
+            b.append(fmt(m[i]));
+        }
+        b.append(")\"");
+    }
+
+    private static void appendPath(StringBuilder b, Shape s)
+    {
+        double c[] = new double[6];
+        PathIterator it = s.getPathIterator(null);
+        boolean first = true;
+        for (; !it.isDone(); it.next()) {
+            if (!first)
+                b.append(' ');
+            first = false;
+            switch (it.currentSegment(c)) {
+            case PathIterator.SEG_MOVETO:
+                b.append('M').append(fmt(c[0])).append(' ').append(fmt(c[1]));
+                break;
+            case PathIterator.SEG_LINETO:
+                b.append('L').append(fmt(c[0])).append(' ').append(fmt(c[1]));
+                break;
+            case PathIterator.SEG_QUADTO:
+                b.append('Q').append(fmt(c[0])).append(' ').append(fmt(c[1]))
+                    .append(' ').append(fmt(c[2])).append(' ')
+                    .append(fmt(c[3]));
+                break;
+            case PathIterator.SEG_CUBICTO:
+                b.append('C').append(fmt(c[0])).append(' ').append(fmt(c[1]))
+                    .append(' ').append(fmt(c[2])).append(' ')
+                    .append(fmt(c[3])).append(' ').append(fmt(c[4]))
+                    .append(' ').append(fmt(c[5]));
+                break;
+            case PathIterator.SEG_CLOSE:
+                b.append('Z');
+                break;
+            }
+        }
+    }
+
+    private static String toHex(Color c)
+    {
+        return String.format("#%02x%02x%02x", c.getRed(), c.getGreen(),
+                             c.getBlue());
+    }
+
+    /** Formats a number with at most three decimals. */
+    private static String fmt(double d)
+    {
+        long scaled = Math.round(d * 1000);
+        if (scaled % 1000 == 0)
+            return Long.toString(scaled / 1000);
+        return Double.toString(scaled / 1000.0);
+    }
+
+    private static String escape(String s)
+    {
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '<')
+                b.append("&lt;");
+            else if (c == '>')
+                b.append("&gt;");
+            else if (c == '&')
+                b.append("&amp;");
+            else if (c == '"')
+                b.append("&quot;");
+            else
+                b.append(c);
+        }
+        return b.toString();
+    }
+}
+
+//----------------------------------------------------------------------------
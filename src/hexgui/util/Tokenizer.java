@@ -0,0 +1,238 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+//----------------------------------------------------------------------------
+
+/** Cursor over the whitespace separated tokens of a character
+    sequence.
+
+    <p>Tokens are reported as index ranges into the input, so stepping
+    through the input does not allocate; token() creates a string only
+    when one is actually needed. A tokenizer can be reset to a new
+    input and reused.
+*/
+public final class Tokenizer
+{
+    public Tokenizer()
+    {
+        reset("", 0, 0);
+    }
+
+    public Tokenizer(CharSequence input)
+    {
+        reset(input, 0, input.length());
+    }
+
+    public Tokenizer(CharSequence input, int start, int end)
+    {
+        reset(input, start, end);
+    }
+
+    /** Starts over on the range [start, end) of the input. */
+    public void reset(CharSequence input, int start, int end)
+    {
+        m_input = input;
+        m_pos = start;
+        m_end = end;
+        m_start = start;
+        m_tokenEnd = start;
+    }
+
+    /** Advances to the next token.
+        @return false if there are no more tokens. */
+    public boolean next()
+    {
+        int i = m_pos;
+        while (i < m_end && isSpace(m_input.charAt(i)))
+            ++i;
+        if (i == m_end) {
+            m_start = m_tokenEnd = m_pos = m_end;
+            return false;
+        }
+        m_start = i;
+        while (i < m_end && !isSpace(m_input.charAt(i)))
+            ++i;
+        m_tokenEnd = m_pos = i;
+        return true;
+    }
+
+    /** Advances to the next token, which must exist.
+        @throws IllegalArgumentException if the input is exhausted. */
+    public void expectNext()
+    {
+        if (!next())
+            throw new IllegalArgumentException("Unexpected end of input");
+    }
+
+    public CharSequence getInput()
+    {
+        return m_input;
+    }
+
+    /** Index of the first character of the current token. */
+    public int start()
+    {
+        return m_start;
+    }
+
+    /** Index after the last character of the current token. */
+    public int end()
+    {
+        return m_tokenEnd;
+    }
+
+    public int length()
+    {
+        return m_tokenEnd - m_start;
+    }
+
+    /** Returns the i'th character of the current token. */
+    public char charAt(int i)
+    {
+        return m_input.charAt(m_start + i);
+    }
+
+    /** Returns true if the current token equals the string. */
+    public boolean tokenEquals(String s)
+    {
+        int n = m_tokenEnd - m_start;
+        if (n != s.length())
+            return false;
+        for (int i = 0; i < n; ++i)
+            if (m_input.charAt(m_start + i) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** Returns the current token as a string. */
+    public String token()
+    {
+        return m_input.subSequence(m_start, m_tokenEnd).toString();
+    }
+
+    /** Parses the current token as a decimal integer.
+        @throws NumberFormatException if it is not one. */
+    public int tokenInt()
+    {
+        return parseInt(m_input, m_start, m_tokenEnd);
+    }
+
+    /** Parses the current token as a decimal number with optional
+        sign and fraction; other forms (exponents, "NaN") are left to
+        Float.parseFloat().
+        @throws NumberFormatException if it is not a number. */
+    public float tokenFloat()
+    {
+        return parseFloat(m_input, m_start, m_tokenEnd);
+    }
+
+    /** Returns true if there is nothing but whitespace left. */
+    public boolean atEnd()
+    {
+        int i = m_pos;
+        while (i < m_end && isSpace(m_input.charAt(i)))
+            ++i;
+        return i == m_end;
+    }
+
+    /** Returns the rest of the input after the current token, without
+        leading and trailing whitespace, and moves to the end. */
+    public String rest()
+    {
+        int s = m_pos;
+        int e = m_end;
+        while (s < e && isSpace(m_input.charAt(s)))
+            ++s;
+        while (e > s && isSpace(m_input.charAt(e - 1)))
+            --e;
+        m_start = m_tokenEnd = m_pos = m_end;
+        return m_input.subSequence(s, e).toString();
+    }
+
+    /** Parses the range [start, end) of the input as a decimal integer
+        with optional sign.
+        @throws NumberFormatException if it is not one. */
+    public static int parseInt(CharSequence s, int start, int end)
+    {
+        if (start >= end)
+            throw new NumberFormatException("Empty number");
+        boolean negative = false;
+        int i = start;
+        char c = s.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            if (++i == end)
+                throw new NumberFormatException("No digits");
+        }
+        int value = 0;
+        for (; i < end; ++i) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9)
+                throw new NumberFormatException
+                    ("Invalid number: " + s.subSequence(start, end));
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    /** Parses the range [start, end) of the input as a floating point
+        number; see tokenFloat().
+        @throws NumberFormatException if it is not one. */
+    public static float parseFloat(CharSequence s, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = (s.charAt(i) == '-');
+            ++i;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int d = c - '0';
+            if (d < 0 || d > 9 || digits >= 18)
+                return Float.parseFloat(s.subSequence(start, end).toString());
+            mantissa = mantissa * 10 + d;
+            ++digits;
+            if (fraction)
+                ++scale;
+        }
+        if (digits == 0)
+            throw new NumberFormatException
+                ("Invalid number: " + s.subSequence(start, end));
+        double value = mantissa;
+        for (int k = 0; k < scale; ++k)
+            value /= 10;
+        return (float)(negative ? -value : value);
+    }
+
+    public static boolean isSpace(char c)
+    {
+        return c <= ' ';
+    }
+
+    //------------------------------------------------------------
+
+    private CharSequence m_input;
+
+    /** Where the search for the next token starts. */
+    private int m_pos;
+
+    private int m_end;
+
+    private int m_start;
+
+    private int m_tokenEnd;
+}
+
+//----------------------------------------------------------------------------